@@ -1,5 +1,6 @@
 package UI;
 
+import analysis.CorrelationEdges;
 import analysis.GraphAnalysis;
 import analysis.SampleComparison;
 import graph.MyEdge;
@@ -11,6 +12,7 @@ import javafx.beans.binding.Bindings;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.event.EventHandler;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -35,14 +37,19 @@ import main.Main;
 import main.UserSettings;
 import model.AnalysisData;
 import model.LoadedData;
+import model.RankProjection;
 import model.Sample;
+import model.TaxonIndex;
+import model.TaxonNameIndex;
 import model.TaxonNode;
-import org.apache.commons.math3.linear.RealMatrix;
+import model.TaxonRank;
+import model.TaxonTree;
 import org.controlsfx.control.RangeSlider;
 import org.controlsfx.glyphfont.FontAwesome;
 import org.controlsfx.glyphfont.GlyphFontRegistry;
 import sampleParser.BiomV1Parser;
 import sampleParser.BiomV2Parser;
+import sampleParser.InputFile;
 import sampleParser.ReadName2TaxIdCSVParser;
 import sampleParser.TaxonId2CountCSVParser;
 import util.SaveAndLoadOptions;
@@ -106,6 +113,12 @@ public class MainStageController implements Initializable {
 
     public static boolean isMainViewMaximized = false;
 
+    //Set once the TreePreloadService has loaded the full tree, files opened before use the partial tree
+    private boolean isTaxonTreeLoaded = false;
+    private TaxonTree partialTree;
+    //Files opened with the partial tree and their types, their samples are parsed again with the full tree
+    private final LinkedHashMap<File, FileType> fastStartFiles = new LinkedHashMap<>();
+
     // alerts
     private Alert fileNotFoundAlert, confirmQuitAlert, aboutAlert, fileAlreadyLoadedAlert, wrongFileAlert, insufficientDataAlert;
 
@@ -277,6 +290,12 @@ public class MainStageController implements Initializable {
     @FXML
     private TextField excludeFrequencyText;
 
+    @FXML
+    private Slider correlationFloorSlider;
+
+    @FXML
+    private TextField correlationFloorText;
+
     /**
      * ANALYSIS PANE ELEMENTS
      */
@@ -511,33 +530,44 @@ public class MainStageController implements Initializable {
         //Delete whatever's been in the table before
         TableView<String[]> analysisTable = new TableView<>();
 
-        //We want to display correlations and p-Values of every node combination
-        double[][] correlationMatrix = AnalysisData.getCorrelationMatrix().getData();
-        double[][] pValueMatrix = AnalysisData.getPValueMatrix().getData();
-        LinkedList<TaxonNode> taxonList = SampleComparison.getUnifiedTaxonList(
-                LoadedData.getSamplesToAnalyze(), AnalysisData.getLevelOfAnalysis());
-
+        TaxonIndex taxonIndex = RankProjection.of(
+                LoadedData.getSamplesToAnalyze(), AnalysisData.getLevelOfAnalysis()).getTaxonIndex();
+        CorrelationEdges correlationEdges = AnalysisData.getCorrelationEdges();
 
         //Table will consist of strings
-        String[][] tableValues = new String[correlationMatrix.length][correlationMatrix[0].length + 1];
+        String[][] tableValues;
+        String[] columnTitles;
+        if (correlationEdges != null) {
+            //Only the pairs that reach the correlation floor are known, one row for each of them
+            tableValues = new String[correlationEdges.size()][];
+            for (int edge = 0; edge < correlationEdges.size(); edge++) {
+                tableValues[edge] = new String[]{taxonIndex.getNodeAt(correlationEdges.getSource(edge)).getName(),
+                        taxonIndex.getNodeAt(correlationEdges.getTarget(edge)).getName(),
+                        formatCorrelation(correlationEdges.getCorrelation(edge), correlationEdges.getPValue(edge))};
+            }
+            columnTitles = new String[]{"Taxon", "Taxon", "Correlation"};
+        } else {
+            //We want to display correlations and p-Values of every node combination
+            double[][] correlationMatrix = AnalysisData.getCorrelationMatrix().getData();
+            double[][] pValueMatrix = AnalysisData.getPValueMatrix().getData();
+            tableValues = new String[correlationMatrix.length][correlationMatrix[0].length + 1];
 
-        //Add the values as formatted strings
-        for (int i = 0; i < tableValues.length; i++) {
-            tableValues[i][0] = taxonList.get(i).getName();
-            for (int j = 1; j < tableValues[0].length; j++) {
-                tableValues[i][j] = String.format("%.3f", correlationMatrix[i][j - 1]).replace(",", ".")
-                        + "\n(" + String.format("%.2f", pValueMatrix[i][j - 1]).replace(",", ".") + ")";
+            //Add the values as formatted strings
+            for (int i = 0; i < tableValues.length; i++) {
+                tableValues[i][0] = taxonIndex.getNodeAt(i).getName();
+                for (int j = 1; j < tableValues[0].length; j++) {
+                    tableValues[i][j] = formatCorrelation(correlationMatrix[i][j - 1], pValueMatrix[i][j - 1]);
+                }
+            }
+            columnTitles = new String[tableValues[0].length];
+            columnTitles[0] = "";
+            for (int i = 1; i < columnTitles.length; i++) {
+                columnTitles[i] = taxonIndex.getNodeAt(i - 1).getName();
             }
         }
 
-        for (int i = 0; i < tableValues[0].length; i++) {
-            String columnTitle;
-            if (i > 0) {
-                columnTitle = taxonList.get(i - 1).getName();
-            } else {
-                columnTitle = "";
-            }
-            TableColumn<String[], String> column = new TableColumn<>(columnTitle);
+        for (int i = 0; i < columnTitles.length; i++) {
+            TableColumn<String[], String> column = new TableColumn<>(columnTitles[i]);
             final int columnIndex = i;
             column.setCellValueFactory(cellData -> {
                 String[] row = cellData.getValue();
@@ -560,8 +590,8 @@ public class MainStageController implements Initializable {
         BorderPane tablePane = new BorderPane();
         Button exportCorrelationsButton = new Button("Save correlation table to CSV");
         Button exportPValuesButton = new Button("Save p-value table to CSV");
-        exportCorrelationsButton.setOnAction(e -> exportTableToCSV(tableValues, false));
-        exportPValuesButton.setOnAction(e -> exportTableToCSV(tableValues, true));
+        exportCorrelationsButton.setOnAction(e -> exportTableToCSV(columnTitles, tableValues, false));
+        exportPValuesButton.setOnAction(e -> exportTableToCSV(columnTitles, tableValues, true));
         HBox exportBox = new HBox(exportCorrelationsButton, exportPValuesButton);
         exportBox.setPadding(new Insets(10));
         exportBox.setSpacing(10);
@@ -572,14 +602,23 @@ public class MainStageController implements Initializable {
         tableStage.show();
     }
 
+    /**
+     * @return the correlation and the p-value in the format of the correlation table
+     */
+    private static String formatCorrelation(double correlation, double pValue) {
+        return String.format("%.3f", correlation).replace(",", ".")
+                + "\n(" + String.format("%.2f", pValue).replace(",", ".") + ")";
+    }
+
     /**
      * exports the created table to a .csv file
      * uses a fileChooser to determine where to save the .csv file
      *
+     * @param columnTitles
      * @param tableValues
      * @param isPValue
      */
-    private void exportTableToCSV(String[][] tableValues, boolean isPValue) {
+    private void exportTableToCSV(String[] columnTitles, String[][] tableValues, boolean isPValue) {
         //We'll split up the table values into two parts - if we need correlations, we take the 0th one,
         // if we want p values, we take the 1st
         int splitNumber;
@@ -592,9 +631,8 @@ public class MainStageController implements Initializable {
             BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile));
 
             //Write names into first row
-            writer.write(",");
-            for (int i = 0; i < tableValues.length; i++) {
-                writer.write(tableValues[i][0] + ",");
+            for (String columnTitle : columnTitles) {
+                writer.write(columnTitle + ",");
             }
             writer.write("\n");
 
@@ -634,24 +672,26 @@ public class MainStageController implements Initializable {
         dataStatText.setText("Highest Frequency:\n"
                 + nodeWithHighestFrequency.getName() + " (" + String.format("%.3f", highestFrequency) + ")\n");
 
-        //Display nodes with highest positive/negative correlation
-        RealMatrix correlationMatrix = AnalysisData.getCorrelationMatrix();
+        //Display nodes with highest positive/negative correlation, if there is a pair with such a correlation
         int[] highestPositiveCorrelationCoordinates = AnalysisData.getHighestPositiveCorrelationCoordinates();
         int[] highestNegativeCorrelationCoordinates = AnalysisData.getHighestNegativeCorrelationCoordinates();
-        LinkedList<TaxonNode> taxonList = SampleComparison.getUnifiedTaxonList(LoadedData.getSamplesToAnalyze(), AnalysisData.getLevelOfAnalysis());
-        TaxonNode hPCNode1 = taxonList.get(highestPositiveCorrelationCoordinates[0]);
-        TaxonNode hPCNode2 = taxonList.get(highestPositiveCorrelationCoordinates[1]);
-        TaxonNode hNCNode1 = taxonList.get(highestNegativeCorrelationCoordinates[0]);
-        TaxonNode hNCNode2 = taxonList.get(highestNegativeCorrelationCoordinates[1]);
-
-        dataStatText.setText(dataStatText.getText() + "\nHighest Positive Correlation:\n"
-                + hPCNode1.getName() + " - " + hPCNode2.getName()
-                + " (" + String.format("%.3f", correlationMatrix.getEntry(highestPositiveCorrelationCoordinates[0], highestPositiveCorrelationCoordinates[1]))
-                + ")\n");
-        dataStatText.setText(dataStatText.getText() + "\nHighest Negative Correlation:\n"
-                + hNCNode1.getName() + " - " + hNCNode2.getName()
-                + " (" + String.format("%.3f", correlationMatrix.getEntry(highestNegativeCorrelationCoordinates[0], highestNegativeCorrelationCoordinates[1]))
-                + ")");
+        TaxonIndex taxonIndex = RankProjection.of(LoadedData.getSamplesToAnalyze(), AnalysisData.getLevelOfAnalysis()).getTaxonIndex();
+        if (highestPositiveCorrelationCoordinates != null) {
+            TaxonNode hPCNode1 = taxonIndex.getNodeAt(highestPositiveCorrelationCoordinates[0]);
+            TaxonNode hPCNode2 = taxonIndex.getNodeAt(highestPositiveCorrelationCoordinates[1]);
+            dataStatText.setText(dataStatText.getText() + "\nHighest Positive Correlation:\n"
+                    + hPCNode1.getName() + " - " + hPCNode2.getName()
+                    + " (" + String.format("%.3f", AnalysisData.getHighestPositiveCorrelation())
+                    + ")\n");
+        }
+        if (highestNegativeCorrelationCoordinates != null) {
+            TaxonNode hNCNode1 = taxonIndex.getNodeAt(highestNegativeCorrelationCoordinates[0]);
+            TaxonNode hNCNode2 = taxonIndex.getNodeAt(highestNegativeCorrelationCoordinates[1]);
+            dataStatText.setText(dataStatText.getText() + "\nHighest Negative Correlation:\n"
+                    + hNCNode1.getName() + " - " + hNCNode2.getName()
+                    + " (" + String.format("%.3f", AnalysisData.getHighestNegativeCorrelation())
+                    + ")");
+        }
 
         //Generate Data for the pie chart
         frequencyChart.getData().clear();
@@ -742,6 +782,7 @@ public class MainStageController implements Initializable {
             }
             collapseAllButton.setDisable(true);
         }
+        fastStartFiles.clear();
         analysisPane.setVisible(false);
         rankChoiceBox.setValue(null);
     }
@@ -832,41 +873,186 @@ public class MainStageController implements Initializable {
         List<File> selectedFiles = fileChooser.showOpenMultipleDialog(getPrimaryStage());
 
         if (selectedFiles != null) {
-            //Keeps every file that has been loaded before in a list to show only one alert
-            //for multiple files
-            ArrayList<String> namesOfAlreadyLoadedFiles = new ArrayList<>();
-            for (File file : selectedFiles) {
-                String foundFilePath = file.getAbsolutePath();
-                if (LoadedData.getOpenFiles() != null && LoadedData.getOpenFiles().contains(foundFilePath)) {
-                    namesOfAlreadyLoadedFiles.add(file.getName());
-                } else {
-                    switch (fileType) {
-                        case taxonId2Count:
-                            addId2CountFileToTreeView(file);
-                            break;
-                        case readName2TaxonId:
-                            addReadName2TaxonIdFileToTreeView(file);
-                            break;
-                        case biomV1:
-                            addBiomV1FileToTreeView(file);
-                            break;
-                        case biomV2:
-                            addBiomV2FileToTreeView(file);
-                            break;
-                        case qiime:
-                            //TODO HANDLE METADATA PROVIDED BY QIIME
-                            break;
+            if (isTaxonTreeLoaded) {
+                addSelectedFiles(fileType, selectedFiles);
+            } else {
+                loadPartialTree(fileType, selectedFiles);
+            }
+        }
+
+
+    }
+
+    /**
+     * Parses the files the user has chosen, files that are already open are skipped
+     *
+     * @param fileType      type of the selected files
+     * @param selectedFiles
+     */
+    private void addSelectedFiles(FileType fileType, List<File> selectedFiles) {
+        //Keeps every file that has been loaded before in a list to show only one alert
+        //for multiple files
+        ArrayList<String> namesOfAlreadyLoadedFiles = new ArrayList<>();
+        for (File file : selectedFiles) {
+            String foundFilePath = file.getAbsolutePath();
+            if (LoadedData.getOpenFiles() != null && LoadedData.getOpenFiles().contains(foundFilePath)) {
+                namesOfAlreadyLoadedFiles.add(file.getName());
+            } else {
+                addFileToTreeView(file, fileType);
+                //Files opened with a partial tree are parsed again once the full tree is there
+                if (!isTaxonTreeLoaded && LoadedData.getOpenFiles() != null
+                        && LoadedData.getOpenFiles().contains(foundFilePath)) {
+                    fastStartFiles.put(file, fileType);
+                }
+            }
+        }
+        //Shows an alert if the user chose to load one or multiple files
+        //that have already been loaded before.
+        if (namesOfAlreadyLoadedFiles.size() != 0) {
+            showFileAlreadyLoadedAlert(namesOfAlreadyLoadedFiles);
+        }
+    }
+
+    /**
+     * Parses a file with the parser of its type and adds its samples
+     *
+     * @param file
+     * @param fileType
+     */
+    private void addFileToTreeView(File file, FileType fileType) {
+        ArrayList<Sample> samples = parseFile(file, fileType);
+        if (samples != null) {
+            LoadedData.addSamplesToDatabase(samples, treeViewFiles, file);
+            activateButtons();
+        }
+    }
+
+    /**
+     * Parses a file with the parser of its type and the current tree
+     *
+     * @param file
+     * @param fileType
+     * @return the samples of the file, null if it can't be parsed
+     */
+    private ArrayList<Sample> parseFile(File file, FileType fileType) {
+        switch (fileType) {
+            case taxonId2Count:
+                return parseId2CountFile(file);
+            case readName2TaxonId:
+                return parseReadName2TaxonIdFile(file);
+            case biomV1:
+                return parseBiomV1File(file);
+            case biomV2:
+                return parseBiomV2File(file);
+            default:
+                //TODO HANDLE METADATA PROVIDED BY QIIME
+                return null;
+        }
+    }
+
+    /**
+     * <h1>Fast start: builds a partial tree for files that are opened before the full tree is loaded</h1>
+     * The taxon ids of the files are scanned and only these taxa and their ancestors are parsed, both in a background
+     * task. Once the partial tree is there, files that were opened with an earlier partial tree are parsed again with
+     * the new one, so all samples share the same tree, and the selected files are opened.
+     *
+     * @param fileType      type of the selected files
+     * @param selectedFiles
+     */
+    private void loadPartialTree(FileType fileType, List<File> selectedFiles) {
+        if (fileType == FileType.qiime) {
+            showTreeNotLoadedAlert();
+            return;
+        }
+        Task<TaxonTree> partialTreeTask = new Task<TaxonTree>() {
+            @Override
+            protected TaxonTree call() throws Exception {
+                HashSet<Integer> taxonIds = new HashSet<>();
+                for (File file : selectedFiles) {
+                    try {
+                        taxonIds.addAll(createScanner(fileType).scanTaxonIds(file.getAbsolutePath()));
+                    } catch (Exception e) {
+                        //The file is reported as a wrong file when it's parsed
+                        e.printStackTrace();
                     }
                 }
+                return TreePreloadService.loadPartialTree(taxonIds);
+            }
+        };
+        partialTreeTask.setOnSucceeded(e -> {
+            //The full tree may have been loaded in the meantime, then the files are opened with it
+            if (!isTaxonTreeLoaded) {
+                if (partialTreeTask.getValue() == null) {
+                    showTreeNotLoadedAlert();
+                    return;
+                }
+                partialTree = partialTreeTask.getValue();
+                reparseFastStartFiles();
             }
-            //Shows an alert if the user chose to load one or multiple files
-            //that have already been loaded before.
-            if (namesOfAlreadyLoadedFiles.size() != 0) {
-                showFileAlreadyLoadedAlert(namesOfAlreadyLoadedFiles);
+            addSelectedFiles(fileType, selectedFiles);
+        });
+        partialTreeTask.setOnFailed(e -> {
+            partialTreeTask.getException().printStackTrace();
+            if (isTaxonTreeLoaded) {
+                addSelectedFiles(fileType, selectedFiles);
+            } else {
+                showTreeNotLoadedAlert();
             }
+        });
+        Thread partialTreeThread = new Thread(partialTreeTask, "partial tree");
+        partialTreeThread.setDaemon(true);
+        partialTreeThread.start();
+    }
+
+    /**
+     * @return a parser that is only used to scan the taxon ids of files, it has no tree
+     */
+    private InputFile createScanner(FileType fileType) {
+        switch (fileType) {
+            case readName2TaxonId:
+                return new ReadName2TaxIdCSVParser(null, true);
+            case biomV1:
+                return new BiomV1Parser(null);
+            case biomV2:
+                return new BiomV2Parser(null);
+            default:
+                return new TaxonId2CountCSVParser(null);
+        }
+    }
+
+    /**
+     * Parses the files of the fast start again with the current tree and replaces their samples, the project stays
+     * open. Files the user has closed in the meantime are dropped. Once the full tree is used, the list is cleared.
+     */
+    private void reparseFastStartFiles() {
+        for (Map.Entry<File, FileType> fastStartFile : new ArrayList<>(fastStartFiles.entrySet())) {
+            File file = fastStartFile.getKey();
+            if (LoadedData.getOpenFiles() == null || !LoadedData.getOpenFiles().contains(file.getAbsolutePath())) {
+                fastStartFiles.remove(file);
+                continue;
+            }
+            ArrayList<Sample> samples = parseFile(file, fastStartFile.getValue());
+            if (samples != null) {
+                LoadedData.replaceSamplesOfFile(samples, file);
+            }
+        }
+        if (isTaxonTreeLoaded) {
+            fastStartFiles.clear();
         }
+    }
 
+    /**
+     * @return the name index of the full tree, null before it's loaded: names are only resolved with the full tree
+     */
+    private TaxonNameIndex getTaxonNameIndex() {
+        return isTaxonTreeLoaded ? TreePreloadService.getTaxonNameIndex() : null;
+    }
 
+    /**
+     * @return the full tree once it's loaded, the partial tree of the fast start before
+     */
+    private TaxonTree getTaxonTree() {
+        return isTaxonTreeLoaded ? TreePreloadService.taxonTree : partialTree;
     }
 
     /**
@@ -889,12 +1075,16 @@ public class MainStageController implements Initializable {
 
     /**
      * <h1>Parses a given readName2TaxId file</h1>
-     * Passes the parsed samples to the LoadedData class.
+     * Shows an alert if the file doesn't match the format.
      *
      * @param file The file the user choses to load
+     * @return the samples of the file, null if it's invalid
      */
-    private void addReadName2TaxonIdFileToTreeView(File file) {
-        ReadName2TaxIdCSVParser readName2TaxIdCSVParser = new ReadName2TaxIdCSVParser(TreePreloadService.taxonTree);
+    private ArrayList<Sample> parseReadName2TaxonIdFile(File file) {
+        //Multi-hit mode also reads files with a single taxon per read, reads with several hits get their common ancestor
+        ReadName2TaxIdCSVParser readName2TaxIdCSVParser = new ReadName2TaxIdCSVParser(getTaxonTree(),
+                true);
+        readName2TaxIdCSVParser.setNameIndex(getTaxonNameIndex());
 
         ArrayList<Sample> samples;
 
@@ -902,25 +1092,25 @@ public class MainStageController implements Initializable {
             samples = readName2TaxIdCSVParser.parse(file.getAbsolutePath());
         } catch (IOException e) {
             showWrongFileAlert();
-            return;
+            return null;
             //In case the user chose to load a file with a wrong file type
         } catch (NumberFormatException e) {
             showWrongFileAlert();
-            return;
+            return null;
         }
 
-        LoadedData.addSamplesToDatabase(samples, treeViewFiles, file);
-        activateButtons();
+        return samples;
     }
 
     /**
      * <h1>Parses a given biomV1 file</h1>
-     * Passes the parsed samples to the LoadedData class.
+     * Shows an alert if the file doesn't match the format.
      *
      * @param file The file the user choses to load
+     * @return the samples of the file, null if it's invalid
      */
-    private void addBiomV1FileToTreeView(File file) {
-        BiomV1Parser biomV1Parser = new BiomV1Parser(TreePreloadService.taxonTree);
+    private ArrayList<Sample> parseBiomV1File(File file) {
+        BiomV1Parser biomV1Parser = new BiomV1Parser(getTaxonTree());
 
         ArrayList<Sample> samples;
 
@@ -928,24 +1118,24 @@ public class MainStageController implements Initializable {
             samples = biomV1Parser.parse(file.getAbsolutePath());
         } catch (NumberFormatException e) {
             showWrongFileAlert();
-            return;
+            return null;
         } catch (Exception e) {
             showWrongFileAlert();
-            return;
+            return null;
              //In case the user chose to load a file with a wrong file type
         }
 
-        LoadedData.addSamplesToDatabase(samples, treeViewFiles, file);
-        activateButtons();
+        return samples;
     }
 
     /**
      * <h1>Parses a given biomV2 file</h1>
-     * Passes the parsed samples to the LoadedData class.
+     * Shows an alert if the file doesn't match the format.
      * @param file The file the user choses to load
+     * @return the samples of the file, null if it's invalid
      */
-    private void addBiomV2FileToTreeView(File file) {
-        BiomV2Parser biomV2Parser = new BiomV2Parser(TreePreloadService.taxonTree);
+    private ArrayList<Sample> parseBiomV2File(File file) {
+        BiomV2Parser biomV2Parser = new BiomV2Parser(getTaxonTree());
 
         ArrayList<Sample> samples;
 
@@ -953,25 +1143,26 @@ public class MainStageController implements Initializable {
             samples = biomV2Parser.parse(file.getAbsolutePath());
         } catch (IOException e) {
             showWrongFileAlert();
-            return;
+            return null;
             //In case the user chose to load a file with a wrong file type
         } catch (NumberFormatException e) {
             showWrongFileAlert();
-            return;
+            return null;
         }
 
-        LoadedData.addSamplesToDatabase(samples, treeViewFiles, file);
-        activateButtons();
+        return samples;
     }
 
     /**
      * <h1>Parses a given id2Count file</h1>
-     * Passes the parsed samples to the LoadedData class.
+     * Shows an alert if the file doesn't match the format.
      *
      * @param file The file the user choses to load
+     * @return the samples of the file, null if it's invalid
      */
-    private void addId2CountFileToTreeView(File file) {
-        TaxonId2CountCSVParser taxonId2CountCSVParser = new TaxonId2CountCSVParser(TreePreloadService.taxonTree);
+    private ArrayList<Sample> parseId2CountFile(File file) {
+        TaxonId2CountCSVParser taxonId2CountCSVParser = new TaxonId2CountCSVParser(getTaxonTree());
+        taxonId2CountCSVParser.setNameIndex(getTaxonNameIndex());
 
         ArrayList<Sample> samples;
 
@@ -979,15 +1170,14 @@ public class MainStageController implements Initializable {
             samples = taxonId2CountCSVParser.parse(file.getAbsolutePath());
         } catch (IOException e) {
             showWrongFileAlert();
-            return;
+            return null;
             //In case the user chose to load a file with a wrong file type
         } catch (NumberFormatException e) {
             showWrongFileAlert();
-            return;
+            return null;
         }
 
-        LoadedData.addSamplesToDatabase(samples, treeViewFiles, file);
-        activateButtons();
+        return samples;
     }
 
 
@@ -1086,11 +1276,32 @@ public class MainStageController implements Initializable {
      */
     private void startTreePreloadService() {
         TreePreloadService treePreloadService = new TreePreloadService();
-        treePreloadService.setOnSucceeded(e -> mainViewTab.setContent(null));
+        treePreloadService.setOnSucceeded(e -> {
+            //A graph that has been shown with the partial tree stays
+            if (isStartupLabelShown()) {
+                mainViewTab.setContent(null);
+            }
+            isTaxonTreeLoaded = true;
+            partialTree = null;
+            //Samples of the fast start are parsed again, so all samples use nodes of the full tree
+            reparseFastStartFiles();
+        });
         startupLabel.textProperty().bind(treePreloadService.messageProperty());
         treePreloadService.start();
     }
 
+    /**
+     * @return true if the main view still shows the startup label of the preload, and not a graph
+     */
+    private boolean isStartupLabelShown() {
+        for (Node node = startupLabel; node != null; node = node.getParent()) {
+            if (node == mainViewTab.getContent()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Initializes the accordion on the right pane
      */
@@ -1210,6 +1421,7 @@ public class MainStageController implements Initializable {
         Bindings.bindBidirectional(minFrequencyText.textProperty(), frequencyRangeSlider.lowValueProperty(), converter);
         Bindings.bindBidirectional(maxFrequencyText.textProperty(), frequencyRangeSlider.highValueProperty(), converter);
         Bindings.bindBidirectional(excludeFrequencyText.textProperty(), excludeFrequencySlider.valueProperty(), converter);
+        Bindings.bindBidirectional(correlationFloorText.textProperty(), correlationFloorSlider.valueProperty(), converter);
 
         //Bind the internal filter properties to the slider values
         AnalysisData.posCorrelationLowerFilterProperty().bind(posCorrelationRangeSlider.lowValueProperty());
@@ -1220,6 +1432,7 @@ public class MainStageController implements Initializable {
         AnalysisData.maxFrequencyProperty().bind(frequencyRangeSlider.highValueProperty());
         AnalysisData.maxPValueProperty().bind(maxPValueSlider.valueProperty());
         AnalysisData.excludeFrequencyThresholdProperty().bind(excludeFrequencySlider.valueProperty());
+        AnalysisData.correlationFloorProperty().bind(correlationFloorSlider.valueProperty());
 
         //The values of the negative slider can't be set to values below 0 via FXML for reasons beyond human understanding,
         // so we set them manually
@@ -1236,7 +1449,7 @@ public class MainStageController implements Initializable {
         //2. Rank selection changes
         rankChoiceBox.valueProperty().addListener((observable, oldValue, newValue) -> {
             if (newValue != null && LoadedData.getSamplesToAnalyze().size()>=3) {
-                AnalysisData.setLevel_of_analysis(newValue.toLowerCase());
+                AnalysisData.setLevel_of_analysis(TaxonRank.getCode(newValue.toLowerCase()));
                 startAnalysis();
             }
         });
@@ -1252,6 +1465,8 @@ public class MainStageController implements Initializable {
         kendallCorrelationButton.selectedProperty().addListener(o -> startAnalysis());
         //5. Global frequency threshold is changed
         excludeFrequencySlider.valueProperty().addListener(o -> startAnalysis());
+        //6. Correlation floor is changed, above 0 only the pairs that reach it are kept
+        correlationFloorSlider.valueProperty().addListener(o -> startAnalysis());
     }
 
     /**
@@ -1481,6 +1696,17 @@ public class MainStageController implements Initializable {
         aboutAlert.show();
     }
 
+    /**
+     * Prompts an alert that files can't be opened until the taxonomy is loaded
+     */
+    private void showTreeNotLoadedAlert() {
+        Alert treeNotLoadedAlert = new Alert(Alert.AlertType.INFORMATION);
+        treeNotLoadedAlert.setTitle("File not loaded");
+        treeNotLoadedAlert.setHeaderText("The taxonomy is still loading.");
+        treeNotLoadedAlert.setContentText("Please open the file again once the taxonomy is loaded.");
+        treeNotLoadedAlert.show();
+    }
+
     /**
      * Prompts an alert if the user tries to load a file that does not match the requirements.
      */
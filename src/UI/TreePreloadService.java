@@ -3,26 +3,85 @@ package UI;
 import javafx.concurrent.Service;
 import javafx.concurrent.Task;
 import main.GlobalConstants;
+import model.TaxonNameIndex;
 import model.TaxonTree;
+import treeParser.TaxonomyUpdate;
 import treeParser.TreeParser;
+import treeParser.TreeSnapshot;
 import util.DownloadNodesAndNameDMPFiles;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
 
 
 /**
  * <h1>This class is a Service class - it starts building the taxon tree</h1>
  * <p>
- * The class requires the names.dmp and nodes.dmp files from the NCBI database.
+ * The class requires the names.dmp and nodes.dmp files from the NCBI database, or the taxdmp.zip containing them.
+ * If neither is present, the zip is downloaded and parsed without extracting it.
  * The tree is build as a Service in the background. While the wheel is spinning in the main view the process has not
  * yet finished.
+ * After the first successful parse the tree is saved as a snapshot, later starts load the snapshot instead of parsing
+ * the dmp files again (as long as they didn't change). A new merged.dmp or delnodes.dmp next to unchanged nodes.dmp
+ * and names.dmp is applied to the snapshot with TaxonomyUpdate.
+ * Files that are opened before the tree is there are parsed with a partial tree of only their taxa, see
+ * loadPartialTree.
  * </p>
  *
  * @see util.InternetAvailabilityChecker
  * @see DownloadNodesAndNameDMPFiles
+ * @see TreeSnapshot
+ * @see TaxonomyUpdate
  */
 public class TreePreloadService extends Service<Void> {
     public static TaxonTree taxonTree;
+    //Built once the tree is loaded, see getTaxonNameIndex
+    private static TaxonNameIndex taxonNameIndex;
+    //Ids of all files opened before the full tree was loaded, see loadPartialTree
+    private static final HashSet<Integer> partialTreeTaxonIds = new HashSet<>();
+
+    /**
+     * Returns the name index of the current tree, the preload task builds it right after the tree. Synonyms are only
+     * included if names.dmp is present, otherwise the scientific names of the tree are used.
+     *
+     * @return the index, or null if there is no tree yet
+     */
+    public static synchronized TaxonNameIndex getTaxonNameIndex() {
+        if (taxonNameIndex == null && taxonTree != null) {
+            if (new File(GlobalConstants.NAMES_DMP_SRC).isFile()) {
+                taxonNameIndex = TreeParser.parseNameIndex(GlobalConstants.NAMES_DMP_SRC, taxonTree);
+            }
+            if (taxonNameIndex == null) {
+                taxonNameIndex = TaxonNameIndex.fromTree(taxonTree);
+            }
+        }
+        return taxonNameIndex;
+    }
+
+    /**
+     * Fast start: builds a tree of only the given taxa and their ancestors, so sample files can be opened while the
+     * full tree is still loading. The ids of earlier calls are kept, every partial tree contains all of them.
+     * Needs the extracted nodes.dmp and names.dmp.
+     *
+     * @param taxonIds the ids of the files that are about to be opened, see sampleParser.InputFile#scanTaxonIds
+     * @return the partial tree, or null if nodes.dmp and names.dmp aren't there
+     */
+    public static synchronized TaxonTree loadPartialTree(Set<Integer> taxonIds) {
+        if (!new File(GlobalConstants.NODES_DMP_SRC).isFile() || !new File(GlobalConstants.NAMES_DMP_SRC).isFile()) {
+            return null;
+        }
+        partialTreeTaxonIds.addAll(taxonIds);
+        TreeParser treeParser = new TreeParser();
+        treeParser.parsePartialTree(GlobalConstants.NODES_DMP_SRC, GlobalConstants.NAMES_DMP_SRC,
+                GlobalConstants.MERGED_DMP_SRC, partialTreeTaxonIds);
+        return treeParser.getTaxonTree();
+    }
+
+    private static synchronized void resetTaxonNameIndex() {
+        taxonNameIndex = null;
+    }
 
     @Override
     protected Task<Void> createTask() {
@@ -30,19 +89,97 @@ public class TreePreloadService extends Service<Void> {
             @Override
             protected Void call() throws Exception {
 
+                resetTaxonNameIndex();
+                loadTaxonTree();
+                //The index of names.dmp is built here, so the parsers don't build it on the JavaFX thread
+                updateMessage("Indexing Taxon Names");
+                getTaxonNameIndex();
+                return null;
+            }
+
+            /**
+             * Loads the tree from the snapshot, applies an update to it or parses the dmp files
+             */
+            private void loadTaxonTree() throws Exception {
                 updateMessage("Checking Required Files");
                 boolean filesPresent = checkFilePresence();
 
-                if (!filesPresent) {
+                if (!filesPresent && !new File(GlobalConstants.TAXDMP_ZIP_SRC).isFile()) {
                     updateMessage("Downloading Files (may take a while)");
-                    DownloadNodesAndNameDMPFiles.downloadNamesNodesDMPandUnzip();
+                    DownloadNodesAndNameDMPFiles.downloadTaxdmpZip();
+                }
+                //Extracted dmp files are used if present, otherwise they are read from the zip. The redirects of
+                //merged.dmp and the deletions of delnodes.dmp are part of the snapshot, so they are sources as well
+                String[] sourcePaths = filesPresent
+                        ? new String[]{GlobalConstants.NODES_DMP_SRC, GlobalConstants.NAMES_DMP_SRC,
+                        GlobalConstants.MERGED_DMP_SRC, GlobalConstants.DELNODES_DMP_SRC}
+                        : new String[]{GlobalConstants.TAXDMP_ZIP_SRC};
+
+                //A snapshot of a previous parse is much faster to load, it is only used if the dmp files didn't change
+                updateMessage("Loading Tree Snapshot");
+                taxonTree = TreeSnapshot.load(GlobalConstants.TAXON_TREE_SNAPSHOT_SRC, sourcePaths);
+                if (taxonTree != null) {
+                    return;
+                }
+
+                //If only merged.dmp or delnodes.dmp changed, they are applied to the snapshot instead of parsing again
+                if (filesPresent && TreeSnapshot.matchesSources(GlobalConstants.TAXON_TREE_SNAPSHOT_SRC, 2,
+                        sourcePaths)) {
+                    updateMessage("Applying Taxonomy Update");
+                    try {
+                        TaxonomyUpdate.updateSnapshot(GlobalConstants.TAXON_TREE_SNAPSHOT_SRC,
+                                existingFile(GlobalConstants.MERGED_DMP_SRC),
+                                existingFile(GlobalConstants.DELNODES_DMP_SRC), null, null, sourcePaths);
+                        taxonTree = TreeSnapshot.load(GlobalConstants.TAXON_TREE_SNAPSHOT_SRC, sourcePaths);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    if (taxonTree != null) {
+                        return;
+                    }
                 }
 
                 TreeParser treeParser = new TreeParser();
                 treeParser.progressProperty.addListener((a, o, n) -> updateMessage("Constructing Tree: " + n));
-                treeParser.parseTree(GlobalConstants.NODES_DMP_SRC, GlobalConstants.NAMES_DMP_SRC);
+                if (!filesPresent) {
+                    //The zip contains merged.dmp as well, its ids are applied by the parser
+                    treeParser.parseTreeFromZip(GlobalConstants.TAXDMP_ZIP_SRC);
+                } else {
+                    treeParser.parseTreeParallel(GlobalConstants.NODES_DMP_SRC, GlobalConstants.NAMES_DMP_SRC);
+                }
                 taxonTree = treeParser.getTaxonTree();
-                return null;
+                //Ids of merged taxa are still used in older sample files
+                if (filesPresent && new File(GlobalConstants.MERGED_DMP_SRC).isFile()) {
+                    updateMessage("Applying Merged Taxa");
+                    try {
+                        TaxonomyUpdate.applyMerged(taxonTree, GlobalConstants.MERGED_DMP_SRC);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+                //A delnodes.dmp that is newer than nodes.dmp may still list taxa of the tree
+                if (filesPresent && new File(GlobalConstants.DELNODES_DMP_SRC).isFile()) {
+                    updateMessage("Removing Deleted Taxa");
+                    try {
+                        taxonTree = TaxonomyUpdate.update(taxonTree, null, GlobalConstants.DELNODES_DMP_SRC, null,
+                                null);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+
+                updateMessage("Writing Tree Snapshot");
+                try {
+                    TreeSnapshot.write(taxonTree, GlobalConstants.TAXON_TREE_SNAPSHOT_SRC, sourcePaths);
+                    //The loaded tree reads its names from the mapped snapshot instead of keeping them on the heap
+                    TaxonTree loadedTree = TreeSnapshot.load(GlobalConstants.TAXON_TREE_SNAPSHOT_SRC, sourcePaths);
+                    if (loadedTree != null) {
+                        taxonTree = loadedTree;
+                    }
+                } catch (IOException e) {
+                    //The tree is usable anyway, it just has to be parsed again on the next start
+                    e.printStackTrace();
+                }
             }
 
             @Override
@@ -66,6 +203,13 @@ public class TreePreloadService extends Service<Void> {
 
     }
 
+    /**
+     * @return the path if it is a file, null otherwise
+     */
+    private static String existingFile(String path) {
+        return new File(path).isFile() ? path : null;
+    }
+
     /**
      * checks if nodes.dmp and names.dmp are in the file system
      * @return
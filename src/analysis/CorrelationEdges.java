@@ -0,0 +1,184 @@
+package analysis;
+
+import java.util.Arrays;
+
+/**
+ * <h1>The correlations of an analysis that reach a floor, as a sparse list of edges</h1>
+ * <p>
+ * Only pairs of taxa with an absolute correlation of at least the floor are kept, each as the columns of both taxa,
+ * the correlation and the p-value as floats. The list is filled tile by tile while the correlations are computed, so
+ * the memory grows with the number of edges instead of the square of the number of taxa. Correlations of NaN (taxa
+ * with a constant count) never reach the floor, p-values of NaN are stored as 1.
+ * </p>
+ * <p>
+ * The full correlations of a few evenly spaced pivot taxa with all taxa are kept as well, the MDS of the graph layout
+ * is computed from the distances of these pivots (pivot MDS) instead of the full distance matrix. Correlations of NaN
+ * are stored as 0 there, like in the dense matrices.
+ * </p>
+ *
+ * @see SampleComparison#createCorrelationEdgesOfSamples
+ */
+public class CorrelationEdges {
+    private final int taxonCount;
+    private final double floor;
+    //Columns of the pivot taxa, and the pivot row of every column (-1 if it isn't a pivot)
+    private final int[] pivots;
+    private final int[] pivotRows;
+    private final double[][] pivotCorrelations;
+
+    private int size;
+    //Columns of the taxa of every edge, source < target
+    private int[] sources, targets;
+    private float[] correlations, pValues;
+
+    /**
+     * @param taxonCount number of taxa
+     * @param floor      minimum absolute correlation of an edge
+     * @param pivotCount number of pivot taxa, at most taxonCount
+     */
+    CorrelationEdges(int taxonCount, double floor, int pivotCount) {
+        this.taxonCount = taxonCount;
+        this.floor = floor;
+        pivotCount = Math.min(pivotCount, taxonCount);
+        pivots = new int[pivotCount];
+        pivotRows = new int[pivotCount == 0 ? 0 : taxonCount];
+        Arrays.fill(pivotRows, -1);
+        pivotCorrelations = new double[pivotCount][taxonCount];
+        for (int row = 0; row < pivotCount; row++) {
+            pivots[row] = (int) ((long) row * taxonCount / pivotCount);
+            pivotRows[pivots[row]] = row;
+            pivotCorrelations[row][pivots[row]] = 1;
+        }
+        sources = new int[16];
+        targets = new int[16];
+        correlations = new float[16];
+        pValues = new float[16];
+    }
+
+    /**
+     * An empty list for the edges of one tile, sharing the pivot rows of the whole list
+     */
+    private CorrelationEdges(CorrelationEdges edges) {
+        taxonCount = edges.taxonCount;
+        floor = edges.floor;
+        pivots = edges.pivots;
+        pivotRows = edges.pivotRows;
+        pivotCorrelations = edges.pivotCorrelations;
+        sources = new int[16];
+        targets = new int[16];
+        correlations = new float[16];
+        pValues = new float[16];
+    }
+
+    /**
+     * @return an empty list for the edges of a tile, filled by one task and then merged with {@link #addAll}
+     */
+    CorrelationEdges newTileEdges() {
+        return new CorrelationEdges(this);
+    }
+
+    /**
+     * @return true if a pair with the correlation is an edge
+     */
+    boolean isKept(double correlation) {
+        return Math.abs(correlation) >= floor;
+    }
+
+    /**
+     * Stores the correlation of a pair in the rows of the pivots, if one of the taxa is a pivot. Every pair is set by
+     * only one tile, so the tiles don't share any entry.
+     */
+    void setPivotCorrelation(int source, int target, double correlation) {
+        if (pivotRows.length > 0) {
+            double pivotCorrelation = Double.isNaN(correlation) ? 0 : correlation;
+            if (pivotRows[source] >= 0) {
+                pivotCorrelations[pivotRows[source]][target] = pivotCorrelation;
+            }
+            if (pivotRows[target] >= 0) {
+                pivotCorrelations[pivotRows[target]][source] = pivotCorrelation;
+            }
+        }
+    }
+
+    /**
+     * Appends an edge, the correlation must be kept
+     *
+     * @param source column of the first taxon, smaller than target
+     * @param target column of the second taxon
+     */
+    void add(int source, int target, double correlation, double pValue) {
+        addEdge(source, target, (float) correlation, Double.isNaN(pValue) ? 1 : (float) pValue);
+    }
+
+    /**
+     * Appends the edges of a tile, in their order
+     */
+    void addAll(CorrelationEdges tileEdges) {
+        for (int edge = 0; edge < tileEdges.size; edge++) {
+            addEdge(tileEdges.sources[edge], tileEdges.targets[edge], tileEdges.correlations[edge],
+                    tileEdges.pValues[edge]);
+        }
+    }
+
+    private void addEdge(int source, int target, float correlation, float pValue) {
+        if (size == sources.length) {
+            int capacity = size + (size >> 1);
+            sources = Arrays.copyOf(sources, capacity);
+            targets = Arrays.copyOf(targets, capacity);
+            correlations = Arrays.copyOf(correlations, capacity);
+            pValues = Arrays.copyOf(pValues, capacity);
+        }
+        sources[size] = source;
+        targets[size] = target;
+        correlations[size] = correlation;
+        pValues[size++] = pValue;
+    }
+
+    /**
+     * @return number of edges
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getTaxonCount() {
+        return taxonCount;
+    }
+
+    public double getFloor() {
+        return floor;
+    }
+
+    /**
+     * @return column of the first taxon of the edge, smaller than the target
+     */
+    public int getSource(int edge) {
+        return sources[edge];
+    }
+
+    public int getTarget(int edge) {
+        return targets[edge];
+    }
+
+    public float getCorrelation(int edge) {
+        return correlations[edge];
+    }
+
+    public float getPValue(int edge) {
+        return pValues[edge];
+    }
+
+    /**
+     * @return the columns of the pivot taxa
+     */
+    public int[] getPivots() {
+        return pivots.clone();
+    }
+
+    /**
+     * @return the correlations of every pivot with all taxa, a row for each pivot and a column for each taxon
+     */
+    public double[][] getPivotCorrelations() {
+        return pivotCorrelations;
+    }
+}
@@ -0,0 +1,87 @@
+package analysis;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <h1>Splits the pairs of taxa into tiles that are computed in parallel</h1>
+ * <p>
+ * A tile is a square of tileSize x tileSize pairs. Only the tiles on and above the diagonal are used, since all
+ * correlations are symmetric. The tiles are numbered row by row and computed by ForkJoin tasks of the common pool,
+ * the range of tiles is split in halves until every task has a single tile.
+ * </p>
+ *
+ * @see PearsonCorrelation
+ * @see KendallCorrelation
+ */
+abstract class CorrelationTiles {
+
+    /**
+     * Computes one tile, the pairs (i, j) with rowStart &lt;= i &lt; rowEnd and columnStart &lt;= j &lt; columnEnd
+     */
+    interface TileComputation {
+        void compute(int tile, int rowStart, int rowEnd, int columnStart, int columnEnd);
+    }
+
+    /**
+     * @return number of tiles on and above the diagonal
+     */
+    static int countTiles(int taxonCount, int tileSize) {
+        int tilesPerSide = (taxonCount + tileSize - 1) / tileSize;
+        return tilesPerSide * (tilesPerSide + 1) / 2;
+    }
+
+    /**
+     * Computes all tiles on and above the diagonal in parallel, returns once all of them are done
+     */
+    static void forEachTile(int taxonCount, int tileSize, TileComputation computation) {
+        int tileCount = countTiles(taxonCount, tileSize);
+        //Upper left corners of the tiles, by tile number
+        int[] rowStarts = new int[tileCount];
+        int[] columnStarts = new int[tileCount];
+        int tile = 0;
+        for (int rowStart = 0; rowStart < taxonCount; rowStart += tileSize) {
+            for (int columnStart = rowStart; columnStart < taxonCount; columnStart += tileSize) {
+                rowStarts[tile] = rowStart;
+                columnStarts[tile++] = columnStart;
+            }
+        }
+        TileTask task = new TileTask(taxonCount, tileSize, rowStarts, columnStarts, computation, 0, tileCount);
+        ForkJoinPool.commonPool().invoke(task);
+    }
+
+    /**
+     * Computes a range of tiles, split in halves until a single tile is left
+     */
+    private static class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int taxonCount, tileSize;
+        private final int[] rowStarts, columnStarts;
+        private final TileComputation computation;
+        private final int from, to;
+
+        TileTask(int taxonCount, int tileSize, int[] rowStarts, int[] columnStarts, TileComputation computation,
+                 int from, int to) {
+            this.taxonCount = taxonCount;
+            this.tileSize = tileSize;
+            this.rowStarts = rowStarts;
+            this.columnStarts = columnStarts;
+            this.computation = computation;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new TileTask(taxonCount, tileSize, rowStarts, columnStarts, computation, from, middle),
+                        new TileTask(taxonCount, tileSize, rowStarts, columnStarts, computation, middle, to));
+            } else if (to > from) {
+                computation.compute(from, rowStarts[from], Math.min(rowStarts[from] + tileSize, taxonCount),
+                        columnStarts[from], Math.min(columnStarts[from] + tileSize, taxonCount));
+            }
+        }
+    }
+}
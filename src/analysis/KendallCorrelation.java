@@ -0,0 +1,300 @@
+package analysis;
+
+import model.RankProjection;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.special.Erf;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * <h1>Kendall's tau-b of all pairs of taxa and its p-values, computed in parallel</h1>
+ * <p>
+ * Every pair of taxa is compared with Knight's algorithm: the samples are sorted by the counts of the first taxon (and
+ * within equal counts by the second one), then the counts of the second taxon are merge sorted while the swaps, i.e.
+ * the discordant pairs, are counted. The ranks and the order of the samples by each taxon are computed once per
+ * RankProjection and copied block by block into the tiles, the ties of each taxon are counted once per correlation
+ * from them, so a pair only has to sort within tied counts and merge.
+ * </p>
+ * <p>
+ * The pairs are split into tiles of TILE_SIZE x TILE_SIZE taxa (see CorrelationTiles), each tile is computed by its
+ * own ForkJoin task with its own blocks and buffers. The correlations match KendallsCorrelation of commons-math. The
+ * p-values are two-sided, from the normal approximation of the difference of concordant and discordant pairs with the
+ * variance corrected for ties in both taxa. Instead of the matrices, the correlations can be reduced to the edges that
+ * reach a floor (see CorrelationEdges).
+ * </p>
+ *
+ * @see SampleComparison
+ */
+public class KendallCorrelation {
+    //Number of taxa per side of a tile
+    static final int TILE_SIZE = 64;
+
+    //The results of all pairs
+    private final double[][] correlations;
+    private final double[][] pValues;
+
+    /**
+     * Computes the correlations and p-values of all taxa of the projection
+     *
+     * @param projection
+     */
+    public KendallCorrelation(RankProjection projection) {
+        int taxonCount = projection.getTaxa().size();
+        correlations = new double[taxonCount][taxonCount];
+        pValues = new double[taxonCount][taxonCount];
+        Ties ties = new Ties(projection);
+        CorrelationTiles.forEachTile(taxonCount, TILE_SIZE, (tile, rowStart, rowEnd, columnStart, columnEnd) -> {
+            Tile pairs = new Tile(projection, ties, rowStart, rowEnd, columnStart, columnEnd);
+            for (int i = rowStart; i < rowEnd; i++) {
+                //Tiles on the diagonal only need the pairs above it
+                for (int j = Math.max(columnStart, i + 1); j < columnEnd; j++) {
+                    long s = pairs.concordance(i, j);
+                    correlations[i][j] = pairs.tau(i, j, s);
+                    pValues[i][j] = pairs.pValue(i, j, s);
+                }
+            }
+        });
+
+        for (int i = 0; i < taxonCount; i++) {
+            correlations[i][i] = 1;
+            for (int j = i + 1; j < taxonCount; j++) {
+                correlations[j][i] = correlations[i][j];
+                pValues[j][i] = pValues[i][j];
+            }
+        }
+    }
+
+    /**
+     * Computes the correlation of every pair of taxa of the projection, but only keeps the pairs that reach the floor.
+     * The results of a tile are reduced to its edges right away, no matrix of all pairs exists.
+     *
+     * @param projection
+     * @param floor      minimum absolute tau-b of an edge
+     * @param pivotCount number of taxa whose correlations with all taxa are kept
+     * @return the edges with their p-values
+     */
+    public static CorrelationEdges computeEdges(RankProjection projection, double floor, int pivotCount) {
+        int taxonCount = projection.getTaxa().size();
+        CorrelationEdges edges = new CorrelationEdges(taxonCount, floor, pivotCount);
+        CorrelationEdges[] tileEdges = new CorrelationEdges[CorrelationTiles.countTiles(taxonCount, TILE_SIZE)];
+        Ties ties = new Ties(projection);
+        CorrelationTiles.forEachTile(taxonCount, TILE_SIZE, (tile, rowStart, rowEnd, columnStart, columnEnd) -> {
+            Tile pairs = new Tile(projection, ties, rowStart, rowEnd, columnStart, columnEnd);
+            CorrelationEdges edgesOfTile = edges.newTileEdges();
+            for (int i = rowStart; i < rowEnd; i++) {
+                for (int j = Math.max(columnStart, i + 1); j < columnEnd; j++) {
+                    long s = pairs.concordance(i, j);
+                    double tau = pairs.tau(i, j, s);
+                    edgesOfTile.setPivotCorrelation(i, j, tau);
+                    if (edgesOfTile.isKept(tau)) {
+                        edgesOfTile.add(i, j, tau, pairs.pValue(i, j, s));
+                    }
+                }
+            }
+            tileEdges[tile] = edgesOfTile;
+        });
+        for (CorrelationEdges edgesOfTile : tileEdges) {
+            edges.addAll(edgesOfTile);
+        }
+        return edges;
+    }
+
+    /**
+     * @return symmetric matrix of tau-b with a row and column for each taxon, NaN for taxa with a constant count
+     */
+    public RealMatrix getCorrelationMatrix() {
+        return new Array2DRowRealMatrix(correlations, false);
+    }
+
+    /**
+     * @return symmetric matrix of the two-sided p-values, 0 on the diagonal
+     */
+    public RealMatrix getCorrelationPValues() {
+        return new Array2DRowRealMatrix(pValues, false);
+    }
+
+    /**
+     * The tie statistics of every taxon, the sums over all groups of t equal counts. They're counted once per
+     * correlation from the sorted ranks of the projection, block by block in parallel.
+     */
+    private static class Ties {
+        private final long[] tiedPairs;
+        private final double[] tieVariances, tieSums1, tieSums2;
+
+        Ties(RankProjection projection) {
+            int taxonCount = projection.getTaxa().size();
+            int sampleCount = projection.getSampleCount();
+            tiedPairs = new long[taxonCount];
+            tieVariances = new double[taxonCount];
+            tieSums1 = new double[taxonCount];
+            tieSums2 = new double[taxonCount];
+            int blockCount = (taxonCount + TILE_SIZE - 1) / TILE_SIZE;
+            IntStream.range(0, blockCount).parallel().forEach(block -> {
+                int columnStart = block * TILE_SIZE, columnEnd = Math.min(columnStart + TILE_SIZE, taxonCount);
+                int[][] values = new int[columnEnd - columnStart][sampleCount];
+                int[][] orders = new int[columnEnd - columnStart][sampleCount];
+                projection.readSortedRanks(columnStart, columnEnd, values, orders);
+                for (int column = columnStart; column < columnEnd; column++) {
+                    countTies(column, values[column - columnStart], orders[column - columnStart]);
+                }
+            });
+        }
+
+        private void countTies(int column, int[] values, int[] order) {
+            for (int groupStart = 0, groupEnd; groupStart < order.length; groupStart = groupEnd) {
+                groupEnd = groupEnd(values, order, groupStart);
+                long t = groupEnd - groupStart;
+                tiedPairs[column] += t * (t - 1) / 2;
+                tieVariances[column] += t * (t - 1) * (2 * t + 5);
+                tieSums1[column] += t * (t - 1);
+                tieSums2[column] += t * (t - 1) * (t - 2);
+            }
+        }
+    }
+
+    /**
+     * The doubled ranks of the taxa of a block and the samples sorted by them, copied from the projection
+     */
+    private static class SortedColumns {
+        private final int columnStart;
+        //Ranks times two, so they're integers, by taxon and sample index
+        private final int[][] values;
+        //Sample indices sorted by the ranks, by taxon
+        private final int[][] orders;
+
+        SortedColumns(RankProjection projection, int columnStart, int columnEnd) {
+            this.columnStart = columnStart;
+            int sampleCount = projection.getSampleCount();
+            values = new int[columnEnd - columnStart][sampleCount];
+            orders = new int[columnEnd - columnStart][sampleCount];
+            projection.readSortedRanks(columnStart, columnEnd, values, orders);
+        }
+    }
+
+    /**
+     * The pairs of a tile: the two blocks of taxa, the ties of all taxa and the buffers of the tile's task
+     */
+    private static class Tile {
+        private final int sampleCount;
+        private final Ties ties;
+        private final SortedColumns rows, columns;
+        //Ranks of j ordered by i, and the buffer of the merge sort
+        private final int[] y, buffer;
+
+        Tile(RankProjection projection, Ties ties, int rowStart, int rowEnd, int columnStart, int columnEnd) {
+            sampleCount = projection.getSampleCount();
+            this.ties = ties;
+            rows = new SortedColumns(projection, rowStart, rowEnd);
+            //Tiles on the diagonal pair a block with itself
+            columns = columnStart == rowStart ? rows : new SortedColumns(projection, columnStart, columnEnd);
+            y = new int[sampleCount];
+            buffer = new int[sampleCount];
+        }
+
+        /**
+         * Compares the taxa i and j with Knight's algorithm
+         *
+         * @return the number of concordant minus the number of discordant pairs of samples
+         */
+        long concordance(int i, int j) {
+            int localI = i - rows.columnStart, localJ = j - columns.columnStart;
+            int[] xValues = rows.values[localI], yValues = columns.values[localJ], order = rows.orders[localI];
+            for (int position = 0; position < sampleCount; position++) {
+                y[position] = yValues[order[position]];
+            }
+            //Sort by j within the samples with equal counts of i, and count the pairs tied in both
+            long tiedXYPairs = 0;
+            for (int groupStart = 0, groupEnd; groupStart < sampleCount; groupStart = groupEnd) {
+                groupEnd = groupEnd(xValues, order, groupStart);
+                if (groupEnd - groupStart > 1) {
+                    Arrays.sort(y, groupStart, groupEnd);
+                    for (int runStart = groupStart, runEnd; runStart < groupEnd; runStart = runEnd) {
+                        runEnd = runStart + 1;
+                        while (runEnd < groupEnd && y[runEnd] == y[runStart]) {
+                            runEnd++;
+                        }
+                        long v = runEnd - runStart;
+                        tiedXYPairs += v * (v - 1) / 2;
+                    }
+                }
+            }
+            long swaps = countSwaps(y, buffer);
+            long n = sampleCount;
+            return n * (n - 1) / 2 - ties.tiedPairs[i] - ties.tiedPairs[j] + tiedXYPairs - 2 * swaps;
+        }
+
+        /**
+         * @param s concordant minus discordant pairs of the taxa i and j
+         * @return tau-b of the taxa, NaN if one of them has a constant count
+         */
+        double tau(int i, int j, long s) {
+            long n = sampleCount;
+            long pairCount = n * (n - 1) / 2;
+            return s / Math.sqrt((pairCount - ties.tiedPairs[i]) * (double) (pairCount - ties.tiedPairs[j]));
+        }
+
+        /**
+         * @param s concordant minus discordant pairs of the taxa i and j
+         * @return the two-sided p-value of the normal approximation, NaN if one of the taxa has a constant count
+         */
+        double pValue(int i, int j, long s) {
+            long n = sampleCount;
+            double variance = (n * (n - 1) * (2 * n + 5) - ties.tieVariances[i] - ties.tieVariances[j]) / 18
+                    + ties.tieSums1[i] * ties.tieSums1[j] / (2. * n * (n - 1))
+                    + (n > 2 ? ties.tieSums2[i] * ties.tieSums2[j] / (9. * n * (n - 1) * (n - 2)) : 0);
+            if (Double.isNaN(tau(i, j, s)) || !(variance > 0)) {
+                return Double.NaN;
+            }
+            return Erf.erfc(Math.abs(s) / Math.sqrt(2 * variance));
+        }
+    }
+
+    /**
+     * @return the end of the group of equal values starting at the position of the order
+     */
+    private static int groupEnd(int[] values, int[] order, int groupStart) {
+        int groupEnd = groupStart + 1;
+        while (groupEnd < order.length && values[order[groupEnd]] == values[order[groupStart]]) {
+            groupEnd++;
+        }
+        return groupEnd;
+    }
+
+    /**
+     * Sorts the values with a bottom-up merge sort
+     *
+     * @return the number of swaps, i.e. of pairs where the larger value comes first
+     */
+    private static long countSwaps(int[] values, int[] buffer) {
+        long swaps = 0;
+        int length = values.length;
+        int[] source = values, target = buffer;
+        for (int width = 1; width < length; width *= 2) {
+            for (int left = 0; left < length; left += 2 * width) {
+                int middle = Math.min(left + width, length), right = Math.min(left + 2 * width, length);
+                int l = left, r = middle, k = left;
+                while (l < middle && r < right) {
+                    if (source[r] < source[l]) {
+                        //The value from the right comes before all remaining values from the left
+                        swaps += middle - l;
+                        target[k++] = source[r++];
+                    } else {
+                        target[k++] = source[l++];
+                    }
+                }
+                while (l < middle) {
+                    target[k++] = source[l++];
+                }
+                while (r < right) {
+                    target[k++] = source[r++];
+                }
+            }
+            int[] sorted = target;
+            target = source;
+            source = sorted;
+        }
+        return swaps;
+    }
+}
@@ -0,0 +1,262 @@
+package analysis;
+
+import model.RankProjection;
+import model.SampleMatrix;
+import org.apache.commons.math3.distribution.TDistribution;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+
+import java.util.stream.IntStream;
+
+/**
+ * <h1>Pearson correlation of all pairs of taxa, computed in parallel</h1>
+ * <p>
+ * Every column (taxon) is centered and scaled to length one, the correlation of two taxa is then the dot product of
+ * their columns. The matrix of all dot products is split into tiles of TILE_SIZE x TILE_SIZE taxa, only the tiles on
+ * and above the diagonal are computed, each by its own ForkJoin task. A tile reads the columns of its two ranges of
+ * taxa from the SampleMatrix (or their ranks from the RankProjection) and standardizes them in its own buffers, so no
+ * standardized copy of the whole matrix exists. Within a tile the samples are processed in blocks of
+ * SAMPLE_BLOCK_SIZE, so the columns of both taxa ranges stay in the cache while they're multiplied. The lower
+ * triangle is mirrored from the upper one at the end.
+ * </p>
+ * <p>
+ * The results match PearsonsCorrelation of commons-math: the diagonal is 1, taxa with a constant count have a
+ * correlation of NaN with every other taxon and the p-values are two-sided, from a t-distribution with n - 2 degrees
+ * of freedom. Spearman's correlation is the same computation on the ranks of the counts, which are computed once
+ * per RankProjection.
+ * </p>
+ * <p>
+ * Instead of the matrices, the correlations can be reduced to the edges that reach a floor (see CorrelationEdges).
+ * Every tile is then computed into its own small buffer and only its edges are kept, no matrix of all pairs exists.
+ * </p>
+ *
+ * @see SampleComparison
+ */
+public abstract class PearsonCorrelation {
+    //Number of taxa per side of a tile
+    static final int TILE_SIZE = 64;
+    //Number of samples multiplied at once within a tile
+    static final int SAMPLE_BLOCK_SIZE = 256;
+
+    /**
+     * Reads the values of a block of taxa, one array of length sampleCount per taxon
+     */
+    private interface ColumnReader {
+        void read(int columnStart, int columnEnd, double[][] block);
+    }
+
+    /**
+     * Computes the correlation of every pair of taxa
+     *
+     * @param counts a row for each sample, a column for each taxon
+     * @return symmetric matrix with a row and column for each taxon
+     */
+    public static RealMatrix computeCorrelationMatrix(SampleMatrix counts) {
+        return correlate(counts::readColumns, counts.getColumnCount(), counts.getRowCount());
+    }
+
+    /**
+     * Computes Spearman's correlation of every pair of taxa, i.e. the correlation of their ranks
+     *
+     * @param projection
+     * @return symmetric matrix with a row and column for each taxon
+     */
+    public static RealMatrix computeRankCorrelationMatrix(RankProjection projection) {
+        return correlate(projection::readRankedColumns, projection.getTaxa().size(), projection.getSampleCount());
+    }
+
+    /**
+     * Computes the correlation of every pair of taxa, but only keeps the pairs that reach the floor
+     *
+     * @param counts     a row for each sample, a column for each taxon
+     * @param floor      minimum absolute correlation of an edge
+     * @param pivotCount number of taxa whose correlations with all taxa are kept
+     * @return the edges with their p-values
+     */
+    public static CorrelationEdges computeEdges(SampleMatrix counts, double floor, int pivotCount) {
+        return correlate(counts::readColumns, counts.getColumnCount(), counts.getRowCount(), floor, pivotCount);
+    }
+
+    /**
+     * Computes Spearman's correlation of every pair of taxa, but only keeps the pairs that reach the floor
+     *
+     * @param projection
+     * @param floor      minimum absolute correlation of an edge
+     * @param pivotCount number of taxa whose correlations with all taxa are kept
+     * @return the edges with their p-values
+     */
+    public static CorrelationEdges computeRankCorrelationEdges(RankProjection projection, double floor,
+                                                               int pivotCount) {
+        return correlate(projection::readRankedColumns, projection.getTaxa().size(), projection.getSampleCount(),
+                floor, pivotCount);
+    }
+
+    /**
+     * Reads a block of taxa and standardizes every column
+     */
+    private static double[][] readStandardized(ColumnReader reader, int columnStart, int columnEnd,
+                                               int sampleCount) {
+        double[][] block = new double[columnEnd - columnStart][sampleCount];
+        reader.read(columnStart, columnEnd, block);
+        for (double[] column : block) {
+            standardize(column);
+        }
+        return block;
+    }
+
+    /**
+     * Computes the dot products of all pairs of standardized columns
+     *
+     * @return symmetric matrix with a row and column for each taxon
+     */
+    private static RealMatrix correlate(ColumnReader reader, int taxonCount, int sampleCount) {
+        double[][] correlations = new double[taxonCount][taxonCount];
+        CorrelationTiles.forEachTile(taxonCount, TILE_SIZE, (tile, rowStart, rowEnd, columnStart, columnEnd) ->
+                multiplyTile(reader, sampleCount, rowStart, rowEnd, columnStart, columnEnd, correlations, 0, 0));
+
+        for (int i = 0; i < taxonCount; i++) {
+            correlations[i][i] = 1;
+            for (int j = i + 1; j < taxonCount; j++) {
+                correlations[j][i] = correlations[i][j];
+            }
+        }
+        return new Array2DRowRealMatrix(correlations, false);
+    }
+
+    /**
+     * Computes the dot products of all pairs of standardized columns tile by tile, each tile in its own buffer that is
+     * reduced to the edges of the tile right away
+     */
+    private static CorrelationEdges correlate(ColumnReader reader, int taxonCount, int sampleCount, double floor,
+                                              int pivotCount) {
+        CorrelationEdges edges = new CorrelationEdges(taxonCount, floor, pivotCount);
+        CorrelationEdges[] tileEdges = new CorrelationEdges[CorrelationTiles.countTiles(taxonCount, TILE_SIZE)];
+        //The distribution is only used for its cumulative probability, it doesn't need a random generator
+        TDistribution tDistribution = sampleCount > 2 ? new TDistribution(null, sampleCount - 2) : null;
+        CorrelationTiles.forEachTile(taxonCount, TILE_SIZE, (tile, rowStart, rowEnd, columnStart, columnEnd) -> {
+            double[][] buffer = new double[rowEnd - rowStart][columnEnd - columnStart];
+            multiplyTile(reader, sampleCount, rowStart, rowEnd, columnStart, columnEnd, buffer, rowStart,
+                    columnStart);
+            CorrelationEdges edgesOfTile = edges.newTileEdges();
+            for (int i = rowStart; i < rowEnd; i++) {
+                for (int j = Math.max(columnStart, i + 1); j < columnEnd; j++) {
+                    double r = buffer[i - rowStart][j - columnStart];
+                    edgesOfTile.setPivotCorrelation(i, j, r);
+                    if (edgesOfTile.isKept(r)) {
+                        edgesOfTile.add(i, j, r,
+                                tDistribution == null ? Double.NaN : pValue(r, sampleCount, tDistribution));
+                    }
+                }
+            }
+            tileEdges[tile] = edgesOfTile;
+        });
+        for (CorrelationEdges edgesOfTile : tileEdges) {
+            edges.addAll(edgesOfTile);
+        }
+        return edges;
+    }
+
+    /**
+     * Reads and standardizes the two blocks of taxa of a tile and adds the dot products of its pairs above the
+     * diagonal to the target. The sample blocks are multiplied one after another so the columns of the tile stay in
+     * the cache.
+     *
+     * @param rowOffset    row of the target that holds the taxon rowStart
+     * @param columnOffset column of the target that holds the taxon columnStart
+     */
+    private static void multiplyTile(ColumnReader reader, int sampleCount, int rowStart, int rowEnd, int columnStart,
+                                     int columnEnd, double[][] target, int rowOffset, int columnOffset) {
+        double[][] rowBlock = readStandardized(reader, rowStart, rowEnd, sampleCount);
+        //Tiles on the diagonal pair a block with itself
+        double[][] columnBlock = columnStart == rowStart ? rowBlock
+                : readStandardized(reader, columnStart, columnEnd, sampleCount);
+        for (int blockStart = 0; blockStart < sampleCount; blockStart += SAMPLE_BLOCK_SIZE) {
+            int blockEnd = Math.min(blockStart + SAMPLE_BLOCK_SIZE, sampleCount);
+            for (int i = rowStart; i < rowEnd; i++) {
+                double[] first = rowBlock[i - rowStart];
+                double[] row = target[i - rowOffset];
+                //Tiles on the diagonal only need the pairs above it
+                for (int j = Math.max(columnStart, i + 1); j < columnEnd; j++) {
+                    row[j - columnOffset] += dot(first, columnBlock[j - columnStart], blockStart, blockEnd);
+                }
+            }
+        }
+    }
+
+    /**
+     * Centers the values and scales them to length one, all values are NaN if they're constant
+     *
+     * @param values
+     * @return the same array
+     */
+    static double[] standardize(double[] values) {
+        double mean = 0;
+        for (double value : values) {
+            mean += value;
+        }
+        mean /= values.length;
+        double squareSum = 0;
+        for (int i = 0; i < values.length; i++) {
+            values[i] -= mean;
+            squareSum += values[i] * values[i];
+        }
+        double norm = Math.sqrt(squareSum);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = norm == 0 ? Double.NaN : values[i] / norm;
+        }
+        return values;
+    }
+
+    /**
+     * Computes the two-sided p-values of the correlations
+     *
+     * @param correlationMatrix
+     * @param sampleCount number of observations the correlations were computed from
+     * @return symmetric matrix, 0 on the diagonal
+     */
+    public static RealMatrix computePValues(RealMatrix correlationMatrix, int sampleCount) {
+        int taxonCount = correlationMatrix.getRowDimension();
+        double[][] correlations = correlationMatrix instanceof Array2DRowRealMatrix
+                ? ((Array2DRowRealMatrix) correlationMatrix).getDataRef() : correlationMatrix.getData();
+        double[][] pValues = new double[taxonCount][taxonCount];
+        //The distribution is only used for its cumulative probability, it doesn't need a random generator
+        TDistribution tDistribution = new TDistribution(null, sampleCount - 2);
+        IntStream.range(0, taxonCount).parallel().forEach(i -> {
+            for (int j = i + 1; j < taxonCount; j++) {
+                pValues[i][j] = pValue(correlations[i][j], sampleCount, tDistribution);
+            }
+        });
+        for (int i = 0; i < taxonCount; i++) {
+            for (int j = i + 1; j < taxonCount; j++) {
+                pValues[j][i] = pValues[i][j];
+            }
+        }
+        return new Array2DRowRealMatrix(pValues, false);
+    }
+
+    /**
+     * @return the two-sided p-value of the correlation, like PearsonsCorrelation of commons-math
+     */
+    private static double pValue(double r, int sampleCount, TDistribution tDistribution) {
+        double t = Math.abs(r * Math.sqrt((sampleCount - 2) / (1 - r * r)));
+        return 2 * tDistribution.cumulativeProbability(-t);
+    }
+
+    /**
+     * Dot product of a range of two vectors, with four independent sums
+     */
+    private static double dot(double[] first, double[] second, int from, int to) {
+        double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+        int k = from;
+        for (; k + 3 < to; k += 4) {
+            sum0 += first[k] * second[k];
+            sum1 += first[k + 1] * second[k + 1];
+            sum2 += first[k + 2] * second[k + 2];
+            sum3 += first[k + 3] * second[k + 3];
+        }
+        for (; k < to; k++) {
+            sum0 += first[k] * second[k];
+        }
+        return (sum0 + sum1) + (sum2 + sum3);
+    }
+}
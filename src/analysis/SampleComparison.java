@@ -2,27 +2,27 @@ package analysis;
 
 
 import javafx.collections.ObservableList;
+import model.AnalysisData;
 import model.LoadedData;
+import model.RankProjection;
 import model.Sample;
+import model.SampleMatrix;
 import model.TaxonNode;
-import org.apache.commons.math3.linear.BlockRealMatrix;
+import model.TaxonRank;
 import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.stat.correlation.KendallsCorrelation;
-import org.apache.commons.math3.stat.correlation.PearsonsCorrelation;
-import org.apache.commons.math3.stat.correlation.SpearmansCorrelation;
 
 import java.util.*;
 
 /**
  * Class for the comparison of samples
+ * The taxa and counts of the samples at a rank are taken from the shared RankProjection and its SampleMatrix.
  * Created by julian on 10.06.17.
  */
 public abstract class SampleComparison {
-    private static PearsonsCorrelation pearsonsCorrelation;
-    private static SpearmansCorrelation spearmansCorrelation;
-    private static KendallsCorrelation kendallsCorrelation;
+    private static KendallCorrelation kendallsCorrelation;
     private static RealMatrix correlationMatrix;
     private static RealMatrix pValueMatrix;
+    private static CorrelationEdges correlationEdges;
 
 
     /**
@@ -32,60 +32,47 @@ public abstract class SampleComparison {
      * @return
      */
     public static LinkedList<TaxonNode> getUnifiedTaxonList(List<Sample> samples, String rank) {
-        LinkedList<TaxonNode> unifiedTaxonList = new LinkedList<>();
-        //Iterate over all samples, add every taxon that has the wanted rank and isn't there yet
-        for (Sample sample : samples) {
-            for (TaxonNode taxonNode : sample.getTaxa2CountMap().keySet()) {
-                if (taxonNode.getRank().equals(rank) && !unifiedTaxonList.contains(taxonNode)) {
-                    unifiedTaxonList.add(taxonNode);
-                }
-            }
-        }
-        //Sort the list
-        unifiedTaxonList.sort((tn1, tn2) -> {
-            int id1 = tn1.getTaxonId();
-            int id2 = tn2.getTaxonId();
-            return (Integer.compare(id1, id2));
-        });
-
-        return unifiedTaxonList;
+        return getUnifiedTaxonList(samples, TaxonRank.getCode(rank));
+    }
+
+    /**
+     * Returns a list of all taxa with the given TaxonRank code contained in at least one of the samples, sorted by id.
+     * The list is a copy of the shared TaxonIndex of the analysis, use the index for access by position.
+     *
+     * @param samples
+     * @param rankCode
+     * @return
+     */
+    public static LinkedList<TaxonNode> getUnifiedTaxonList(List<Sample> samples, byte rankCode) {
+        return new LinkedList<>(RankProjection.of(samples, rankCode).getTaxa());
     }
     /**
      *  creates the correlation of Samples useing Pearson's,Kendall's and Spearman's correlation coefficient
      * @param samples
-     * @param rank
+     * @param rank TaxonRank code
      * @param type
      */
-    public static void createCorrelationOfSamples(List<Sample> samples, String rank, String type) {
-        //We need the unified map to make sure the counts are properly aligned
-        LinkedList<TaxonNode> taxonNodeList = getUnifiedTaxonList(samples, rank);
-
-        //The matrix data needs to be double, since PearsonsCorrelation only takes double arrays
-        double[][] taxaCounts = new double[samples.size()][taxonNodeList.size()];
-        for (int sampleIndex = 0; sampleIndex < samples.size(); sampleIndex++) {
-            double[] currentSampleCounts = new double[taxonNodeList.size()];
-            for (int taxonIndex = 0; taxonIndex < currentSampleCounts.length; taxonIndex++) {
-                currentSampleCounts[taxonIndex] = samples.get(sampleIndex).getTaxonCountRecursive(taxonNodeList.get(taxonIndex));
-            }
-            taxaCounts[sampleIndex] = currentSampleCounts;
-        }
-
+    public static void createCorrelationOfSamples(List<Sample> samples, byte rank, String type) {
+        //The projection makes sure the counts are properly aligned
+        RankProjection projection = RankProjection.of(samples, rank);
+        SampleMatrix counts = projection.getMatrix();
 
         switch (type) {
             case "pearson":
-                pearsonsCorrelation = new PearsonsCorrelation(taxaCounts);
-                correlationMatrix = pearsonsCorrelation.getCorrelationMatrix();
-                pValueMatrix = pearsonsCorrelation.getCorrelationPValues();
+                //Computed in parallel from the columns of the projection, without copying the whole matrix
+                correlationMatrix = PearsonCorrelation.computeCorrelationMatrix(counts);
+                pValueMatrix = PearsonCorrelation.computePValues(correlationMatrix, counts.getRowCount());
                 break;
             case "spearman":
-                spearmansCorrelation = new SpearmansCorrelation(new BlockRealMatrix(taxaCounts));
-                correlationMatrix = spearmansCorrelation.getCorrelationMatrix();
-                pValueMatrix = spearmansCorrelation.getRankCorrelation().getCorrelationPValues();
+                //Pearson's correlation of the ranks, ranked tile by tile from the projection
+                correlationMatrix = PearsonCorrelation.computeRankCorrelationMatrix(projection);
+                pValueMatrix = PearsonCorrelation.computePValues(correlationMatrix, counts.getRowCount());
                 break;
             case "kendall":
-                kendallsCorrelation = new KendallsCorrelation(taxaCounts);
+                //Tau-b with p-values corrected for ties, from the ranks of the projection
+                kendallsCorrelation = new KendallCorrelation(projection);
                 correlationMatrix = kendallsCorrelation.getCorrelationMatrix();
-                pValueMatrix = new PearsonsCorrelation(taxaCounts).getCorrelationPValues(); //No p-values available for kendall's correlation!
+                pValueMatrix = kendallsCorrelation.getCorrelationPValues();
                 break;
         }
 
@@ -104,8 +91,40 @@ public abstract class SampleComparison {
                     pValueMatrix.setEntry(i, j, 1.0);
             }
         }
+        correlationEdges = null;
+
+
+    }
 
+    /**
+     * creates the correlation of Samples like createCorrelationOfSamples, but only keeps the pairs of taxa with an
+     * absolute correlation of at least the floor as CorrelationEdges, no matrices are created
+     *
+     * @param samples
+     * @param rank       TaxonRank code
+     * @param type
+     * @param floor      minimum absolute correlation of an edge
+     * @param pivotCount number of taxa whose correlations with all taxa are kept for the MDS
+     */
+    public static void createCorrelationEdgesOfSamples(List<Sample> samples, byte rank, String type, double floor,
+                                                       int pivotCount) {
+        RankProjection projection = RankProjection.of(samples, rank);
+        //The matrices of the last analysis aren't needed anymore
+        correlationMatrix = null;
+        pValueMatrix = null;
+        kendallsCorrelation = null;
 
+        switch (type) {
+            case "pearson":
+                correlationEdges = PearsonCorrelation.computeEdges(projection.getMatrix(), floor, pivotCount);
+                break;
+            case "spearman":
+                correlationEdges = PearsonCorrelation.computeRankCorrelationEdges(projection, floor, pivotCount);
+                break;
+            case "kendall":
+                correlationEdges = KendallCorrelation.computeEdges(projection, floor, pivotCount);
+                break;
+        }
     }
 
     /**
@@ -116,11 +135,22 @@ public abstract class SampleComparison {
     public static HashMap<Sample, HashMap<TaxonNode, Integer>> calcAbundances(List<TaxonNode> selectedNodesList) {
         HashMap<Sample, HashMap<TaxonNode, Integer>> abundancesMap = new HashMap<>();
         ObservableList<Sample> samples = LoadedData.getSamplesToAnalyze();
+        //The selected taxa are usually taxa of the analysis, their counts are in the projection already
+        RankProjection projection = RankProjection.of(samples, AnalysisData.getLevelOfAnalysis());
+        int[] taxonIndices = new int[selectedNodesList.size()];
+        int i = 0;
+        for (TaxonNode taxonNode : selectedNodesList) {
+            taxonIndices[i++] = projection.indexOf(taxonNode);
+        }
 
-        for (Sample sample : samples) {
+        for (int sampleIndex = 0; sampleIndex < samples.size(); sampleIndex++) {
+            Sample sample = samples.get(sampleIndex);
             HashMap<TaxonNode, Integer> sampleAbundances = new HashMap<>();
+            i = 0;
             for (TaxonNode taxonNode : selectedNodesList) {
-                sampleAbundances.put(taxonNode, sample.getTaxonCountRecursive(taxonNode));
+                int taxonIndex = taxonIndices[i++];
+                sampleAbundances.put(taxonNode, taxonIndex < 0 ? sample.getTaxonCountRecursive(taxonNode)
+                        : (int) projection.getCount(sampleIndex, taxonIndex));
             }
             abundancesMap.put(sample, sampleAbundances);
         }
@@ -137,30 +167,10 @@ public abstract class SampleComparison {
     }
 
     /**
-     * Given a sample and a rank to operate on, returns a hashmap of all the taxa with this rank contained in the sample
-     * and their relative frequencies
-     *
-     * @param sample
-     * @param rank
-     * @return
+     * @return the edges of the last call of createCorrelationEdgesOfSamples, null after createCorrelationOfSamples
      */
-    private static HashMap<TaxonNode, Double> getRelativeFrequenciesForSample(Sample sample, String rank) {
-        //Get all taxa on the given rank
-        LinkedList<TaxonNode> nodesOnRank = getUnifiedTaxonList(Collections.singletonList(sample), rank);
-        int countSum = 0;
-        HashMap<TaxonNode, Double> relativeCountsMap = new HashMap<>();
-        for (TaxonNode taxonNode : nodesOnRank) {
-            int taxonCount = sample.getTaxonCountRecursive(taxonNode);
-            countSum += taxonCount;
-            relativeCountsMap.put(taxonNode, (double) taxonCount);
-        }
-        //Replace absolute counts with relative counts
-        for (TaxonNode taxonNode : nodesOnRank) {
-            relativeCountsMap.put(taxonNode, relativeCountsMap.get(taxonNode) / countSum);
-        }
-
-        return relativeCountsMap;
-
+    public static CorrelationEdges getCorrelationEdgesOfSamples() {
+        return correlationEdges;
     }
 
     /**
@@ -169,23 +179,24 @@ public abstract class SampleComparison {
      * in at least one of the samples with a frequency of at least 0.3 will be shown)
      *
      * @param samples
-     * @param rank
+     * @param rank TaxonRank code
      * @return
      */
-    public static HashMap<TaxonNode, Double> calcMaximumRelativeFrequencies(List<Sample> samples, String rank) {
-        HashMap<Sample, HashMap<TaxonNode, Double>> allRelativeCounts = new HashMap<>();
-        for (Sample sample : samples) {
-            allRelativeCounts.put(sample, getRelativeFrequenciesForSample(sample, rank));
+    public static HashMap<TaxonNode, Double> calcMaximumRelativeFrequencies(List<Sample> samples, byte rank) {
+        RankProjection projection = RankProjection.of(samples, rank);
+        List<TaxonNode> taxonList = projection.getTaxa();
+        double[] maxRelativeCounts = new double[taxonList.size()];
+        for (int sampleIndex = 0; sampleIndex < samples.size(); sampleIndex++) {
+            //Relative to the taxa of the rank in this sample
+            double[] relativeCounts = projection.getRelativeFrequencies(sampleIndex);
+            for (int taxonIndex = 0; taxonIndex < relativeCounts.length; taxonIndex++) {
+                maxRelativeCounts[taxonIndex] = Math.max(maxRelativeCounts[taxonIndex], relativeCounts[taxonIndex]);
+            }
         }
 
         HashMap<TaxonNode, Double> maximumRelativeCountsMap = new HashMap<>();
-        for (TaxonNode taxonNode : getUnifiedTaxonList(samples, rank)) {
-            double maxRelativeCount = 0;
-            for (Sample sample : samples) {
-                double currentRelativeCount = allRelativeCounts.get(sample).getOrDefault(taxonNode, 0.d);
-                maxRelativeCount = Math.max(maxRelativeCount, currentRelativeCount);
-            }
-            maximumRelativeCountsMap.put(taxonNode, maxRelativeCount);
+        for (int taxonIndex = 0; taxonIndex < taxonList.size(); taxonIndex++) {
+            maximumRelativeCountsMap.put(taxonList.get(taxonIndex), maxRelativeCounts[taxonIndex]);
         }
         return maximumRelativeCountsMap;
     }
@@ -194,17 +205,16 @@ public abstract class SampleComparison {
      * Returns a map of average counts of every node in the given sample list on the given rank
      *
      * @param samples
+     * @param rank TaxonRank code
      * @return
      */
-    public static HashMap<TaxonNode, Double> calcAverageCounts(List<Sample> samples, String rank) {
-        LinkedList<TaxonNode> taxonList = getUnifiedTaxonList(samples, rank);
+    public static HashMap<TaxonNode, Double> calcAverageCounts(List<Sample> samples, byte rank) {
+        RankProjection projection = RankProjection.of(samples, rank);
+        List<TaxonNode> taxonList = projection.getTaxa();
+        SampleMatrix counts = projection.getMatrix();
         HashMap<TaxonNode, Double> averageCountMap = new HashMap<>();
-        for (TaxonNode taxonNode : taxonList) {
-            int sum = 0;
-            for (Sample sample : samples) {
-                sum += sample.getTaxonCountRecursive(taxonNode);
-            }
-            averageCountMap.put(taxonNode, sum / (double) samples.size());
+        for (int taxonIndex = 0; taxonIndex < taxonList.size(); taxonIndex++) {
+            averageCountMap.put(taxonList.get(taxonIndex), counts.getColumnSum(taxonIndex) / (double) samples.size());
         }
         return averageCountMap;
     }
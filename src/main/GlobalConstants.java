@@ -21,6 +21,10 @@ public class GlobalConstants {
 
     public static final String NODES_DMP_SRC = "./res/nodes.dmp";
     public static final String NAMES_DMP_SRC = "./res/names.dmp";
+    public static final String MERGED_DMP_SRC = "./res/merged.dmp";
+    public static final String DELNODES_DMP_SRC = "./res/delnodes.dmp";
+    public static final String TAXDMP_ZIP_SRC = "./res/taxdmp.zip";
+    public static final String TAXON_TREE_SNAPSHOT_SRC = "./res/taxonTree.snapshot";
 
     // Shared Random number generator, used for creating consistent numbers with user defined seeds
     public static Random globalRandomInstance = new Random();
@@ -1,5 +1,6 @@
 package model;
 
+import analysis.CorrelationEdges;
 import analysis.GraphAnalysis;
 import analysis.SampleComparison;
 import javafx.beans.property.DoubleProperty;
@@ -7,6 +8,7 @@ import javafx.beans.property.SimpleDoubleProperty;
 import mdsj.*;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.ObservableList;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.RealMatrix;
 
 import java.util.ArrayList;
@@ -20,16 +22,26 @@ import java.util.Map;
  * that is connected with the TreeView or to simply stored data.
  * The LoadedData class has been created for this purpose.
  * </p>
+ * <p>
+ * With a correlation floor above 0 only the pairs of taxa with an absolute correlation of at least the floor are kept,
+ * as CorrelationEdges instead of the correlation, p-value and distance matrices. The MDS is then computed from the
+ * distances of MDS_PIVOT_COUNT pivot taxa to all taxa.
+ * </p>
  * @see LoadedData
  */
 public class AnalysisData {
     private static RealMatrix correlationMatrix, pValueMatrix, distanceMatrix;
+    //Only set if the correlation floor is above 0, the matrices are null then (the distances are the pivots' only)
+    private static CorrelationEdges correlationEdges;
+    //Number of taxa whose distances to all taxa are used for the MDS if only edges are kept
+    private static final int MDS_PIVOT_COUNT = 100;
     private static HashMap<TaxonNode, Double> maximumRelativeFrequencies;
     private static double highestFrequency;
     private static TaxonNode nodeWithHighestFrequency;
     private static int[] highestPositiveCorrelationCoordinates, highestNegativeCorrelationCoordinates;
-    private static String level_of_analysis;
-    //Possible values: "Domain", "Kingdom", "Phylum", "Class", "Order", "Family", "Genus", "Species"
+    private static double highestPositiveCorrelation, highestNegativeCorrelation;
+    private static byte level_of_analysis = TaxonRank.UNKNOWN;
+    //TaxonRank code of one of "Domain", "Kingdom", "Phylum", "Class", "Order", "Family", "Genus", "Species"
 
     //Filter properties
     private static DoubleProperty negCorrelationLowerFilter = new SimpleDoubleProperty();
@@ -41,6 +53,13 @@ public class AnalysisData {
     private static DoubleProperty maxFrequencyFilter = new SimpleDoubleProperty();
 
     private static DoubleProperty excludeFrequencyThreshold = new SimpleDoubleProperty();
+    //Minimum absolute correlation of the pairs of taxa that are kept, 0 keeps all of them as matrices
+    private static DoubleProperty correlationFloor = new SimpleDoubleProperty();
+
+    static {
+        //The counts of the samples are filtered again with the new threshold, the projections are outdated
+        excludeFrequencyThreshold.addListener(observable -> RankProjection.invalidate());
+    }
 
 
     //Graph analysis object
@@ -53,12 +72,25 @@ public class AnalysisData {
      */
     public static boolean performCorrelationAnalysis(ArrayList<Sample> samples, String type) {
         //Check if data is sufficient for analysis performing (check if there are at least two taxa)
-        if (SampleComparison.getUnifiedTaxonList(samples, level_of_analysis).size() > 1) {
+        if (RankProjection.of(samples, level_of_analysis).getTaxa().size() > 1) {
             maximumRelativeFrequencies = SampleComparison.calcMaximumRelativeFrequencies(samples, level_of_analysis);
-            SampleComparison.createCorrelationOfSamples(samples, level_of_analysis, type);
-            correlationMatrix = SampleComparison.getCorrelationMatrixOfSamples();
-            distanceMatrix = correlation2Distance(correlationMatrix);
-            pValueMatrix = SampleComparison.getCorrelationPValuesOfSamples();
+            if (getCorrelationFloor() > 0) {
+                //Release the matrices of the last analysis before the edges are computed
+                correlationMatrix = null;
+                pValueMatrix = null;
+                distanceMatrix = null;
+                SampleComparison.createCorrelationEdgesOfSamples(samples, level_of_analysis, type,
+                        getCorrelationFloor(), MDS_PIVOT_COUNT);
+                correlationEdges = SampleComparison.getCorrelationEdgesOfSamples();
+                distanceMatrix = correlation2Distance(
+                        new Array2DRowRealMatrix(correlationEdges.getPivotCorrelations(), false));
+            } else {
+                correlationEdges = null;
+                SampleComparison.createCorrelationOfSamples(samples, level_of_analysis, type);
+                correlationMatrix = SampleComparison.getCorrelationMatrixOfSamples();
+                distanceMatrix = correlation2Distance(correlationMatrix);
+                pValueMatrix = SampleComparison.getCorrelationPValuesOfSamples();
+            }
             calcHighestFrequency();
             highestPositiveCorrelationCoordinates = calcHighestPositiveCorrelationCoordinates();
             highestNegativeCorrelationCoordinates = calcHighestNegativeCorrelationCoordinates();
@@ -96,9 +128,17 @@ public class AnalysisData {
         return pValueMatrix;
     }
 
+    /**
+     * @return the correlations that reach the correlation floor, null if the floor is 0 and the matrices are used
+     */
+    public static CorrelationEdges getCorrelationEdges() {
+        return correlationEdges;
+    }
+
 
     /**
      * Calculates Multi Dimensional Scaling matrix of the correlations.
+     * If only edges are kept, the distances of the pivots are scaled with pivot MDS.
      * @return
      */
     public static double[][] getMDSMatrix() {
@@ -113,11 +153,24 @@ public class AnalysisData {
     /**
      * Returns the coordinates in the correlation matrix with the highest positive value in the shape {x,y}
      *
-     * @return
+     * @return the coordinates, null if only edges are kept and none of them is positive
      */
     private static int[] calcHighestPositiveCorrelationCoordinates() {
         double max = -1;
         int[] maxCoordinates = {0, 0};
+        if (correlationEdges != null) {
+            //Pairs below the floor aren't known, there is no highest correlation if no edge is positive
+            max = 0;
+            for (int edge = 0; edge < correlationEdges.size(); edge++) {
+                if (correlationEdges.getCorrelation(edge) > max) {
+                    max = correlationEdges.getCorrelation(edge);
+                    maxCoordinates[0] = correlationEdges.getSource(edge);
+                    maxCoordinates[1] = correlationEdges.getTarget(edge);
+                }
+            }
+            highestPositiveCorrelation = max;
+            return max > 0 ? maxCoordinates : null;
+        }
         for (int i = 0; i < correlationMatrix.getRowDimension(); i++) {
             for (int j = 0; j < correlationMatrix.getColumnDimension(); j++) {
                 if (i != j && correlationMatrix.getEntry(i, j) > max) {
@@ -127,17 +180,31 @@ public class AnalysisData {
                 }
             }
         }
+        highestPositiveCorrelation = correlationMatrix.getEntry(maxCoordinates[0], maxCoordinates[1]);
         return maxCoordinates;
     }
 
     /**
      * Returns the coordinates in the correlation matrix with the highest negative value in the shape {x,y}
      *
-     * @return
+     * @return the coordinates, null if only edges are kept and none of them is negative
      */
     private static int[] calcHighestNegativeCorrelationCoordinates() {
         double min = 1;
         int[] minCoordinates = {0, 0};
+        if (correlationEdges != null) {
+            //Pairs below the floor aren't known, there is no highest negative correlation if no edge is negative
+            min = 0;
+            for (int edge = 0; edge < correlationEdges.size(); edge++) {
+                if (correlationEdges.getCorrelation(edge) < min) {
+                    min = correlationEdges.getCorrelation(edge);
+                    minCoordinates[0] = correlationEdges.getSource(edge);
+                    minCoordinates[1] = correlationEdges.getTarget(edge);
+                }
+            }
+            highestNegativeCorrelation = min;
+            return min < 0 ? minCoordinates : null;
+        }
         for (int i = 0; i < correlationMatrix.getRowDimension(); i++) {
             for (int j = 0; j < correlationMatrix.getColumnDimension(); j++) {
                 if (i != j && correlationMatrix.getEntry(i, j) < min) {
@@ -147,6 +214,7 @@ public class AnalysisData {
                 }
             }
         }
+        highestNegativeCorrelation = correlationMatrix.getEntry(minCoordinates[0], minCoordinates[1]);
         return minCoordinates;
 
     }
@@ -164,11 +232,11 @@ public class AnalysisData {
         nodeWithHighestFrequency = argMax;
     }
 
-    public static String getLevelOfAnalysis() {
+    public static byte getLevelOfAnalysis() {
         return level_of_analysis;
     }
 
-    public static void setLevel_of_analysis(String level_of_analysis) {
+    public static void setLevel_of_analysis(byte level_of_analysis) {
         AnalysisData.level_of_analysis = level_of_analysis;
     }
 
@@ -241,6 +309,20 @@ public class AnalysisData {
         return highestNegativeCorrelationCoordinates;
     }
 
+    /**
+     * @return the correlation at the highest positive correlation coordinates
+     */
+    public static double getHighestPositiveCorrelation() {
+        return highestPositiveCorrelation;
+    }
+
+    /**
+     * @return the correlation at the highest negative correlation coordinates
+     */
+    public static double getHighestNegativeCorrelation() {
+        return highestNegativeCorrelation;
+    }
+
     public static double getHighestFrequency() {
         return highestFrequency;
     }
@@ -265,6 +347,14 @@ public class AnalysisData {
         return excludeFrequencyThreshold.get();
     }
 
+    public static DoubleProperty correlationFloorProperty() {
+        return correlationFloor;
+    }
+
+    public static double getCorrelationFloor() {
+        return correlationFloor.get();
+    }
+
     /**
      * Helper method for printing a matrix to the console
      *
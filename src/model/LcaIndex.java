@@ -0,0 +1,152 @@
+package model;
+
+/**
+ * <h1>Lowest common ancestor queries on a TaxonTree in constant time</h1>
+ * <p>
+ * Uses the preorder numbering of the tree instead of a full Euler tour: for two nodes a and b with
+ * preorder(a) &lt; preorder(b), the node with the smallest depth in the preorder range (preorder(a), preorder(b)] is
+ * a child of their lowest common ancestor. The smallest depth of a range is found with a range minimum query:
+ * ranges within a block of 64 positions use a bit mask of the minima stack of the block, longer ranges use a sparse
+ * table over the minima of the blocks. This needs an int and a long per node plus a small table, so it can be built
+ * for the whole NCBI tree.
+ * </p>
+ *
+ * @see TaxonTree#getLcaIndex()
+ */
+public class LcaIndex {
+    private static final int BLOCK_SHIFT = 6;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+    private final TaxonTree tree;
+    //Depth of the node with each preorder number, roots (and nodes on parent cycles) have depth 0
+    private final int[] depths;
+    //Bit j of masks[i] marks position (block start + j) as a minimum of the range from there to i, within the block
+    private final long[] masks;
+    //sparseTable[k][b] is the position of the minimum of the blocks b to b + 2^k - 1
+    private final int[][] sparseTable;
+
+    LcaIndex(TaxonTree tree) {
+        this.tree = tree;
+        int size = tree.size();
+        depths = new int[size];
+        for (int position = 0; position < size; position++) {
+            int parentIndex = tree.getParentIndexAt(tree.getIndexAtPreorder(position));
+            //Parents come first in preorder, only nodes on a parent cycle don't have their parent before them
+            if (parentIndex != TaxonTree.NO_NODE && tree.getPreorderAt(parentIndex) < position) {
+                depths[position] = depths[tree.getPreorderAt(parentIndex)] + 1;
+            }
+        }
+
+        masks = new long[size];
+        for (int position = 0; position < size; position++) {
+            int blockStart = position & -BLOCK_SIZE;
+            long stack = position == blockStart ? 0 : masks[position - 1];
+            while (stack != 0 && depths[blockStart + 63 - Long.numberOfLeadingZeros(stack)] >= depths[position]) {
+                stack &= ~Long.highestOneBit(stack);
+            }
+            masks[position] = stack | (1L << (position - blockStart));
+        }
+
+        int blockCount = (size + BLOCK_SIZE - 1) >>> BLOCK_SHIFT;
+        int levels = blockCount == 0 ? 1 : 32 - Integer.numberOfLeadingZeros(blockCount);
+        sparseTable = new int[levels][];
+        sparseTable[0] = new int[blockCount];
+        for (int block = 0; block < blockCount; block++) {
+            int blockStart = block << BLOCK_SHIFT;
+            sparseTable[0][block] = minimumInBlock(blockStart, Math.min(size - 1, blockStart + BLOCK_SIZE - 1));
+        }
+        for (int level = 1; level < levels; level++) {
+            int half = 1 << (level - 1);
+            int[] previous = sparseTable[level - 1];
+            int[] current = new int[Math.max(0, blockCount - (1 << level) + 1)];
+            for (int block = 0; block < current.length; block++) {
+                current[block] = lower(previous[block], previous[block + half]);
+            }
+            sparseTable[level] = current;
+        }
+    }
+
+    /**
+     * @param a index of a node
+     * @param b index of another node
+     * @return index of the lowest common ancestor (a node is its own ancestor here), NO_NODE if the nodes don't have
+     * a common ancestor or one of them is NO_NODE
+     */
+    public int lca(int a, int b) {
+        if (a == TaxonTree.NO_NODE || b == TaxonTree.NO_NODE) {
+            return TaxonTree.NO_NODE;
+        }
+        if (a == b) {
+            return a;
+        }
+        int from = tree.getPreorderAt(a), to = tree.getPreorderAt(b);
+        if (from > to) {
+            int swap = from;
+            from = to;
+            to = swap;
+        }
+        int position = minimum(from + 1, to);
+        //A root in between means that the nodes are in different trees
+        if (depths[position] == 0) {
+            return TaxonTree.NO_NODE;
+        }
+        return tree.getParentIndexAt(tree.getIndexAtPreorder(position));
+    }
+
+    /**
+     * Folds the lowest common ancestor over several nodes, entries that are NO_NODE (e.g. ids not found in the tree)
+     * are skipped
+     *
+     * @param indices node indices
+     * @param from    first entry to use
+     * @param to      entry after the last one to use
+     * @return index of the lowest common ancestor of all nodes, NO_NODE if there is none
+     */
+    public int lca(int[] indices, int from, int to) {
+        int result = TaxonTree.NO_NODE;
+        for (int i = from; i < to; i++) {
+            if (indices[i] == TaxonTree.NO_NODE) {
+                continue;
+            }
+            if (result == TaxonTree.NO_NODE) {
+                result = indices[i];
+            } else {
+                result = lca(result, indices[i]);
+                if (result == TaxonTree.NO_NODE) {
+                    return TaxonTree.NO_NODE;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the position with the smallest depth in [from, to]
+     */
+    private int minimum(int from, int to) {
+        int fromBlock = from >>> BLOCK_SHIFT, toBlock = to >>> BLOCK_SHIFT;
+        if (fromBlock == toBlock) {
+            return minimumInBlock(from, to);
+        }
+        int best = lower(minimumInBlock(from, (fromBlock << BLOCK_SHIFT) + BLOCK_SIZE - 1),
+                minimumInBlock(toBlock << BLOCK_SHIFT, to));
+        if (fromBlock + 1 < toBlock) {
+            int first = fromBlock + 1, last = toBlock - 1;
+            int level = 31 - Integer.numberOfLeadingZeros(last - first + 1);
+            best = lower(best, lower(sparseTable[level][first], sparseTable[level][last - (1 << level) + 1]));
+        }
+        return best;
+    }
+
+    /**
+     * The minima stack at the end of the range, without the entries before its start, has the minimum at the bottom
+     */
+    private int minimumInBlock(int from, int to) {
+        long stack = masks[to] & (-1L << (from & (BLOCK_SIZE - 1)));
+        return (to & -BLOCK_SIZE) + Long.numberOfTrailingZeros(stack);
+    }
+
+    private int lower(int position, int otherPosition) {
+        return depths[otherPosition] < depths[position] ? otherPosition : position;
+    }
+}
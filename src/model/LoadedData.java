@@ -1,12 +1,13 @@
 package model;
 
-import analysis.SampleComparison;
+import analysis.CorrelationEdges;
 import graph.MyEdge;
 import graph.MyGraph;
 import graph.MyVertex;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.CheckBoxTreeCell;
@@ -42,6 +43,14 @@ public class LoadedData {
     private static ObservableList<Sample> selectedSamples = FXCollections.observableArrayList();
     private static BooleanProperty analyzeSelected = new SimpleBooleanProperty(false);
     private static int countOfSamplesFromEqualPaths = 0;
+    //Taxa of all loaded samples and their ancestors, kept up to date by a listener on the samples
+    private static WorkingTaxonomy workingTaxonomy = new WorkingTaxonomy();
+    private static final ListChangeListener<Sample> workingTaxonomyUpdater = change -> {
+        while (change.next()) {
+            change.getRemoved().forEach(workingTaxonomy::removeSample);
+            change.getAddedSubList().forEach(workingTaxonomy::addSample);
+        }
+    };
 
     /**
      * <h1>Adds samples to the every connected database</h1>
@@ -55,10 +64,12 @@ public class LoadedData {
         loadedSamples
                 .stream()
                 .forEach(sample -> sample.setPathToFile(file.getAbsolutePath()));
+        //Parsing is done, the counts are merged once so the analyses can read them from several threads
+        loadedSamples.forEach(Sample::compactCounts);
 
         //If these samples are the first samples to be loaded mark them as default
         if (samples == null) {
-            samples = FXCollections.observableArrayList(loadedSamples);
+            setSamples(FXCollections.observableArrayList(loadedSamples));
         } else {
             samples.addAll(loadedSamples);
         }
@@ -70,61 +81,114 @@ public class LoadedData {
         addSamplesToTreeView(treeViewFiles, loadedSamples, file.getName());
     }
 
+    /**
+     * <h1>Replaces the samples of an open file with the samples of parsing it again</h1>
+     * Used when the file was parsed with another tree before, e.g. a partial tree of the fast start. The samples keep
+     * their names, positions and selection, so the tree view, the selection and the shown graph stay as they are.
+     * Samples the user has removed stay removed.
+     *
+     * @param reparsedSamples Samples of parsing the file again, in the same order as before
+     * @param file            File where the samples have been parsed from
+     */
+    public static void replaceSamplesOfFile(ArrayList<Sample> reparsedSamples, File file) {
+        String pathToFile = file.getAbsolutePath();
+        countOfSamplesFromEqualPaths = 0;
+        for (Sample reparsedSample : reparsedSamples) {
+            //The same name as the sample got when the file was added
+            String sampleName = getNameWithoutExtension(file.getName(), reparsedSamples);
+            Sample oldSample = sampleNameToSample.get(sampleName);
+            int index = samples == null || oldSample == null ? -1 : samples.indexOf(oldSample);
+            if (index < 0 || !pathToFile.equals(oldSample.getPathToFile())) {
+                continue;
+            }
+            reparsedSample.setPathToFile(pathToFile);
+            reparsedSample.setName(sampleName);
+            reparsedSample.compactCounts();
+            samples.set(index, reparsedSample);
+            int selectedIndex = selectedSamples.indexOf(oldSample);
+            if (selectedIndex >= 0) {
+                selectedSamples.set(selectedIndex, reparsedSample);
+            }
+            sampleNameToSample.put(sampleName, reparsedSample);
+        }
+    }
+
     /**
      * Builds a fully connected graph of all taxa contained in the sample list.
+     * If only the correlations that reach the correlation floor are kept, only these pairs are connected.
      * This method must be called AFTER analysis is performed, since it needs the correlations and p-values
      */
     public static void createGraph() {
-        LinkedList<TaxonNode> nodeList = SampleComparison.getUnifiedTaxonList(samples, AnalysisData.getLevelOfAnalysis());
+        //The columns of the correlation, p-value and MDS matrices
+        TaxonIndex taxonIndex = RankProjection.of(samples, AnalysisData.getLevelOfAnalysis()).getTaxonIndex();
         taxonGraph = new MyGraph<>();
+        final CorrelationEdges correlationEdges = AnalysisData.getCorrelationEdges();
+
+        //Number of edges of every vertex
+        int[] degrees = new int[taxonIndex.size()];
+        if (correlationEdges != null) {
+            for (int edge = 0; edge < correlationEdges.size(); edge++) {
+                degrees[correlationEdges.getSource(edge)]++;
+                degrees[correlationEdges.getTarget(edge)]++;
+            }
+        } else {
+            Arrays.fill(degrees, taxonIndex.size() - 1); //It will be a fully connected graph
+        }
 
         //Create a vertex for each taxonNode
-        for (TaxonNode taxonNode : nodeList) {
-            MyVertex vertex = new MyVertex(taxonNode, nodeList.size() - 1); //It will be a fully connected graph
+        for (int i = 0; i < taxonIndex.size(); i++) {
+            TaxonNode taxonNode = taxonIndex.getNodeAt(i);
+            MyVertex vertex = new MyVertex(taxonNode, degrees[i]);
             taxonGraph.addVertex(vertex);
             //Add mapping of node to vertex to hashmap
             taxonGraph.getTaxonNodeToVertexMap().put(taxonNode, vertex);
         }
 
-        //Connect every pair of vertices with a MyEdge, set correlation and pValue of the edge
-        final HashMap<TaxonNode, MyVertex> taxonNodeToVertexMap = taxonGraph.getTaxonNodeToVertexMap();
-        final RealMatrix correlationMatrix = AnalysisData.getCorrelationMatrix();
-        final RealMatrix pValueMatrix = AnalysisData.getPValueMatrix();
         final double[][] mdsMatrix = AnalysisData.getMDSMatrix();
-
-        for (int i = 0; i < nodeList.size(); i++) {
-            //Create Hashmap for this index, or access it if it's already there
-            HashMap<Integer, MyEdge> currentEdgeMap =
-                    taxonGraph.getNodeIdsToEdgesMap().getOrDefault(nodeList.get(i).getTaxonId(), new HashMap<>());
+        for (int i = 0; i < taxonIndex.size(); i++) {
+            //Create Hashmap for this index, if it's not there yet
+            taxonGraph.getNodeIdsToEdgesMap().putIfAbsent(taxonIndex.getTaxonIdAt(i), new HashMap<>());
 
             // Set inital coordinates from MDS
-            MyVertex sourceVertex = taxonNodeToVertexMap.get(nodeList.get(i));
+            MyVertex sourceVertex = taxonGraph.getTaxonNodeToVertexMap().get(taxonIndex.getNodeAt(i));
             // Add relative Frequency to Node Map
             sourceVertex.getAttributesMap().put("frequency", AnalysisData.getMaximumRelativeFrequencies().get(sourceVertex.getTaxonNode()));
             sourceVertex.xCoordinatesProperty().setValue((mdsMatrix[0][i]));
             sourceVertex.yCoordinatesProperty().setValue((mdsMatrix[1][i]));
+        }
 
-
-            for (int j = 0; j < i; j++) {
-
-                MyVertex targetVertex = taxonNodeToVertexMap.get(nodeList.get(j));
-                MyEdge edge = new MyEdge(sourceVertex, targetVertex);
-                edge.setCorrelation(correlationMatrix.getEntry(i, j));
-                edge.setPValue(pValueMatrix.getEntry(i, j));
-                taxonGraph.addEdge(edge, sourceVertex, targetVertex);
-                currentEdgeMap.put(nodeList.get(j).getTaxonId(), edge);
-                //Get j's hashmap or create it
-                HashMap<Integer, MyEdge> secondNodeEdgeMap =
-                        taxonGraph.getNodeIdsToEdgesMap().getOrDefault(nodeList.get(j).getTaxonId(), new HashMap<>());
-                //Add edge in other direction
-                secondNodeEdgeMap.put(nodeList.get(i).getTaxonId(), edge);
-                //Add j's hashmap, if it's not contained yet
-                taxonGraph.getNodeIdsToEdgesMap().putIfAbsent(nodeList.get(j).getTaxonId(), secondNodeEdgeMap);
+        if (correlationEdges != null) {
+            //Connect the pairs of vertices that reach the floor
+            for (int edge = 0; edge < correlationEdges.size(); edge++) {
+                connect(taxonIndex, correlationEdges.getTarget(edge), correlationEdges.getSource(edge),
+                        correlationEdges.getCorrelation(edge), correlationEdges.getPValue(edge));
+            }
+        } else {
+            //Connect every pair of vertices
+            final RealMatrix correlationMatrix = AnalysisData.getCorrelationMatrix();
+            final RealMatrix pValueMatrix = AnalysisData.getPValueMatrix();
+            for (int i = 0; i < taxonIndex.size(); i++) {
+                for (int j = 0; j < i; j++) {
+                    connect(taxonIndex, i, j, correlationMatrix.getEntry(i, j), pValueMatrix.getEntry(i, j));
+                }
             }
-            //Add Hashmap to map of maps, if it's not contained yet
-            taxonGraph.getNodeIdsToEdgesMap().putIfAbsent(nodeList.get(i).getTaxonId(), currentEdgeMap);
         }
+    }
 
+    /**
+     * Connects the vertices of the taxa in the columns i and j with a MyEdge, sets correlation and pValue of the edge
+     */
+    private static void connect(TaxonIndex taxonIndex, int i, int j, double correlation, double pValue) {
+        final HashMap<TaxonNode, MyVertex> taxonNodeToVertexMap = taxonGraph.getTaxonNodeToVertexMap();
+        MyVertex sourceVertex = taxonNodeToVertexMap.get(taxonIndex.getNodeAt(i));
+        MyVertex targetVertex = taxonNodeToVertexMap.get(taxonIndex.getNodeAt(j));
+        MyEdge edge = new MyEdge(sourceVertex, targetVertex);
+        edge.setCorrelation(correlation);
+        edge.setPValue(pValue);
+        taxonGraph.addEdge(edge, sourceVertex, targetVertex);
+        taxonGraph.getNodeIdsToEdgesMap().get(taxonIndex.getTaxonIdAt(i)).put(taxonIndex.getTaxonIdAt(j), edge);
+        //Add edge in other direction
+        taxonGraph.getNodeIdsToEdgesMap().get(taxonIndex.getTaxonIdAt(j)).put(taxonIndex.getTaxonIdAt(i), edge);
     }
 
 
@@ -305,6 +369,10 @@ public class LoadedData {
         return samples;
     }
 
+    public static WorkingTaxonomy getWorkingTaxonomy() {
+        return workingTaxonomy;
+    }
+
     public static MyGraph<MyVertex, MyEdge> getTaxonGraph() {
         return taxonGraph;
     }
@@ -335,7 +403,15 @@ public class LoadedData {
 
     // SETTERS
     public static void setSamples(ObservableList<Sample> samples) {
+        if (LoadedData.samples != null) {
+            LoadedData.samples.removeListener(workingTaxonomyUpdater);
+        }
+        workingTaxonomy.clear();
         LoadedData.samples = samples;
+        if (samples != null) {
+            samples.forEach(workingTaxonomy::addSample);
+            samples.addListener(workingTaxonomyUpdater);
+        }
     }
 
     public static void setAnalyzeSelected(boolean analyzeSelected) {
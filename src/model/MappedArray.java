@@ -0,0 +1,132 @@
+package model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * <h1>An array of ints or longs in a memory-mapped file that grows while it's written</h1>
+ * <p>
+ * The values are stored in a temporary file that is mapped into memory segment by segment, the pages are held by the
+ * operating system and not by the Java heap. A segment is mapped once the first value in it is written, so an array
+ * can be filled before its length is known, e.g. with the non-zero counts of a SampleMatrix. The file is deleted as
+ * soon as it's created and closed by {@link #finish()}, the mappings stay valid and the space is released once the
+ * array is garbage collected. Arrays of a known length are mapped at once and can be written in parallel.
+ * </p>
+ *
+ * @see MappedSampleMatrix
+ * @see MappedSparseSampleMatrix
+ */
+class MappedArray {
+    //Size of one mapped segment in bytes, a single mapping is limited to 2 GB
+    private static final int SEGMENT_SHIFT = 27;
+    private static final long SEGMENT_BYTES = 1L << SEGMENT_SHIFT;
+
+    private final int elementShift;
+    private RandomAccessFile file;
+    private ByteBuffer[] segments = new ByteBuffer[0];
+
+    /**
+     * @param elementBytes Integer.BYTES or Long.BYTES
+     * @throws IOException if the temporary file can't be created
+     */
+    MappedArray(int elementBytes) throws IOException {
+        elementShift = Integer.numberOfTrailingZeros(elementBytes);
+        File tempFile = File.createTempFile("cornetto", ".matrix");
+        file = new RandomAccessFile(tempFile, "rw");
+        //The open file stays usable without its name, on systems that don't allow this it's deleted on exit
+        if (!tempFile.delete()) {
+            tempFile.deleteOnExit();
+        }
+    }
+
+    /**
+     * Maps the segments of all values at once, so the values can be written by several threads
+     *
+     * @param elementBytes Integer.BYTES or Long.BYTES
+     * @param length       number of values
+     * @throws IOException if the temporary file can't be created
+     */
+    MappedArray(int elementBytes, long length) throws IOException {
+        this(elementBytes);
+        long segmentCount = ((length << elementShift) + SEGMENT_BYTES - 1) >>> SEGMENT_SHIFT;
+        map((int) segmentCount);
+        finish();
+    }
+
+    /**
+     * Closes the file, no new segments can be mapped afterwards
+     */
+    void finish() {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            file = null;
+        }
+    }
+
+    /**
+     * @return the value at the index, 0 if nothing was written to its segment
+     */
+    int getInt(long index) {
+        long position = index << elementShift;
+        int segment = (int) (position >>> SEGMENT_SHIFT);
+        return segment < segments.length ? segments[segment].getInt((int) (position & (SEGMENT_BYTES - 1))) : 0;
+    }
+
+    /**
+     * @return the value at the index, 0 if nothing was written to its segment
+     */
+    long getLong(long index) {
+        long position = index << elementShift;
+        int segment = (int) (position >>> SEGMENT_SHIFT);
+        return segment < segments.length ? segments[segment].getLong((int) (position & (SEGMENT_BYTES - 1))) : 0;
+    }
+
+    void setInt(long index, int value) {
+        long position = index << elementShift;
+        segmentFor(position).putInt((int) (position & (SEGMENT_BYTES - 1)), value);
+    }
+
+    void setLong(long index, long value) {
+        long position = index << elementShift;
+        segmentFor(position).putLong((int) (position & (SEGMENT_BYTES - 1)), value);
+    }
+
+    /**
+     * @return the segment of the byte position, mapped if it's the first value written to it
+     */
+    private ByteBuffer segmentFor(long position) {
+        int segment = (int) (position >>> SEGMENT_SHIFT);
+        if (segment >= segments.length) {
+            map(segment + 1);
+        }
+        return segments[segment];
+    }
+
+    private void map(int segmentCount) {
+        if (file == null) {
+            throw new IllegalStateException("The array was finished");
+        }
+        int mappedCount = segments.length;
+        segments = Arrays.copyOf(segments, segmentCount);
+        try {
+            FileChannel channel = file.getChannel();
+            for (int segment = mappedCount; segment < segmentCount; segment++) {
+                //Mapping beyond the end of the file extends it, the new pages are zero
+                segments[segment] = channel.map(FileChannel.MapMode.READ_WRITE, segment * SEGMENT_BYTES,
+                        SEGMENT_BYTES).order(ByteOrder.nativeOrder());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package model;
+
+import java.io.IOException;
+
+/**
+ * <h1>A dense SampleMatrix in a memory-mapped file</h1>
+ * <p>
+ * The counts are stored row by row as longs in a {@link MappedArray}, the pages are held by the operating system and
+ * not by the Java heap. Blocks of columns are read with one pass over the rows, each row only from the first to the
+ * last column of the block, instead of a strided pass over the whole file per column.
+ * </p>
+ *
+ * @see SampleMatrix.Builder
+ */
+class MappedSampleMatrix extends SampleMatrix {
+    private final MappedArray values;
+    private int nonZeroCount;
+
+    MappedSampleMatrix(int rowCount, int columnCount) throws IOException {
+        super(rowCount, columnCount);
+        values = new MappedArray(Long.BYTES);
+    }
+
+    /**
+     * Writes the counts of a row, called once for every row while the matrix is built
+     */
+    synchronized void setRow(int row, long[] rowValues) {
+        long offset = (long) row * columnCount;
+        for (int column = 0; column < columnCount; column++) {
+            if (rowValues[column] != 0) {
+                nonZeroCount++;
+                values.setLong(offset + column, rowValues[column]);
+            }
+        }
+    }
+
+    /**
+     * Closes the file once all rows are written
+     */
+    void finish() {
+        values.finish();
+    }
+
+    @Override
+    public long get(int row, int column) {
+        return values.getLong((long) row * columnCount + column);
+    }
+
+    @Override
+    public boolean isDense() {
+        return true;
+    }
+
+    @Override
+    public int getNonZeroCount() {
+        return nonZeroCount;
+    }
+
+    @Override
+    public void forEachInRow(int row, EntryVisitor visitor) {
+        long offset = (long) row * columnCount;
+        for (int column = 0; column < columnCount; column++) {
+            long value = values.getLong(offset + column);
+            if (value != 0) {
+                visitor.visit(column, value);
+            }
+        }
+    }
+
+    @Override
+    public void forEachInColumn(int column, EntryVisitor visitor) {
+        for (int row = 0; row < rowCount; row++) {
+            long value = get(row, column);
+            if (value != 0) {
+                visitor.visit(row, value);
+            }
+        }
+    }
+
+    @Override
+    public void readColumns(int columnStart, int columnEnd, double[][] block) {
+        for (int row = 0; row < rowCount; row++) {
+            long offset = (long) row * columnCount;
+            for (int column = columnStart; column < columnEnd; column++) {
+                block[column - columnStart][row] = values.getLong(offset + column);
+            }
+        }
+    }
+}
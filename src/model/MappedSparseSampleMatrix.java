@@ -0,0 +1,131 @@
+package model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * <h1>A sparse SampleMatrix in memory-mapped files</h1>
+ * <p>
+ * The non-zero counts are stored as compressed sparse rows like in the sparse layout on the heap, but the columns and
+ * values of the entries are {@link MappedArray}s, only the start of every row is on the heap. The compressed sparse
+ * columns are derived into mapped arrays as well, once the first column is read. A large matrix with few non-zero
+ * counts only takes the space of its entries, not of all its cells.
+ * </p>
+ *
+ * @see SampleMatrix.Builder
+ */
+class MappedSparseSampleMatrix extends SampleMatrix {
+    //The entries of row r are at rowStarts[r] until rowStarts[r + 1]
+    private final long[] rowStarts;
+    private final MappedArray columns;
+    private final MappedArray values;
+    //Compressed sparse columns, created on first use
+    private volatile ColumnIndex columnIndex;
+
+    /**
+     * @param rowStarts the start of every row and the number of entries at the end
+     * @param columns   the columns of the entries, ascending within every row
+     * @param values    the counts of the entries, never 0
+     */
+    MappedSparseSampleMatrix(int rowCount, int columnCount, long[] rowStarts, MappedArray columns,
+                             MappedArray values) {
+        super(rowCount, columnCount);
+        this.rowStarts = rowStarts;
+        this.columns = columns;
+        this.values = values;
+    }
+
+    @Override
+    public long get(int row, int column) {
+        //Binary search within the row
+        long low = rowStarts[row], high = rowStarts[row + 1] - 1;
+        while (low <= high) {
+            long middle = (low + high) >>> 1;
+            int middleColumn = columns.getInt(middle);
+            if (middleColumn < column) {
+                low = middle + 1;
+            } else if (middleColumn > column) {
+                high = middle - 1;
+            } else {
+                return values.getLong(middle);
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean isDense() {
+        return false;
+    }
+
+    @Override
+    public int getNonZeroCount() {
+        return (int) Math.min(Integer.MAX_VALUE, rowStarts[rowCount]);
+    }
+
+    @Override
+    public void forEachInRow(int row, EntryVisitor visitor) {
+        for (long entry = rowStarts[row]; entry < rowStarts[row + 1]; entry++) {
+            visitor.visit(columns.getInt(entry), values.getLong(entry));
+        }
+    }
+
+    @Override
+    public void forEachInColumn(int column, EntryVisitor visitor) {
+        ColumnIndex index = getColumnIndex();
+        for (long entry = index.columnStarts[column]; entry < index.columnStarts[column + 1]; entry++) {
+            visitor.visit(index.rows.getInt(entry), index.values.getLong(entry));
+        }
+    }
+
+    private ColumnIndex getColumnIndex() {
+        ColumnIndex index = columnIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = columnIndex;
+                if (index == null) {
+                    try {
+                        index = new ColumnIndex(this);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    columnIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Compressed sparse columns in mapped arrays, sorted from the rows with a counting sort
+     */
+    private static class ColumnIndex {
+        private final long[] columnStarts;
+        private final MappedArray rows;
+        private final MappedArray values;
+
+        ColumnIndex(MappedSparseSampleMatrix matrix) throws IOException {
+            long entryCount = matrix.rowStarts[matrix.rowCount];
+            columnStarts = new long[matrix.columnCount + 1];
+            rows = new MappedArray(Integer.BYTES);
+            values = new MappedArray(Long.BYTES);
+            for (long entry = 0; entry < entryCount; entry++) {
+                columnStarts[matrix.columns.getInt(entry) + 1]++;
+            }
+            for (int column = 0; column < matrix.columnCount; column++) {
+                columnStarts[column + 1] += columnStarts[column];
+            }
+            long[] next = new long[matrix.columnCount];
+            System.arraycopy(columnStarts, 0, next, 0, matrix.columnCount);
+            for (int row = 0; row < matrix.rowCount; row++) {
+                for (long entry = matrix.rowStarts[row]; entry < matrix.rowStarts[row + 1]; entry++) {
+                    long position = next[matrix.columns.getInt(entry)]++;
+                    rows.setInt(position, row);
+                    values.setLong(position, matrix.values.getLong(entry));
+                }
+            }
+            rows.finish();
+            values.finish();
+        }
+    }
+}
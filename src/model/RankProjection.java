@@ -0,0 +1,326 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * <h1>The counts of a list of samples at one rank, computed once and shared by all analyses</h1>
+ * <p>
+ * Contains every taxon of the rank that occurs in one of the samples, sorted by id, and the recursive count of each
+ * of these taxa in every sample. The correlation, the relative frequencies, the average counts and the views of an
+ * analysis all read the same projection instead of collecting the taxa and counts again. The counts are stored in a
+ * SampleMatrix, which picks a dense or sparse layout. The ranks of the counts are computed once per projection as
+ * well (see RankedColumns), so changing a p-value or the correlation floor never ranks again.
+ * </p>
+ * <p>
+ * The last projection of every rank is kept. It's replaced once the list of samples, the counts of one of the samples
+ * (e.g. after filtering with another exclude-frequency threshold) or the threshold itself changed.
+ * </p>
+ *
+ * @see analysis.SampleComparison
+ * @see AnalysisData
+ */
+public class RankProjection {
+    //The last projection of every rank
+    private static final HashMap<Byte, RankProjection> projections = new HashMap<>();
+
+    private final byte rankCode;
+    private final ArrayList<Sample> samples;
+    private final int[] countsVersions;
+    //Taxa of the rank in any of the samples, sorted by id
+    private final TaxonIndex taxonIndex;
+    private final List<TaxonNode> taxa;
+    //Recursive count of every taxon in every sample, by sample index and taxon index
+    private final SampleMatrix counts;
+    //Taxon indices of the taxa that are in the taxa2CountMap of the sample itself, by sample index
+    private final BitSet[] observed;
+    //Ranks of the counts of every taxon among the samples, created on first use
+    private volatile RankedColumns rankedColumns;
+
+    /**
+     * Returns the projection of the samples at the rank, it's only computed if the samples or their counts changed
+     *
+     * @param samples
+     * @param rankCode TaxonRank code
+     * @return
+     */
+    public static synchronized RankProjection of(List<Sample> samples, byte rankCode) {
+        RankProjection projection = projections.get(rankCode);
+        if (projection == null || !projection.isCurrent(samples)) {
+            projection = new RankProjection(samples, rankCode);
+            projections.put(rankCode, projection);
+        }
+        return projection;
+    }
+
+    /**
+     * Drops all projections, e.g. because the exclude-frequency threshold changed
+     */
+    public static synchronized void invalidate() {
+        projections.clear();
+    }
+
+    private RankProjection(List<Sample> samples, byte rankCode) {
+        this.rankCode = rankCode;
+        this.samples = new ArrayList<>(samples);
+        countsVersions = new int[samples.size()];
+        HashSet<TaxonNode> taxonSet = new HashSet<>();
+        for (int sampleIndex = 0; sampleIndex < samples.size(); sampleIndex++) {
+            Sample sample = samples.get(sampleIndex);
+            countsVersions[sampleIndex] = sample.getCountsVersion();
+            for (TaxonNode taxonNode : sample.getTaxa2CountMap().keySet()) {
+                if (taxonNode.getRankCode() == rankCode) {
+                    taxonSet.add(taxonNode);
+                }
+            }
+        }
+        taxonIndex = new TaxonIndex(taxonSet);
+        taxa = taxonIndex.asList();
+
+        //Only the non-zero counts of a sample are collected, the builder picks the layout from their number
+        SampleMatrix.Builder builder = new SampleMatrix.Builder(samples.size(), taxonIndex.size());
+        RowCounts row = new RowCounts(taxonIndex.size());
+        observed = new BitSet[samples.size()];
+        for (int sampleIndex = 0; sampleIndex < samples.size(); sampleIndex++) {
+            observed[sampleIndex] = new BitSet(taxonIndex.size());
+            projectSample(samples.get(sampleIndex), row, observed[sampleIndex]);
+            row.sort();
+            builder.setRow(sampleIndex, row.columns, row.values, row.size);
+            row.clear();
+        }
+        counts = builder.build();
+    }
+
+    /**
+     * Adds the count of every taxon of the sample to its ancestor at the rank, which sums up the recursive counts of
+     * the taxa of the projection without looking at the taxa the sample doesn't contain. The ancestors are read from
+     * the rank-ancestor table of the tree.
+     */
+    private void projectSample(Sample sample, RowCounts row, BitSet observedTaxa) {
+        TaxonCountMap countMap = sample.getCountMap();
+        TaxonTree tree = countMap.getTree();
+        if (tree != null) {
+            TaxonCountMap.IndexedCounts taxa = countMap.readIndexedCounts();
+            for (int position = 0; position < taxa.size(); position++) {
+                if (!taxa.containsAt(position)) {
+                    continue;
+                }
+                int index = taxa.getIndexAt(position);
+                int ancestorIndex = tree.getAncestorIndexAt(index, rankCode);
+                int column = ancestorIndex == TaxonTree.NO_NODE ? -1 : taxonIndex.indexOf(tree, ancestorIndex);
+                if (column < 0) {
+                    continue;
+                }
+                row.add(column, taxa.getCountAt(position));
+                if (ancestorIndex == index) {
+                    observedTaxa.set(column);
+                }
+            }
+        }
+        if (countMap.hasDetachedTaxa()) {
+            //Counts of nodes outside the tree only reach taxa outside the tree, these are summed up recursively
+            for (int column = 0; column < taxonIndex.size(); column++) {
+                TaxonNode taxonNode = taxonIndex.getNodeAt(column);
+                if (tree == null || taxonNode.getTree() != tree) {
+                    row.add(column, sample.getTaxonCountRecursive(taxonNode));
+                    if (countMap.containsKey(taxonNode)) {
+                        observedTaxa.set(column);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The counts of one sample by column, only the columns with a count are collected and reset
+     */
+    private static class RowCounts {
+        private final long[] countsByColumn;
+        private int[] columns = new int[16];
+        private long[] values = new long[16];
+        private int size;
+
+        RowCounts(int columnCount) {
+            countsByColumn = new long[columnCount];
+        }
+
+        void add(int column, long count) {
+            if (count == 0) {
+                return;
+            }
+            if (countsByColumn[column] == 0) {
+                if (size == columns.length) {
+                    columns = Arrays.copyOf(columns, size * 2);
+                    values = Arrays.copyOf(values, size * 2);
+                }
+                columns[size++] = column;
+            }
+            countsByColumn[column] += count;
+        }
+
+        /**
+         * Sorts the columns and copies their counts next to them
+         */
+        void sort() {
+            Arrays.sort(columns, 0, size);
+            for (int entry = 0; entry < size; entry++) {
+                values[entry] = countsByColumn[columns[entry]];
+            }
+        }
+
+        void clear() {
+            for (int entry = 0; entry < size; entry++) {
+                countsByColumn[columns[entry]] = 0;
+            }
+            size = 0;
+        }
+    }
+
+    /**
+     * @return true if the projection was computed from these samples with their current counts
+     */
+    private boolean isCurrent(List<Sample> otherSamples) {
+        if (otherSamples.size() != samples.size()) {
+            return false;
+        }
+        for (int sampleIndex = 0; sampleIndex < samples.size(); sampleIndex++) {
+            Sample sample = otherSamples.get(sampleIndex);
+            if (sample != samples.get(sampleIndex) || sample.getCountsVersion() != countsVersions[sampleIndex]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public byte getRankCode() {
+        return rankCode;
+    }
+
+    /**
+     * @return the taxa of the rank in any of the samples, sorted by id
+     */
+    public List<TaxonNode> getTaxa() {
+        return taxa;
+    }
+
+    /**
+     * @return the columns of the taxa, shared by all matrices of the analysis
+     */
+    public TaxonIndex getTaxonIndex() {
+        return taxonIndex;
+    }
+
+    /**
+     * @return the index of the taxon in the taxa of the projection, -1 if it isn't one of them
+     */
+    public int indexOf(TaxonNode taxonNode) {
+        return taxonIndex.indexOf(taxonNode);
+    }
+
+    /**
+     * @return the recursive count of the taxon with the given index in the sample with the given index
+     */
+    public long getCount(int sampleIndex, int taxonIndex) {
+        return counts.get(sampleIndex, taxonIndex);
+    }
+
+    /**
+     * @return the recursive counts with a row for each sample and a column for each taxon
+     */
+    public SampleMatrix getMatrix() {
+        return counts;
+    }
+
+    /**
+     * @return the counts as a matrix with a row for each sample and a column for each taxon
+     */
+    public double[][] getCountMatrix() {
+        return counts.toArray();
+    }
+
+    /**
+     * Ranks the counts of every taxon among the samples, from 1 for the smallest count to the number of samples. Equal
+     * counts get the average of their ranks, like the NaturalRanking of commons-math. The taxa are ranked in parallel,
+     * once per projection.
+     *
+     * @return the ranks and the samples sorted by them, shared by all correlations of the projection
+     */
+    private RankedColumns getRankedColumns() {
+        RankedColumns ranks = rankedColumns;
+        if (ranks == null) {
+            synchronized (this) {
+                ranks = rankedColumns;
+                if (ranks == null) {
+                    rankedColumns = ranks = new RankedColumns(counts);
+                }
+            }
+        }
+        return ranks;
+    }
+
+    /**
+     * Copies the ranks of the counts of a block of taxa among the samples, see getRankedColumns
+     *
+     * @param columnStart first taxon index of the block
+     * @param columnEnd   end of the block, exclusive
+     * @param ranks       an array of length getSampleCount() for each taxon of the block, overwritten
+     */
+    public void readRankedColumns(int columnStart, int columnEnd, double[][] ranks) {
+        RankedColumns rankedColumns = getRankedColumns();
+        for (int column = columnStart; column < columnEnd; column++) {
+            rankedColumns.readRanks(column, ranks[column - columnStart]);
+        }
+    }
+
+    /**
+     * Copies the ranks times two, which are integers, of a block of taxa and the sample indices sorted by them
+     *
+     * @param columnStart  first taxon index of the block
+     * @param columnEnd    end of the block, exclusive
+     * @param doubledRanks an array of length getSampleCount() for each taxon of the block, overwritten
+     * @param orders       an array of length getSampleCount() for each taxon of the block, overwritten with the sample
+     *                     indices by ascending rank, equal ranks by sample index
+     */
+    public void readSortedRanks(int columnStart, int columnEnd, int[][] doubledRanks, int[][] orders) {
+        RankedColumns rankedColumns = getRankedColumns();
+        for (int column = columnStart; column < columnEnd; column++) {
+            rankedColumns.readDoubledRanks(column, doubledRanks[column - columnStart]);
+            rankedColumns.readOrder(column, orders[column - columnStart]);
+        }
+    }
+
+    /**
+     * Relative frequencies of the taxa of the rank that are in the taxa2CountMap of the sample, relative to the sum of
+     * their counts
+     *
+     * @param sampleIndex
+     * @return the frequencies of the observed taxa, by taxon index; 0 for taxa the sample doesn't contain itself
+     */
+    public double[] getRelativeFrequencies(int sampleIndex) {
+        BitSet observedTaxa = observed[sampleIndex];
+        long[] countSum = new long[1];
+        counts.forEachInRow(sampleIndex, (taxonIndex, count) -> {
+            if (observedTaxa.get(taxonIndex)) {
+                countSum[0] += count;
+            }
+        });
+        double[] frequencies = new double[taxa.size()];
+        //Observed taxa with a count of 0 have a frequency of 0, or NaN if all observed counts are 0
+        for (int taxonIndex = observedTaxa.nextSetBit(0); taxonIndex >= 0;
+             taxonIndex = observedTaxa.nextSetBit(taxonIndex + 1)) {
+            frequencies[taxonIndex] = counts.get(sampleIndex, taxonIndex) / (double) countSum[0];
+        }
+        return frequencies;
+    }
+
+    /**
+     * @return the number of samples
+     */
+    public int getSampleCount() {
+        return samples.size();
+    }
+}
@@ -0,0 +1,170 @@
+package model;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * <h1>The ranks of the counts of every taxon among the samples, computed once per RankProjection</h1>
+ * <p>
+ * Ranks go from 1 for the smallest count to the number of samples, equal counts get the average of their ranks like
+ * the NaturalRanking of commons-math. They're multiples of 0.5 and stored doubled as ints, together with the sample
+ * indices sorted by rank (ties by sample index). The taxa are ranked in parallel, block by block from the counts.
+ * </p>
+ * <p>
+ * Both tables have a value per cell of the count matrix. They're kept on the heap, or in {@link MappedArray}s column
+ * by column if the matrix has more than SampleMatrix.OFF_HEAP_CELLS cells. The correlations read them in blocks of
+ * taxa, so neither the ranking nor the sorting is repeated for another tile, p-value or floor.
+ * </p>
+ *
+ * @see RankProjection
+ */
+class RankedColumns {
+    //Number of taxa that are read from the counts and ranked at once
+    private static final int BLOCK_SIZE = 64;
+
+    private final int sampleCount;
+    //Doubled ranks and sample orders by taxon, null if they're off the heap
+    private int[][] doubledRanks, orders;
+    private MappedArray mappedRanks, mappedOrders;
+
+    RankedColumns(SampleMatrix counts) {
+        this(counts, (long) counts.getColumnCount() * counts.getRowCount() > SampleMatrix.OFF_HEAP_CELLS);
+    }
+
+    /**
+     * @param offHeap true if the ranks are stored in mapped files
+     */
+    RankedColumns(SampleMatrix counts, boolean offHeap) {
+        int taxonCount = counts.getColumnCount();
+        sampleCount = counts.getRowCount();
+        long cellCount = (long) taxonCount * sampleCount;
+        if (offHeap) {
+            try {
+                mappedRanks = new MappedArray(Integer.BYTES, cellCount);
+                mappedOrders = new MappedArray(Integer.BYTES, cellCount);
+            } catch (IOException e) {
+                //Keep the ranks on the heap instead
+                e.printStackTrace();
+                mappedRanks = null;
+            }
+        }
+        if (mappedRanks == null) {
+            doubledRanks = new int[taxonCount][];
+            orders = new int[taxonCount][];
+        }
+        int blockCount = (taxonCount + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        IntStream.range(0, blockCount).parallel().forEach(block -> {
+            int columnStart = block * BLOCK_SIZE, columnEnd = Math.min(columnStart + BLOCK_SIZE, taxonCount);
+            double[][] values = new double[columnEnd - columnStart][sampleCount];
+            counts.readColumns(columnStart, columnEnd, values);
+            for (int column = columnStart; column < columnEnd; column++) {
+                rankColumn(column, values[column - columnStart]);
+            }
+        });
+    }
+
+    /**
+     * Ranks the counts of one taxon and sorts the samples by them. The counts are never negative, so all samples
+     * without the taxon share the lowest ranks and only the non-zero counts have to be sorted to find the ranks.
+     */
+    private void rankColumn(int column, double[] values) {
+        double[] sortedValues = new double[sampleCount];
+        int nonZeroCount = 0;
+        for (double value : values) {
+            if (value != 0) {
+                sortedValues[nonZeroCount++] = value;
+            }
+        }
+        Arrays.sort(sortedValues, 0, nonZeroCount);
+        int zeroCount = sampleCount - nonZeroCount;
+        int[] columnRanks = new int[sampleCount];
+        //Rank and sample index fit into one long
+        long[] keys = new long[sampleCount];
+        for (int row = 0; row < sampleCount; row++) {
+            if (values[row] == 0) {
+                //Twice the average of the ranks 1 to zeroCount
+                columnRanks[row] = zeroCount + 1;
+            } else {
+                //Equal values take the positions first until last - 1 of the sorted values
+                int first = lowerBound(sortedValues, nonZeroCount, values[row]);
+                int last = lowerBound(sortedValues, nonZeroCount, values[row] + 1);
+                columnRanks[row] = 2 * zeroCount + first + last + 1;
+            }
+            keys[row] = (long) columnRanks[row] << 32 | row;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[sampleCount];
+        for (int position = 0; position < sampleCount; position++) {
+            order[position] = (int) keys[position];
+        }
+
+        if (mappedRanks == null) {
+            doubledRanks[column] = columnRanks;
+            orders[column] = order;
+        } else {
+            long offset = (long) column * sampleCount;
+            for (int row = 0; row < sampleCount; row++) {
+                mappedRanks.setInt(offset + row, columnRanks[row]);
+                mappedOrders.setInt(offset + row, order[row]);
+            }
+        }
+    }
+
+    /**
+     * @return the first position of a value that isn't smaller than the key
+     */
+    private static int lowerBound(double[] sortedValues, int length, double key) {
+        int low = 0, high = length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sortedValues[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Copies the ranks of a taxon
+     */
+    void readRanks(int column, double[] ranks) {
+        for (int row = 0; row < sampleCount; row++) {
+            ranks[row] = getDoubledRank(column, row) / 2.0;
+        }
+    }
+
+    /**
+     * Copies the doubled ranks of a taxon
+     */
+    void readDoubledRanks(int column, int[] ranks) {
+        if (mappedRanks == null) {
+            System.arraycopy(doubledRanks[column], 0, ranks, 0, sampleCount);
+        } else {
+            long offset = (long) column * sampleCount;
+            for (int row = 0; row < sampleCount; row++) {
+                ranks[row] = mappedRanks.getInt(offset + row);
+            }
+        }
+    }
+
+    /**
+     * Copies the sample indices of a taxon, sorted by rank
+     */
+    void readOrder(int column, int[] order) {
+        if (mappedOrders == null) {
+            System.arraycopy(orders[column], 0, order, 0, sampleCount);
+        } else {
+            long offset = (long) column * sampleCount;
+            for (int position = 0; position < sampleCount; position++) {
+                order[position] = mappedOrders.getInt(offset + position);
+            }
+        }
+    }
+
+    private int getDoubledRank(int column, int row) {
+        return mappedRanks == null ? doubledRanks[column][row] : mappedRanks.getInt((long) column * sampleCount + row);
+    }
+}
@@ -1,31 +1,46 @@
 package model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Created by jm on 15.05.17.
+ * Recursive counts of taxa from a TaxonTree are computed for all members of the WorkingTaxonomy of the sample in one
+ * pass and cached, the cache is rebuilt whenever the taxa2CountMap or the WorkingTaxonomy changes. As long as
+ * neither changed, a recursive count is a lookup without locking.
+ * The counts are stored in sorted primitive arrays (see TaxonCountMap), getTaxa2CountMap is a view on them.
  */
 public class Sample implements Serializable {
 
-    private HashMap<TaxonNode, Integer> fullTaxa2CountMap;
-    private HashMap<TaxonNode, Integer> taxa2CountMap;
+    //Saved as plain maps, see writeObject
+    private transient TaxonCountMap fullTaxa2CountMap;
+    private transient TaxonCountMap taxa2CountMap;
     private static HashMap<String, String> metaDataMap;
     private String sampleId;
     private String name;
     private String pathToFile;
+    //The taxonomy the sample was added to, the sample gets its own one if it wasn't added to any
+    private transient volatile WorkingTaxonomy workingTaxonomy;
+    //Recursive counts of all members of the working taxonomy, used by getTaxonCountRecursive
+    private transient volatile CumulativeCounts cumulativeCounts;
+    //Threshold and counts version of the last filtering, filtering again with the same threshold changes nothing
+    private transient double filterThreshold = Double.NaN;
+    private transient int filteredVersion;
 
     // Empty constructor needed in CSV Parsers
     public Sample() {
-        this.taxa2CountMap = new HashMap<>();
+        this.taxa2CountMap = new TaxonCountMap();
         metaDataMap = new HashMap<>();
         this.sampleId = "";
     }
 
     // Constructor with initialisation data
     public Sample(HashMap<TaxonNode, Integer> taxa2CountMap, HashMap<String, String> metaData) {
-        this.taxa2CountMap = taxa2CountMap;
+        this.taxa2CountMap = new TaxonCountMap(taxa2CountMap);
         metaDataMap = metaData;
         this.sampleId = sampleId;
     }
@@ -34,39 +49,130 @@ public class Sample implements Serializable {
      * Sums up the counts of taxonNode and the counts of all its children (and their children and so on...)
      *
      * @param taxonNode
-     * @return
+     * @return the recursive count, Integer.MAX_VALUE if it doesn't fit into an int
      */
     public int getTaxonCountRecursive(TaxonNode taxonNode) {
-        int recursiveSum = getTaxa2CountMap().getOrDefault(taxonNode, 0);
+        //Counts that don't fit into an int are cut off like the counts of getTaxa2CountMap
+        return (int) Math.min(Integer.MAX_VALUE, getRecursiveCount(taxonNode));
+    }
+
+    /**
+     * @return the exact recursive count of the taxon, see getTaxonCountRecursive
+     */
+    private long getRecursiveCount(TaxonNode taxonNode) {
+        TaxonCountMap counts = taxa2CountMap;
+        WorkingTaxonomy taxonomy = workingTaxonomy;
+        CumulativeCounts cumulative = cumulativeCounts;
+        if (taxonomy == null || cumulative == null || cumulative.countsVersion != counts.getVersion()
+                || !taxonomy.isCurrent(cumulative.layout)) {
+            if (taxonomy == null) {
+                taxonomy = new WorkingTaxonomy();
+                taxonomy.addSample(this);
+            }
+            //The layout must include the current taxa of the sample
+            synchronized (taxonomy) {
+                taxonomy.update(this);
+                cumulative = new CumulativeCounts(taxonomy.getLayout(), counts);
+            }
+            cumulativeCounts = cumulative;
+        }
+        if (cumulative.counts != null) {
+            int position = cumulative.layout.getPosition(taxonNode);
+            if (position >= 0) {
+                return cumulative.counts[position];
+            }
+            //Taxa of the tree that aren't in the taxonomy have no observed taxon below them
+            if (taxonNode.getTree() != null && taxonNode.getTree() == cumulative.layout.getTree()) {
+                return 0;
+            }
+        }
+        //Nodes that don't belong to a tree (or to a different tree than the sample's taxa) are summed up recursively
+        long recursiveSum = counts.getCount(taxonNode);
         for (TaxonNode child :
                 taxonNode.getChildNodeList()) {
-            recursiveSum += getTaxonCountRecursive(child);
+            recursiveSum += getRecursiveCount(child);
         }
         return recursiveSum;
     }
 
     /**
-     * Deletes every taxa from the sample whose frequency is below the threshold
+     * Deletes every taxa from the sample whose frequency is below the threshold.
+     * The frequencies are relative to the counts of all taxa of the sample before filtering. The full counts are
+     * sorted once, the taxa above the threshold are a view on them, so moving the threshold doesn't copy any counts.
      */
     public void filterTaxaPrimary() {
-        int countSum = 0;
-        for (Integer integer : taxa2CountMap.values()) {
-            countSum += integer;
+        double threshold = AnalysisData.getExcludeFrequencyThreshold();
+        //Keeping the filtered map keeps its version, so the cached counts and projections stay valid
+        if (threshold == filterThreshold && getCountsVersion() == filteredVersion) {
+            return;
         }
         if (fullTaxa2CountMap == null) {
-            fullTaxa2CountMap = (HashMap<TaxonNode, Integer>) taxa2CountMap.clone();
-        }
-        HashMap<TaxonNode, Integer> filteredMap = new HashMap<>();
-        for (Map.Entry<TaxonNode, Integer> entry : fullTaxa2CountMap.entrySet()) {
-            if (entry.getValue() / (double) countSum > AnalysisData.getExcludeFrequencyThreshold())
-                filteredMap.put(entry.getKey(), entry.getValue());
+            fullTaxa2CountMap = taxa2CountMap.clone();
         }
-        taxa2CountMap = filteredMap;
+        taxa2CountMap = fullTaxa2CountMap.viewAbove(threshold);
+        filterThreshold = threshold;
+        filteredVersion = getCountsVersion();
+
+    }
+
+    /**
+     * Adds to the count of a taxon without boxing, the taxon is added to the sample if it isn't in it yet
+     *
+     * @param taxonNode
+     * @param count
+     */
+    public void addTaxonCount(TaxonNode taxonNode, long count) {
+        taxa2CountMap.addCount(taxonNode, count);
+    }
 
+    /**
+     * Merges the counts that were added one by one, call it once all counts are added, e.g. when parsing finishes.
+     * Reading works without, but has to merge them again on every read.
+     */
+    public void compactCounts() {
+        taxa2CountMap.compact();
+    }
+
+    /**
+     * Adds the counts of another sample to the counts of this one
+     *
+     * @param sample
+     */
+    public void addTaxonCounts(Sample sample) {
+        taxa2CountMap.addAll(sample.taxa2CountMap);
     }
 
     //Getters
-    public HashMap<TaxonNode, Integer> getTaxa2CountMap() {
+    /**
+     * @return the count of the taxon itself, 0 if it isn't in the sample
+     */
+    public long getTaxonCount(TaxonNode taxonNode) {
+        return taxa2CountMap.getCount(taxonNode);
+    }
+
+    /**
+     * @return the sum of the counts of all taxa in the sample
+     */
+    public long getCountSum() {
+        return taxa2CountMap.sum();
+    }
+
+    /**
+     * @return a number that changes whenever the taxa2CountMap changes or is replaced
+     */
+    int getCountsVersion() {
+        return taxa2CountMap.getVersion();
+    }
+
+    TaxonCountMap getCountMap() {
+        return taxa2CountMap;
+    }
+
+    WorkingTaxonomy getWorkingTaxonomy() {
+        return workingTaxonomy;
+    }
+
+    public Map<TaxonNode, Integer> getTaxa2CountMap() {
         return taxa2CountMap;
     }
 
@@ -87,8 +193,13 @@ public class Sample implements Serializable {
     }
 
     //Setters
-    public void setTaxa2CountMap(HashMap<TaxonNode, Integer> taxa2CountMap) {
-        this.taxa2CountMap = taxa2CountMap;
+    public void setTaxa2CountMap(Map<TaxonNode, Integer> taxa2CountMap) {
+        this.taxa2CountMap = taxa2CountMap instanceof TaxonCountMap ? (TaxonCountMap) taxa2CountMap
+                : new TaxonCountMap(taxa2CountMap);
+    }
+
+    void setWorkingTaxonomy(WorkingTaxonomy workingTaxonomy) {
+        this.workingTaxonomy = workingTaxonomy;
     }
 
     public void setSampleId(String id) {
@@ -110,4 +221,68 @@ public class Sample implements Serializable {
     public void setPathToFile(String pathToFile) {
         this.pathToFile = pathToFile;
     }
+
+    /**
+     * The counts are saved as plain maps, the nodes of a tree can't be serialized by index
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(new HashMap<>(taxa2CountMap));
+        out.writeObject(fullTaxa2CountMap == null ? null : new HashMap<>(fullTaxa2CountMap));
+    }
+
+    /**
+     * The counts are stored as a TaxonCountMap again after loading
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        taxa2CountMap = new TaxonCountMap((HashMap<TaxonNode, Integer>) in.readObject());
+        HashMap<TaxonNode, Integer> fullCounts = (HashMap<TaxonNode, Integer>) in.readObject();
+        fullTaxa2CountMap = fullCounts == null ? null : new TaxonCountMap(fullCounts);
+        filterThreshold = Double.NaN;
+    }
+
+    /**
+     * Recursive counts of all members of a WorkingTaxonomy layout, by position. The members are in preorder, so the
+     * recursive count of a member is the sum of the counts between its position and the end of its subtree: the
+     * counts are added up once, then every recursive count is the difference of two prefix sums.
+     */
+    private static class CumulativeCounts {
+        private final WorkingTaxonomy.Layout layout;
+        private final int countsVersion;
+        //null if not all taxa of the sample are part of the layout
+        private long[] counts;
+
+        CumulativeCounts(WorkingTaxonomy.Layout layout, TaxonCountMap taxa2CountMap) {
+            this.layout = layout;
+            this.countsVersion = taxa2CountMap.getVersion();
+            if (taxa2CountMap.hasDetachedTaxa()
+                    || (taxa2CountMap.getTree() != layout.getTree() && !taxa2CountMap.isEmpty())) {
+                return;
+            }
+            long[] prefixSums = new long[layout.size() + 1];
+            TaxonCountMap.IndexedCounts taxa = taxa2CountMap.readIndexedCounts();
+            for (int i = 0; i < taxa.size(); i++) {
+                long count = taxa.getCountAt(i);
+                //Taxa hidden by a filtered view count 0 and don't need a position
+                if (count == 0) {
+                    continue;
+                }
+                int position = layout.getPositionAt(taxa.getIndexAt(i));
+                if (position < 0) {
+                    return;
+                }
+                prefixSums[position + 1] += count;
+            }
+            for (int i = 1; i < prefixSums.length; i++) {
+                prefixSums[i] += prefixSums[i - 1];
+            }
+            long[] cumulative = new long[layout.size()];
+            for (int position = 0; position < cumulative.length; position++) {
+                cumulative[position] = prefixSums[layout.getSubtreeEnd(position)] - prefixSums[position];
+            }
+            counts = cumulative;
+        }
+    }
 }
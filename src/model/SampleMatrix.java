@@ -0,0 +1,480 @@
+package model;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * <h1>Counts of samples (rows) and taxa (columns), stored dense or sparse depending on how many counts are zero</h1>
+ * <p>
+ * Matrices with at least one non-zero count in DENSE_FILL_RATIO of their cells are stored as one long array per
+ * sample. Sparser matrices are stored in compressed sparse rows, the compressed sparse columns are derived once the
+ * first column is read. Rows and columns are read through {@link EntryVisitor}s that get the non-zero entries without
+ * boxing, or copied into double arrays for the statistics.
+ * </p>
+ * <p>
+ * A {@link Builder} only collects the non-zero counts, so no dense copy exists before the layout is picked. Matrices
+ * with more than OFF_HEAP_CELLS cells are kept in memory-mapped files in either layout (see MappedSampleMatrix and
+ * MappedSparseSampleMatrix). The statistics read the counts in blocks of columns (see {@link #readColumns}), so no
+ * copy of the whole matrix is needed on the heap.
+ * </p>
+ *
+ * @see RankProjection
+ */
+public abstract class SampleMatrix {
+    //Matrices with a smaller share of non-zero counts are stored sparse
+    static final double DENSE_FILL_RATIO = 1 / 3.;
+    //Larger matrices are stored off the heap, in a memory-mapped file
+    static final long OFF_HEAP_CELLS = 1L << 25;
+
+    protected final int rowCount, columnCount;
+
+    /**
+     * Receives the non-zero entries of a row or column
+     */
+    public interface EntryVisitor {
+        /**
+         * @param index column index when visiting a row, row index when visiting a column
+         * @param value the count, never 0
+         */
+        void visit(int index, long value);
+    }
+
+    SampleMatrix(int rowCount, int columnCount) {
+        this.rowCount = rowCount;
+        this.columnCount = columnCount;
+    }
+
+    /**
+     * Creates the matrix in the layout that fits the share of non-zero counts
+     *
+     * @param rows one array of counts per sample, all of length columnCount
+     * @param columnCount
+     * @return
+     */
+    public static SampleMatrix fromRows(long[][] rows, int columnCount) {
+        long nonZeroCount = 0;
+        for (long[] row : rows) {
+            for (long value : row) {
+                if (value != 0) {
+                    nonZeroCount++;
+                }
+            }
+        }
+        if (isDense(nonZeroCount, rows.length, columnCount)) {
+            return new Dense(rows, columnCount);
+        }
+        Builder builder = new Builder(rows.length, columnCount, false);
+        for (int row = 0; row < rows.length; row++) {
+            builder.setRow(row, rows[row]);
+        }
+        return builder.build();
+    }
+
+    private static boolean isDense(long nonZeroCount, int rowCount, int columnCount) {
+        return nonZeroCount >= DENSE_FILL_RATIO * rowCount * (double) columnCount;
+    }
+
+    /**
+     * Collects the non-zero counts of a matrix row by row as compressed sparse rows and picks the layout from their
+     * number once all rows are set. Dense matrices are expanded from the entries. The entries of matrices with more
+     * than OFF_HEAP_CELLS cells are collected in mapped files and stay there if the matrix is sparse, dense ones are
+     * written to a mapped file row by row.
+     */
+    public static class Builder {
+        private final int rowCount, columnCount;
+        private final long[] rowStarts;
+        private long nonZeroCount;
+        //Rows before this one are set
+        private int nextRow;
+        //The entries on the heap
+        private int[] columns;
+        private long[] values;
+        //The entries off the heap, null if they're on the heap
+        private MappedArray mappedColumns, mappedValues;
+
+        /**
+         * @param rowCount    number of samples
+         * @param columnCount number of taxa
+         */
+        public Builder(int rowCount, int columnCount) {
+            this(rowCount, columnCount, (long) rowCount * columnCount > OFF_HEAP_CELLS);
+        }
+
+        /**
+         * @param offHeap true if the matrix is stored in mapped files
+         */
+        Builder(int rowCount, int columnCount, boolean offHeap) {
+            this.rowCount = rowCount;
+            this.columnCount = columnCount;
+            rowStarts = new long[rowCount + 1];
+            if (offHeap) {
+                try {
+                    mappedColumns = new MappedArray(Integer.BYTES);
+                    mappedValues = new MappedArray(Long.BYTES);
+                } catch (IOException e) {
+                    //Keep the entries on the heap instead
+                    e.printStackTrace();
+                    mappedColumns = null;
+                }
+            }
+            if (mappedColumns == null) {
+                columns = new int[16];
+                values = new long[16];
+            }
+        }
+
+        /**
+         * Sets the counts of a sample, the array can be reused for the next row. Rows are set in ascending order.
+         */
+        public void setRow(int row, long[] rowValues) {
+            startRow(row);
+            for (int column = 0; column < columnCount; column++) {
+                if (rowValues[column] != 0) {
+                    addEntry(column, rowValues[column]);
+                }
+            }
+        }
+
+        /**
+         * Sets the non-zero counts of a sample, the arrays can be reused for the next row. Rows are set in ascending
+         * order.
+         *
+         * @param row
+         * @param rowColumns the columns of the counts, ascending
+         * @param rowValues  the counts, never 0
+         * @param length     number of entries in the arrays
+         */
+        public void setRow(int row, int[] rowColumns, long[] rowValues, int length) {
+            startRow(row);
+            for (int entry = 0; entry < length; entry++) {
+                addEntry(rowColumns[entry], rowValues[entry]);
+            }
+        }
+
+        private void startRow(int row) {
+            if (row < nextRow) {
+                throw new IllegalStateException("Row " + row + " was set after row " + (nextRow - 1));
+            }
+            //Rows that weren't set stay empty
+            for (; nextRow <= row; nextRow++) {
+                rowStarts[nextRow] = nonZeroCount;
+            }
+        }
+
+        private void addEntry(int column, long value) {
+            if (mappedColumns != null) {
+                mappedColumns.setInt(nonZeroCount, column);
+                mappedValues.setLong(nonZeroCount++, value);
+                return;
+            }
+            if (nonZeroCount == columns.length) {
+                int capacity = columns.length * 2;
+                columns = Arrays.copyOf(columns, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+            columns[(int) nonZeroCount] = column;
+            values[(int) nonZeroCount++] = value;
+        }
+
+        public SampleMatrix build() {
+            startRow(rowCount);
+            if (mappedColumns != null) {
+                mappedColumns.finish();
+                mappedValues.finish();
+            }
+            if (!isDense(nonZeroCount, rowCount, columnCount)) {
+                if (mappedColumns != null) {
+                    return new MappedSparseSampleMatrix(rowCount, columnCount, rowStarts, mappedColumns,
+                            mappedValues);
+                }
+                int[] heapRowStarts = new int[rowCount + 1];
+                for (int row = 0; row <= rowCount; row++) {
+                    heapRowStarts[row] = (int) rowStarts[row];
+                }
+                return new Sparse(rowCount, columnCount, heapRowStarts, Arrays.copyOf(columns, (int) nonZeroCount),
+                        Arrays.copyOf(values, (int) nonZeroCount));
+            }
+            if (mappedColumns != null) {
+                try {
+                    //Only one row is on the heap at a time
+                    MappedSampleMatrix mappedMatrix = new MappedSampleMatrix(rowCount, columnCount);
+                    long[] row = new long[columnCount];
+                    for (int rowIndex = 0; rowIndex < rowCount; rowIndex++) {
+                        Arrays.fill(row, 0);
+                        expandRow(rowIndex, row);
+                        mappedMatrix.setRow(rowIndex, row);
+                    }
+                    mappedMatrix.finish();
+                    return mappedMatrix;
+                } catch (IOException e) {
+                    //Keep the rows on the heap instead
+                    e.printStackTrace();
+                }
+            }
+            long[][] rows = new long[rowCount][columnCount];
+            for (int rowIndex = 0; rowIndex < rowCount; rowIndex++) {
+                expandRow(rowIndex, rows[rowIndex]);
+            }
+            return new Dense(rows, columnCount);
+        }
+
+        private void expandRow(int row, long[] rowValues) {
+            for (long entry = rowStarts[row]; entry < rowStarts[row + 1]; entry++) {
+                if (mappedColumns != null) {
+                    rowValues[mappedColumns.getInt(entry)] = mappedValues.getLong(entry);
+                } else {
+                    rowValues[columns[(int) entry]] = values[(int) entry];
+                }
+            }
+        }
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    public abstract long get(int row, int column);
+
+    public abstract boolean isDense();
+
+    /**
+     * @return number of non-zero counts
+     */
+    public abstract int getNonZeroCount();
+
+    /**
+     * Visits the non-zero counts of a sample in the order of the columns
+     */
+    public abstract void forEachInRow(int row, EntryVisitor visitor);
+
+    /**
+     * Visits the non-zero counts of a taxon in the order of the rows
+     */
+    public abstract void forEachInColumn(int column, EntryVisitor visitor);
+
+    /**
+     * @return the counts of a sample as doubles
+     */
+    public double[] getRow(int row) {
+        double[] values = new double[columnCount];
+        forEachInRow(row, (column, value) -> values[column] = value);
+        return values;
+    }
+
+    /**
+     * @return the counts of a taxon as doubles
+     */
+    public double[] getColumn(int column) {
+        double[] values = new double[rowCount];
+        forEachInColumn(column, (row, value) -> values[row] = value);
+        return values;
+    }
+
+    /**
+     * Copies the counts of a block of taxa, e.g. the taxa of a tile of the correlation
+     *
+     * @param columnStart first column of the block
+     * @param columnEnd   end of the block, exclusive
+     * @param block       an array of length getRowCount() for each column of the block, overwritten
+     */
+    public void readColumns(int columnStart, int columnEnd, double[][] block) {
+        for (int column = columnStart; column < columnEnd; column++) {
+            double[] values = block[column - columnStart];
+            Arrays.fill(values, 0);
+            forEachInColumn(column, (row, value) -> values[row] = value);
+        }
+    }
+
+    public long getRowSum(int row) {
+        long[] sum = new long[1];
+        forEachInRow(row, (column, value) -> sum[0] += value);
+        return sum[0];
+    }
+
+    public long getColumnSum(int column) {
+        long[] sum = new long[1];
+        forEachInColumn(column, (row, value) -> sum[0] += value);
+        return sum[0];
+    }
+
+    /**
+     * @return the counts as a matrix with a row for each sample and a column for each taxon
+     */
+    public double[][] toArray() {
+        double[][] values = new double[rowCount][];
+        for (int row = 0; row < rowCount; row++) {
+            values[row] = getRow(row);
+        }
+        return values;
+    }
+
+    /**
+     * One array of counts per sample
+     */
+    private static class Dense extends SampleMatrix {
+        private final long[][] rows;
+
+        Dense(long[][] rows, int columnCount) {
+            super(rows.length, columnCount);
+            this.rows = rows;
+        }
+
+        @Override
+        public long get(int row, int column) {
+            return rows[row][column];
+        }
+
+        @Override
+        public boolean isDense() {
+            return true;
+        }
+
+        @Override
+        public int getNonZeroCount() {
+            int nonZeroCount = 0;
+            for (long[] row : rows) {
+                for (long value : row) {
+                    if (value != 0) {
+                        nonZeroCount++;
+                    }
+                }
+            }
+            return nonZeroCount;
+        }
+
+        @Override
+        public void forEachInRow(int row, EntryVisitor visitor) {
+            long[] values = rows[row];
+            for (int column = 0; column < columnCount; column++) {
+                if (values[column] != 0) {
+                    visitor.visit(column, values[column]);
+                }
+            }
+        }
+
+        @Override
+        public void forEachInColumn(int column, EntryVisitor visitor) {
+            for (int row = 0; row < rowCount; row++) {
+                if (rows[row][column] != 0) {
+                    visitor.visit(row, rows[row][column]);
+                }
+            }
+        }
+
+        @Override
+        public double[] getRow(int row) {
+            double[] values = new double[columnCount];
+            for (int column = 0; column < columnCount; column++) {
+                values[column] = rows[row][column];
+            }
+            return values;
+        }
+
+        @Override
+        public void readColumns(int columnStart, int columnEnd, double[][] block) {
+            for (int row = 0; row < rowCount; row++) {
+                long[] values = rows[row];
+                for (int column = columnStart; column < columnEnd; column++) {
+                    block[column - columnStart][row] = values[column];
+                }
+            }
+        }
+    }
+
+    /**
+     * Compressed sparse rows: the columns and values of all non-zero counts, row by row. The entries of row r are
+     * at rowStarts[r] until rowStarts[r + 1]. The compressed sparse columns are the same entries column by column.
+     */
+    private static class Sparse extends SampleMatrix {
+        private final int[] rowStarts;
+        private final int[] columns;
+        private final long[] values;
+        //Compressed sparse columns, created on first use
+        private volatile ColumnIndex columnIndex;
+
+        Sparse(int rowCount, int columnCount, int[] rowStarts, int[] columns, long[] values) {
+            super(rowCount, columnCount);
+            this.rowStarts = rowStarts;
+            this.columns = columns;
+            this.values = values;
+        }
+
+        @Override
+        public long get(int row, int column) {
+            int entry = Arrays.binarySearch(columns, rowStarts[row], rowStarts[row + 1], column);
+            return entry < 0 ? 0 : values[entry];
+        }
+
+        @Override
+        public boolean isDense() {
+            return false;
+        }
+
+        @Override
+        public int getNonZeroCount() {
+            return values.length;
+        }
+
+        @Override
+        public void forEachInRow(int row, EntryVisitor visitor) {
+            for (int entry = rowStarts[row]; entry < rowStarts[row + 1]; entry++) {
+                visitor.visit(columns[entry], values[entry]);
+            }
+        }
+
+        @Override
+        public void forEachInColumn(int column, EntryVisitor visitor) {
+            ColumnIndex index = getColumnIndex();
+            for (int entry = index.columnStarts[column]; entry < index.columnStarts[column + 1]; entry++) {
+                visitor.visit(index.rows[entry], index.values[entry]);
+            }
+        }
+
+        private ColumnIndex getColumnIndex() {
+            ColumnIndex index = columnIndex;
+            if (index == null) {
+                synchronized (this) {
+                    index = columnIndex;
+                    if (index == null) {
+                        index = new ColumnIndex(this);
+                        columnIndex = index;
+                    }
+                }
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Compressed sparse columns of a sparse matrix, sorted from the rows with a counting sort
+     */
+    private static class ColumnIndex {
+        private final int[] columnStarts;
+        private final int[] rows;
+        private final long[] values;
+
+        ColumnIndex(Sparse matrix) {
+            columnStarts = new int[matrix.columnCount + 1];
+            rows = new int[matrix.values.length];
+            values = new long[matrix.values.length];
+            for (int column : matrix.columns) {
+                columnStarts[column + 1]++;
+            }
+            for (int column = 0; column < matrix.columnCount; column++) {
+                columnStarts[column + 1] += columnStarts[column];
+            }
+            int[] next = Arrays.copyOf(columnStarts, matrix.columnCount);
+            for (int row = 0; row < matrix.rowCount; row++) {
+                for (int entry = matrix.rowStarts[row]; entry < matrix.rowStarts[row + 1]; entry++) {
+                    int position = next[matrix.columns[entry]]++;
+                    rows[position] = row;
+                    values[position] = matrix.values[entry];
+                }
+            }
+        }
+    }
+}
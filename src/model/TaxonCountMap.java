@@ -0,0 +1,698 @@
+package model;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongPredicate;
+
+/**
+ * <h1>The counts of a sample, stored as sorted primitive arrays</h1>
+ * <p>
+ * Taxa of a TaxonTree are stored by their index in the tree: one sorted int array of indices and a long array of
+ * counts, so an entry takes 12 bytes instead of a HashMap node and a boxed Integer. Lookups are binary searches,
+ * merging two maps of the same tree is a merge join. New taxa are collected in a small sorted buffer that is merged
+ * into the arrays once it's full, so adding taxa in any order stays cheap. Reads never merge the buffer, so several
+ * threads can read a map at once; {@link #compact} merges it once all taxa are added. Standalone nodes (that don't
+ * belong to the tree of the map) are kept in a plain map.
+ * </p>
+ * <p>
+ * The map is a Map of Integer counts and a view on the arrays: counts that don't fit into an Integer are cut off at
+ * Integer.MAX_VALUE there, use {@link #getCount} for the exact value. Counts can't be null. Every change increases
+ * the version of the map, versions are unique over all maps, so replacing the map changes the version as well.
+ * </p>
+ * <p>
+ * The counts are also kept sorted by size (computed once per version), so the taxa above a frequency threshold are
+ * found with a binary search. {@link #viewAbove} returns them as a view that shares the arrays of this map and hides
+ * the smaller counts, the view only copies the arrays once it's changed itself. The map must not be changed while
+ * such views are in use.
+ * </p>
+ *
+ * @see Sample
+ */
+class TaxonCountMap extends AbstractMap<TaxonNode, Integer> {
+    private static final AtomicInteger nextVersion = new AtomicInteger();
+    private static final int MIN_PENDING_CAPACITY = 32;
+    //The buffer holds this many times the square root of the size
+    private static final int PENDING_CAPACITY_FACTOR = 8;
+
+    private int version = nextVersion.incrementAndGet();
+
+    //The tree of the first taxon added
+    private TaxonTree tree;
+    //Indices in the tree and their counts, sorted by index
+    private int[] indices = new int[0];
+    private long[] counts = new long[0];
+    private int size;
+    //Taxa added since the last merge, sorted by index and disjoint from the indices above
+    private int[] pendingIndices = new int[MIN_PENDING_CAPACITY];
+    private long[] pendingCounts = new long[MIN_PENDING_CAPACITY];
+    private int pendingSize;
+    //Nodes that don't belong to the tree, null while there are none
+    private HashMap<TaxonNode, Long> detached;
+
+    //Views share the arrays of another map, only counts of at least minCount are part of the view
+    private boolean shared;
+    private long minCount = Long.MIN_VALUE;
+    private int visibleSize;
+    //The counts of the taxa of the tree in ascending order and the sum of all counts, for the version sortedVersion
+    private long[] sortedCounts;
+    private long sortedSum;
+    private int sortedVersion;
+
+    TaxonCountMap() {
+    }
+
+    TaxonCountMap(Map<TaxonNode, Integer> map) {
+        putAll(map);
+    }
+
+    //PRIMITIVE ACCESS
+
+    /**
+     * @return the count of the taxon, 0 if it isn't in the map
+     */
+    long getCount(TaxonNode taxonNode) {
+        Long count = getValue(taxonNode);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Adds to the count of a taxon, the taxon is added if it isn't in the map yet
+     */
+    void addCount(TaxonNode taxonNode, long count) {
+        Long oldCount = getValue(taxonNode);
+        setValue(taxonNode, oldCount == null ? count : oldCount + count);
+    }
+
+    /**
+     * Adds the counts of another map to the counts of this one
+     */
+    void addAll(TaxonCountMap other) {
+        other = other.owned();
+        if (tree == null && other.tree != null) {
+            tree = other.tree;
+        }
+        IndexedCounts otherCounts = other.readIndexedCounts();
+        if (other.tree == tree) {
+            merge(otherCounts.indices, otherCounts.counts, otherCounts.size, true);
+        } else {
+            for (int position = 0; position < otherCounts.size; position++) {
+                addCount(other.tree.getNodeAt(otherCounts.indices[position]), otherCounts.counts[position]);
+            }
+        }
+        if (other.detached != null) {
+            for (Map.Entry<TaxonNode, Long> entry : other.detached.entrySet()) {
+                addCount(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return the sum of all counts
+     */
+    long sum() {
+        long sum = 0;
+        for (int position = 0; position < size; position++) {
+            if (counts[position] >= minCount) {
+                sum += counts[position];
+            }
+        }
+        for (int position = 0; position < pendingSize; position++) {
+            sum += pendingCounts[position];
+        }
+        if (detached != null) {
+            for (long count : detached.values()) {
+                sum += count;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @return a new map with the entries whose count is accepted by the filter
+     */
+    TaxonCountMap filter(LongPredicate filter) {
+        IndexedCounts taxa = readIndexedCounts();
+        TaxonCountMap filteredMap = new TaxonCountMap();
+        filteredMap.tree = tree;
+        int[] filteredIndices = new int[taxa.size];
+        long[] filteredCounts = new long[taxa.size];
+        int filteredSize = 0;
+        for (int position = 0; position < taxa.size; position++) {
+            long count = taxa.counts[position];
+            if (count >= minCount && filter.test(count)) {
+                filteredIndices[filteredSize] = taxa.indices[position];
+                filteredCounts[filteredSize++] = count;
+            }
+        }
+        filteredMap.indices = Arrays.copyOf(filteredIndices, filteredSize);
+        filteredMap.counts = Arrays.copyOf(filteredCounts, filteredSize);
+        filteredMap.size = filteredSize;
+        if (detached != null) {
+            for (Map.Entry<TaxonNode, Long> entry : detached.entrySet()) {
+                if (filter.test(entry.getValue())) {
+                    filteredMap.setValue(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return filteredMap;
+    }
+
+    /**
+     * Returns the entries whose frequency (relative to the sum of all counts) is above the threshold. The counts are
+     * sorted once for every version of the map, so this is a binary search and doesn't copy any counts. Like a change
+     * of the map, this merges the buffered taxa, so it must not be called while other threads read the map.
+     *
+     * @param threshold minimum frequency, exclusive
+     * @return a view on this map, it must not be changed as long as the view is used
+     */
+    TaxonCountMap viewAbove(double threshold) {
+        ensureOwned();
+        mergePending();
+        if (sortedCounts == null || sortedVersion != version) {
+            sortedCounts = Arrays.copyOf(counts, size);
+            Arrays.sort(sortedCounts);
+            sortedSum = sum();
+            sortedVersion = version;
+        }
+        double countSum = sortedSum;
+        //First position in the sorted counts whose frequency is above the threshold
+        int low = 0, high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sortedCounts[middle] / countSum > threshold) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        TaxonCountMap view = new TaxonCountMap();
+        view.tree = tree;
+        view.indices = indices;
+        view.counts = counts;
+        view.size = size;
+        view.shared = true;
+        view.visibleSize = size - low;
+        view.minCount = low < size ? sortedCounts[low] : Long.MAX_VALUE;
+        if (detached != null) {
+            view.detached = new HashMap<>();
+            for (Map.Entry<TaxonNode, Long> entry : detached.entrySet()) {
+                if (entry.getValue() / countSum > threshold) {
+                    view.detached.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return view;
+    }
+
+    /**
+     * @return the tree of the indices, null if no taxon of a tree was added yet
+     */
+    TaxonTree getTree() {
+        return tree;
+    }
+
+    /**
+     * @return the indices of the taxa of the tree, sorted
+     */
+    int[] getIndices() {
+        IndexedCounts taxa = readIndexedCounts();
+        if (shared) {
+            int[] visibleIndices = new int[visibleSize];
+            int visibleCount = 0;
+            for (int position = 0; position < taxa.size; position++) {
+                if (taxa.counts[position] >= minCount) {
+                    visibleIndices[visibleCount++] = taxa.indices[position];
+                }
+            }
+            return visibleIndices;
+        }
+        return Arrays.copyOf(taxa.indices, taxa.size);
+    }
+
+    /**
+     * Merges the taxa that were added one by one into the sorted arrays. Reading works without, but has to merge them
+     * into a copy every time, so call this once all counts are added, e.g. when parsing finishes.
+     */
+    void compact() {
+        mergePending();
+    }
+
+    /**
+     * Reads the taxa of the tree by position, without changing the map, so several threads can read it at once. If
+     * taxa are buffered, they're merged into a copy, otherwise the arrays of the map are used.
+     *
+     * @return the taxa of the tree, sorted by index; the map must not be changed while they're used
+     */
+    IndexedCounts readIndexedCounts() {
+        if (pendingSize == 0) {
+            return new IndexedCounts(indices, counts, size, minCount);
+        }
+        //Views never have buffered taxa, so nothing is hidden here
+        int mergedSize = size + pendingSize;
+        int[] mergedIndices = new int[mergedSize];
+        long[] mergedCounts = new long[mergedSize];
+        int position = 0, pendingPosition = 0;
+        for (int merged = 0; merged < mergedSize; merged++) {
+            if (position == size
+                    || (pendingPosition < pendingSize && pendingIndices[pendingPosition] < indices[position])) {
+                mergedIndices[merged] = pendingIndices[pendingPosition];
+                mergedCounts[merged] = pendingCounts[pendingPosition++];
+            } else {
+                mergedIndices[merged] = indices[position];
+                mergedCounts[merged] = counts[position++];
+            }
+        }
+        return new IndexedCounts(mergedIndices, mergedCounts, mergedSize, minCount);
+    }
+
+    /**
+     * @return true if there are nodes that don't belong to the tree of the map
+     */
+    boolean hasDetachedTaxa() {
+        return detached != null && !detached.isEmpty();
+    }
+
+    /**
+     * @return a number that changes with every change of the map
+     */
+    int getVersion() {
+        return version;
+    }
+
+    //STORAGE
+
+    /**
+     * Copies the visible part of the shared arrays before a view is changed
+     */
+    private void ensureOwned() {
+        if (!shared) {
+            return;
+        }
+        int[] visibleIndices = new int[visibleSize];
+        long[] visibleCounts = new long[visibleSize];
+        int visibleCount = 0;
+        for (int position = 0; position < size; position++) {
+            if (counts[position] >= minCount) {
+                visibleIndices[visibleCount] = indices[position];
+                visibleCounts[visibleCount++] = counts[position];
+            }
+        }
+        indices = visibleIndices;
+        counts = visibleCounts;
+        size = visibleCount;
+        shared = false;
+        minCount = Long.MIN_VALUE;
+    }
+
+    /**
+     * @return this map, or a copy of the visible entries for views
+     */
+    private TaxonCountMap owned() {
+        return shared ? clone() : this;
+    }
+
+    /**
+     * @return the index of the node in the tree of the map, NO_NODE if it's stored in the detached map
+     */
+    private int indexOf(TaxonNode taxonNode, boolean adding) {
+        if (adding && tree == null && taxonNode.getTree() != null) {
+            tree = taxonNode.getTree();
+        }
+        return tree != null && taxonNode.getTree() == tree ? taxonNode.getIndex() : TaxonTree.NO_NODE;
+    }
+
+    private Long getValue(Object key) {
+        if (!(key instanceof TaxonNode)) {
+            return null;
+        }
+        TaxonNode taxonNode = (TaxonNode) key;
+        int index = indexOf(taxonNode, false);
+        if (index == TaxonTree.NO_NODE) {
+            return detached == null ? null : detached.get(taxonNode);
+        }
+        int position = Arrays.binarySearch(indices, 0, size, index);
+        if (position >= 0) {
+            return counts[position] >= minCount ? counts[position] : null;
+        }
+        position = Arrays.binarySearch(pendingIndices, 0, pendingSize, index);
+        return position >= 0 ? pendingCounts[position] : null;
+    }
+
+    private Long setValue(TaxonNode taxonNode, long count) {
+        ensureOwned();
+        version = nextVersion.incrementAndGet();
+        int index = indexOf(taxonNode, true);
+        if (index == TaxonTree.NO_NODE) {
+            if (detached == null) {
+                detached = new HashMap<>();
+            }
+            return detached.put(taxonNode, count);
+        }
+        int position = Arrays.binarySearch(indices, 0, size, index);
+        if (position >= 0) {
+            long oldCount = counts[position];
+            counts[position] = count;
+            return oldCount;
+        }
+        position = Arrays.binarySearch(pendingIndices, 0, pendingSize, index);
+        if (position >= 0) {
+            long oldCount = pendingCounts[position];
+            pendingCounts[position] = count;
+            return oldCount;
+        }
+        if (pendingSize == pendingIndices.length) {
+            mergePending();
+        }
+        //Insert into the buffer
+        position = -Arrays.binarySearch(pendingIndices, 0, pendingSize, index) - 1;
+        System.arraycopy(pendingIndices, position, pendingIndices, position + 1, pendingSize - position);
+        System.arraycopy(pendingCounts, position, pendingCounts, position + 1, pendingSize - position);
+        pendingIndices[position] = index;
+        pendingCounts[position] = count;
+        pendingSize++;
+        return null;
+    }
+
+    private Long removeValue(Object key) {
+        if (!(key instanceof TaxonNode)) {
+            return null;
+        }
+        TaxonNode taxonNode = (TaxonNode) key;
+        int index = indexOf(taxonNode, false);
+        Long oldCount = null;
+        ensureOwned();
+        if (index == TaxonTree.NO_NODE) {
+            if (detached != null) {
+                oldCount = detached.remove(taxonNode);
+            }
+        } else {
+            int position = Arrays.binarySearch(indices, 0, size, index);
+            if (position >= 0) {
+                oldCount = counts[position];
+                removeAt(position);
+            } else if ((position = Arrays.binarySearch(pendingIndices, 0, pendingSize, index)) >= 0) {
+                oldCount = pendingCounts[position];
+                System.arraycopy(pendingIndices, position + 1, pendingIndices, position, pendingSize - position - 1);
+                System.arraycopy(pendingCounts, position + 1, pendingCounts, position, pendingSize - position - 1);
+                pendingSize--;
+            }
+        }
+        if (oldCount != null) {
+            version = nextVersion.incrementAndGet();
+        }
+        return oldCount;
+    }
+
+    private void removeAt(int position) {
+        System.arraycopy(indices, position + 1, indices, position, size - position - 1);
+        System.arraycopy(counts, position + 1, counts, position, size - position - 1);
+        size--;
+    }
+
+    private void mergePending() {
+        if (pendingSize > 0) {
+            int pending = pendingSize;
+            pendingSize = 0;
+            //The counts stay the same, so does the version
+            int mergedVersion = version;
+            merge(pendingIndices, pendingCounts, pending, false);
+            version = mergedVersion;
+        }
+        //The buffer grows with the square root of the size, so merging costs about the same per added taxon
+        int capacity = Math.max(MIN_PENDING_CAPACITY, (int) Math.sqrt(size) * PENDING_CAPACITY_FACTOR);
+        if (capacity > pendingIndices.length) {
+            pendingIndices = new int[capacity];
+            pendingCounts = new long[capacity];
+        }
+    }
+
+    /**
+     * Merge join of the sorted indices with the indices of the map
+     *
+     * @param add true to add the counts to existing ones, false to replace them
+     */
+    private void merge(int[] otherIndices, long[] otherCounts, int otherSize, boolean add) {
+        if (otherSize == 0) {
+            return;
+        }
+        ensureOwned();
+        mergePending();
+        version = nextVersion.incrementAndGet();
+        int[] mergedIndices = new int[size + otherSize];
+        long[] mergedCounts = new long[size + otherSize];
+        int position = 0, otherPosition = 0, mergedSize = 0;
+        while (position < size || otherPosition < otherSize) {
+            if (otherPosition == otherSize
+                    || (position < size && indices[position] < otherIndices[otherPosition])) {
+                mergedIndices[mergedSize] = indices[position];
+                mergedCounts[mergedSize++] = counts[position++];
+            } else if (position == size || otherIndices[otherPosition] < indices[position]) {
+                mergedIndices[mergedSize] = otherIndices[otherPosition];
+                mergedCounts[mergedSize++] = otherCounts[otherPosition++];
+            } else {
+                mergedIndices[mergedSize] = indices[position];
+                mergedCounts[mergedSize++] = add ? counts[position] + otherCounts[otherPosition]
+                        : otherCounts[otherPosition];
+                position++;
+                otherPosition++;
+            }
+        }
+        indices = mergedSize == mergedIndices.length ? mergedIndices : Arrays.copyOf(mergedIndices, mergedSize);
+        counts = mergedSize == mergedCounts.length ? mergedCounts : Arrays.copyOf(mergedCounts, mergedSize);
+        size = mergedSize;
+    }
+
+    private static Integer toInteger(long count) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, count));
+    }
+
+    private static long checkValue(Integer value) {
+        if (value == null) {
+            throw new NullPointerException("Counts can't be null");
+        }
+        return value;
+    }
+
+    //MAP VIEW
+
+    @Override
+    public int size() {
+        return (shared ? visibleSize : size) + pendingSize + (detached == null ? 0 : detached.size());
+    }
+
+    @Override
+    public Integer get(Object key) {
+        Long count = getValue(key);
+        return count == null ? null : toInteger(count);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return getValue(key) != null;
+    }
+
+    @Override
+    public Integer put(TaxonNode key, Integer value) {
+        Long oldCount = setValue(key, checkValue(value));
+        return oldCount == null ? null : toInteger(oldCount);
+    }
+
+    @Override
+    public void putAll(Map<? extends TaxonNode, ? extends Integer> m) {
+        if (m instanceof TaxonCountMap && ((TaxonCountMap) m).tree == tree && tree != null) {
+            TaxonCountMap other = ((TaxonCountMap) m).owned();
+            IndexedCounts otherCounts = other.readIndexedCounts();
+            merge(otherCounts.indices, otherCounts.counts, otherCounts.size, false);
+            if (other.detached != null) {
+                for (Map.Entry<TaxonNode, Long> entry : other.detached.entrySet()) {
+                    setValue(entry.getKey(), entry.getValue());
+                }
+            }
+            return;
+        }
+        super.putAll(m);
+    }
+
+    @Override
+    public Integer remove(Object key) {
+        Long oldCount = removeValue(key);
+        return oldCount == null ? null : toInteger(oldCount);
+    }
+
+    @Override
+    public void clear() {
+        version = nextVersion.incrementAndGet();
+        tree = null;
+        indices = new int[0];
+        counts = new long[0];
+        size = 0;
+        pendingSize = 0;
+        detached = null;
+        shared = false;
+        minCount = Long.MIN_VALUE;
+    }
+
+    @Override
+    public Set<Map.Entry<TaxonNode, Integer>> entrySet() {
+        return new AbstractSet<Map.Entry<TaxonNode, Integer>>() {
+            @Override
+            public Iterator<Map.Entry<TaxonNode, Integer>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return TaxonCountMap.this.size();
+            }
+
+            @Override
+            public void clear() {
+                TaxonCountMap.this.clear();
+            }
+        };
+    }
+
+    /**
+     * @return a copy of the visible entries, it doesn't share any arrays with this map
+     */
+    @Override
+    public TaxonCountMap clone() {
+        return filter(count -> true);
+    }
+
+    /**
+     * Iterates over the taxa of the tree in the order of their indices, then over the detached taxa
+     */
+    private class EntryIterator implements Iterator<Map.Entry<TaxonNode, Integer>> {
+        private int position;
+        private int expectedVersion;
+        //The taxa of the tree, read without changing the map
+        private IndexedCounts taxa;
+        private final Iterator<Map.Entry<TaxonNode, Long>> detachedEntries;
+        private TaxonNode lastKey;
+        private boolean lastInTree;
+
+        EntryIterator() {
+            expectedVersion = version;
+            taxa = readIndexedCounts();
+            detachedEntries = detached == null ? Collections.emptyIterator() : detached.entrySet().iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            //Skip the taxa a view hides
+            while (position < taxa.size && taxa.counts[position] < taxa.minCount) {
+                position++;
+            }
+            return position < taxa.size || detachedEntries.hasNext();
+        }
+
+        @Override
+        public Map.Entry<TaxonNode, Integer> next() {
+            if (expectedVersion != version) {
+                throw new ConcurrentModificationException();
+            }
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (position < taxa.size) {
+                lastKey = tree.getNodeAt(taxa.indices[position]);
+                lastInTree = true;
+                return new Entry(this, lastKey, taxa.counts[position++]);
+            }
+            Map.Entry<TaxonNode, Long> entry = detachedEntries.next();
+            lastKey = entry.getKey();
+            lastInTree = false;
+            return new Entry(this, lastKey, entry.getValue());
+        }
+
+        @Override
+        public void remove() {
+            if (lastKey == null) {
+                throw new IllegalStateException();
+            }
+            if (expectedVersion != version) {
+                throw new ConcurrentModificationException();
+            }
+            if (lastInTree) {
+                //Views copy their arrays on the first change, continue after the removed taxon in the new arrays
+                int index = lastKey.getIndex();
+                removeValue(lastKey);
+                taxa = readIndexedCounts();
+                position = -Arrays.binarySearch(taxa.indices, 0, taxa.size, index) - 1;
+            } else {
+                detachedEntries.remove();
+                version = nextVersion.incrementAndGet();
+            }
+            expectedVersion = version;
+            lastKey = null;
+        }
+    }
+
+    /**
+     * The taxa of the tree of a map by position, sorted by index. Positions of a view include the hidden taxa.
+     */
+    static final class IndexedCounts {
+        private final int[] indices;
+        private final long[] counts;
+        private final int size;
+        private final long minCount;
+
+        private IndexedCounts(int[] indices, long[] counts, int size, long minCount) {
+            this.indices = indices;
+            this.counts = counts;
+            this.size = size;
+            this.minCount = minCount;
+        }
+
+        /**
+         * @return the number of positions
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * @return the index of the taxon at the position
+         */
+        int getIndexAt(int position) {
+            return indices[position];
+        }
+
+        /**
+         * @return true if the taxon at the position is in the map, false for taxa a view hides
+         */
+        boolean containsAt(int position) {
+            return counts[position] >= minCount;
+        }
+
+        /**
+         * @return the count of the taxon at the position, 0 for taxa a view hides
+         */
+        long getCountAt(int position) {
+            return counts[position] >= minCount ? counts[position] : 0;
+        }
+    }
+
+    /**
+     * Entry that writes changes of its value through to the map
+     */
+    private class Entry extends AbstractMap.SimpleEntry<TaxonNode, Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final EntryIterator iterator;
+
+        Entry(EntryIterator iterator, TaxonNode taxonNode, long count) {
+            super(taxonNode, toInteger(count));
+            this.iterator = iterator;
+        }
+
+        @Override
+        public Integer setValue(Integer value) {
+            put(getKey(), value);
+            //Changing a value doesn't disturb the iteration
+            iterator.expectedVersion = version;
+            return super.setValue(value);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package model;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * <h1>The taxa of an analysis, numbered by column</h1>
+ * <p>
+ * The columns are the taxa sorted by id. The index keeps the sorted ids, the nodes and an open-addressing hash table
+ * from id to column, so the node or id of a column and the column of an id are found in constant time. The index
+ * never changes once it's created, every matrix of an analysis (counts, correlations, p-values, MDS coordinates) is
+ * aligned with its columns.
+ * </p>
+ *
+ * @see RankProjection
+ */
+public class TaxonIndex {
+    private static final int EMPTY = -1;
+
+    private final int[] ids;
+    private final TaxonNode[] nodes;
+    //Column of an id, EMPTY for unused slots
+    private final int[] slotIds;
+    private final int[] slotColumns;
+    private final int mask, shift;
+    private final List<TaxonNode> nodeList;
+
+    /**
+     * @param taxa the taxa, each node is added once
+     */
+    public TaxonIndex(Collection<TaxonNode> taxa) {
+        //Remove duplicates by identity, nodes don't override equals
+        IdentityHashMap<TaxonNode, Boolean> uniqueTaxa = new IdentityHashMap<>();
+        for (TaxonNode taxonNode : taxa) {
+            uniqueTaxa.put(taxonNode, Boolean.TRUE);
+        }
+        nodes = uniqueTaxa.keySet().toArray(new TaxonNode[0]);
+        Arrays.sort(nodes, (tn1, tn2) -> Integer.compare(tn1.getTaxonId(), tn2.getTaxonId()));
+        ids = new int[nodes.length];
+        for (int column = 0; column < nodes.length; column++) {
+            ids[column] = nodes[column].getTaxonId();
+        }
+
+        //At most half of the slots are used
+        int slotCount = Integer.highestOneBit(Math.max(1, nodes.length) * 2) * 2;
+        mask = slotCount - 1;
+        shift = 32 - Integer.numberOfTrailingZeros(slotCount);
+        slotIds = new int[slotCount];
+        slotColumns = new int[slotCount];
+        Arrays.fill(slotColumns, EMPTY);
+        for (int column = 0; column < ids.length; column++) {
+            int slot = slotOf(ids[column]);
+            //The first column of an id is kept, standalone nodes may share an id
+            if (slotColumns[slot] == EMPTY) {
+                slotIds[slot] = ids[column];
+                slotColumns[slot] = column;
+            }
+        }
+        nodeList = new NodeList();
+    }
+
+    /**
+     * @return the slot of the id, or the empty slot where it would be
+     */
+    private int slotOf(int taxonId) {
+        //Fibonacci hashing, the top bits of the product
+        int slot = (taxonId * 0x9E3779B9) >>> shift;
+        while (slotColumns[slot] != EMPTY && slotIds[slot] != taxonId) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * @return number of taxa
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+    public TaxonNode getNodeAt(int column) {
+        return nodes[column];
+    }
+
+    public int getTaxonIdAt(int column) {
+        return ids[column];
+    }
+
+    /**
+     * @return the column of the taxon with the id, -1 if it isn't in the index
+     */
+    public int columnOf(int taxonId) {
+        return slotColumns[slotOf(taxonId)];
+    }
+
+    /**
+     * @return the column of the node, -1 if it isn't in the index
+     */
+    public int indexOf(TaxonNode taxonNode) {
+        int column = columnOf(taxonNode.getTaxonId());
+        if (column < 0) {
+            return -1;
+        }
+        //Nodes with the same id follow each other
+        for (; column < ids.length && ids[column] == taxonNode.getTaxonId(); column++) {
+            if (nodes[column] == taxonNode) {
+                return column;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param tree
+     * @param index index of the node in the tree
+     * @return the column of the node of the tree, -1 if it isn't in the index
+     */
+    public int indexOf(TaxonTree tree, int index) {
+        int taxonId = tree.getTaxonIdAt(index);
+        int column = columnOf(taxonId);
+        if (column < 0) {
+            return -1;
+        }
+        for (; column < ids.length && ids[column] == taxonId; column++) {
+            if (nodes[column].getTree() == tree && nodes[column].getIndex() == index) {
+                return column;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the ids of all taxa in the order of the columns, sorted
+     */
+    public int[] getTaxonIds() {
+        return ids.clone();
+    }
+
+    /**
+     * @return the taxa in the order of the columns, as an unmodifiable list with constant-time access
+     */
+    public List<TaxonNode> asList() {
+        return nodeList;
+    }
+
+    private class NodeList extends AbstractList<TaxonNode> implements RandomAccess {
+        @Override
+        public TaxonNode get(int index) {
+            return nodes[index];
+        }
+
+        @Override
+        public int size() {
+            return nodes.length;
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            return o instanceof TaxonNode ? TaxonIndex.this.indexOf((TaxonNode) o) : -1;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return indexOf(o) >= 0;
+        }
+    }
+}
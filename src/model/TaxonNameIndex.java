@@ -0,0 +1,369 @@
+package model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * <h1>Sorted index over the names of the taxa for exact and prefix lookup</h1>
+ * <p>
+ * All names (scientific names and, if read from names.dmp, synonyms and other name classes) are kept as UTF-8 bytes
+ * in one array, sorted case-insensitively. A lookup is a binary search over the sorted names, so it takes a few
+ * microseconds even for the whole NCBI taxonomy, and a prefix search returns the names in alphabetical order.
+ * Many names share long prefixes ("uncultured ..."), so they are sorted with a multikey quicksort that compares every
+ * byte only once per partitioning step instead of comparing whole names. Afterwards the names are stored in sorted
+ * order, so a search reads from neighbouring memory.
+ * Names are added first, the index is sorted on the first lookup. Results are entry numbers, name, taxon id and name
+ * class of an entry are accessed by its number (like the nodes of a TaxonTree). Entry numbers are the positions in
+ * name order, they change if more names are added.
+ * </p>
+ *
+ * @see TaxonTree
+ * @see treeParser.TreeParser#parseNameIndex
+ */
+public class TaxonNameIndex {
+    //Partitions of this size are sorted by comparing whole names
+    private static final int INSERTION_SORT_SIZE = 16;
+    //Partitions of this size are sorted in parallel
+    private static final int PARALLEL_SORT_SIZE = 64 * 1024;
+
+    private int size, byteCount;
+    private byte[] bytes = new byte[64 * 1024];
+    private int[] starts = new int[1024];
+    private int[] taxonIds = new int[1024];
+    private boolean[] scientific = new boolean[1024];
+    private volatile boolean sorted = true;
+
+    /**
+     * Creates an index over the scientific names of a tree, e.g. for a tree loaded from a snapshot
+     *
+     * @param taxonTree the tree
+     * @return the index
+     */
+    public static TaxonNameIndex fromTree(TaxonTree taxonTree) {
+        TaxonNameIndex nameIndex = new TaxonNameIndex();
+        for (int index = 0; index < taxonTree.size(); index++) {
+            String name = taxonTree.getNamePool().getName(index);
+            if (name != null) {
+                byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+                nameIndex.add(taxonTree.getTaxonIdAt(index), nameBytes, 0, nameBytes.length, true);
+            }
+        }
+        return nameIndex;
+    }
+
+    /**
+     * Adds a name, the index is sorted again on the next lookup
+     *
+     * @param taxonId    the taxon with this name
+     * @param source     array containing the name as UTF-8 bytes
+     * @param start      start of the name in source
+     * @param count      number of bytes of the name
+     * @param scientific whether this is the scientific name of the taxon
+     */
+    public synchronized void add(int taxonId, byte[] source, int start, int count, boolean scientific) {
+        if (size + 1 >= starts.length) {
+            starts = Arrays.copyOf(starts, 2 * starts.length);
+            taxonIds = Arrays.copyOf(taxonIds, starts.length);
+            this.scientific = Arrays.copyOf(this.scientific, starts.length);
+        }
+        if (byteCount + count > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(byteCount + count, bytes.length + bytes.length / 2));
+        }
+        System.arraycopy(source, start, bytes, byteCount, count);
+        starts[size] = byteCount;
+        taxonIds[size] = taxonId;
+        this.scientific[size] = scientific;
+        byteCount += count;
+        size++;
+        starts[size] = byteCount;
+        sorted = false;
+    }
+
+    /**
+     * @return number of names in the index
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param name the name to look up, case is ignored
+     * @return the entries with exactly this name, scientific names first
+     */
+    public int[] findExact(String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        ensureSorted();
+        int first = lowerBound(key, false);
+        int last = lowerBound(key, true);
+        //Several taxa can have the same name, the scientific ones are the better match
+        int[] entries = new int[last - first];
+        int count = 0;
+        for (int entry = first; entry < last; entry++) {
+            if (scientific[entry]) {
+                entries[count++] = entry;
+            }
+        }
+        for (int entry = first; entry < last; entry++) {
+            if (!scientific[entry]) {
+                entries[count++] = entry;
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @param prefix start of the names, case is ignored
+     * @param limit  maximum number of entries to return
+     * @return the entries whose name starts with the prefix, in alphabetical order
+     */
+    public int[] findPrefix(String prefix, int limit) {
+        byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+        ensureSorted();
+        int first = lowerBound(key, false);
+        int last = first;
+        while (last < size && last - first < limit && startsWith(last, key)) {
+            last++;
+        }
+        int[] entries = new int[last - first];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = first + i;
+        }
+        return entries;
+    }
+
+    /**
+     * @param name a scientific name or a synonym, case is ignored
+     * @return the id of the taxon with this name, a taxon with this scientific name is preferred; -1 if there is none
+     */
+    public int findTaxonId(String name) {
+        int[] entries = findExact(name);
+        return entries.length == 0 ? -1 : taxonIds[entries[0]];
+    }
+
+    /**
+     * Reads a field of a sample file that holds either a taxon id or a taxon name
+     *
+     * @param field     a taxon id, or the name of a taxon if a name index is given
+     * @param nameIndex used to resolve names, or null if the files only contain ids
+     * @return the taxon id, -1 for unknown names
+     * @throws NumberFormatException if the field is neither an id nor a name that can be resolved
+     */
+    public static int parseTaxonId(String field, TaxonNameIndex nameIndex) throws NumberFormatException {
+        field = field.trim();
+        if (nameIndex != null && !field.isEmpty() && !Character.isDigit(field.charAt(0))) {
+            return nameIndex.findTaxonId(field);
+        }
+        return Integer.parseInt(field);
+    }
+
+    public String getNameAt(int entry) {
+        return new String(bytes, starts[entry], starts[entry + 1] - starts[entry], StandardCharsets.UTF_8);
+    }
+
+    public int getTaxonIdAt(int entry) {
+        return taxonIds[entry];
+    }
+
+    public boolean isScientificAt(int entry) {
+        return scientific[entry];
+    }
+
+    /**
+     * Sorts the entries by name and stores them in that order
+     */
+    private void ensureSorted() {
+        if (sorted) {
+            return;
+        }
+        synchronized (this) {
+            if (sorted) {
+                return;
+            }
+            int[] order = new int[size];
+            for (int entry = 0; entry < size; entry++) {
+                order[entry] = entry;
+            }
+            long[] keys = new long[size];
+            ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(() -> sort(order, keys, 0, size, 0)));
+
+            byte[] sortedBytes = new byte[byteCount];
+            int[] sortedStarts = new int[size + 1];
+            int[] sortedTaxonIds = new int[size];
+            boolean[] sortedScientific = new boolean[size];
+            int position = 0;
+            for (int i = 0; i < size; i++) {
+                int entry = order[i];
+                int length = starts[entry + 1] - starts[entry];
+                System.arraycopy(bytes, starts[entry], sortedBytes, position, length);
+                sortedStarts[i] = position;
+                sortedTaxonIds[i] = taxonIds[entry];
+                sortedScientific[i] = scientific[entry];
+                position += length;
+            }
+            sortedStarts[size] = position;
+            bytes = sortedBytes;
+            starts = sortedStarts;
+            taxonIds = sortedTaxonIds;
+            scientific = sortedScientific;
+            sorted = true;
+        }
+    }
+
+    /**
+     * Multikey quicksort of the entries in [from, to) whose names are equal in the first 8 * depth bytes: loads the
+     * next 8 bytes of every name into keys, which are swapped together with the entries
+     */
+    private void sort(int[] entries, long[] keys, int from, int to, int depth) {
+        for (int i = from; i < to; i++) {
+            keys[i] = chunkAt(entries[i], depth);
+        }
+        sortByChunk(entries, keys, from, to, depth);
+    }
+
+    /**
+     * Partitions by the keys and continues with the next 8 bytes for the entries that have the same key as the pivot
+     */
+    private void sortByChunk(int[] entries, long[] keys, int from, int to, int depth) {
+        if (to - from <= INSERTION_SORT_SIZE) {
+            for (int i = from + 1; i < to; i++) {
+                int entry = entries[i];
+                int j = i;
+                while (j > from && compareEntries(entries[j - 1], entry) > 0) {
+                    entries[j] = entries[j - 1];
+                    j--;
+                }
+                entries[j] = entry;
+            }
+            return;
+        }
+        long pivot = medianOfThree(keys[from], keys[(from + to) >>> 1], keys[to - 1]);
+        int less = from, greater = to - 1, i = from;
+        while (i <= greater) {
+            int comparison = Long.compareUnsigned(keys[i], pivot);
+            if (comparison < 0) {
+                swap(entries, keys, less++, i++);
+            } else if (comparison > 0) {
+                swap(entries, keys, i, greater--);
+            } else {
+                i++;
+            }
+        }
+        int lessTo = less, greaterFrom = greater + 1;
+        if (less - from > PARALLEL_SORT_SIZE || to - greaterFrom > PARALLEL_SORT_SIZE) {
+            ForkJoinTask.invokeAll(ForkJoinTask.adapt(() -> sortByChunk(entries, keys, from, lessTo, depth)),
+                    ForkJoinTask.adapt(() -> sortByChunk(entries, keys, greaterFrom, to, depth)));
+        } else {
+            sortByChunk(entries, keys, from, lessTo, depth);
+            sortByChunk(entries, keys, greaterFrom, to, depth);
+        }
+        if ((pivot & 0xff) == 0) {
+            //The names of the middle part ended within these 8 bytes, they are equal
+            sortByTaxonId(entries, less, greaterFrom);
+        } else {
+            sort(entries, keys, less, greaterFrom, depth + 1);
+        }
+    }
+
+    private void sortByTaxonId(int[] entries, int from, int to) {
+        long[] keys = new long[to - from];
+        for (int i = from; i < to; i++) {
+            keys[i - from] = ((long) taxonIds[entries[i]] << 32) | entries[i];
+        }
+        Arrays.sort(keys);
+        for (int i = from; i < to; i++) {
+            entries[i] = (int) keys[i - from];
+        }
+    }
+
+    /**
+     * @return bytes 8 * depth to 8 * depth + 7 of the name, case-folded and big endian, padded with zeros after the
+     * end of the name (names don't contain zero bytes, so shorter names come first)
+     */
+    private long chunkAt(int entry, int depth) {
+        int position = starts[entry] + 8 * depth;
+        int end = Math.min(starts[entry + 1], position + 8);
+        long chunk = 0;
+        for (int i = position; i < position + 8; i++) {
+            chunk = (chunk << 8) | (i < end ? lowerCase(bytes[i]) : 0);
+        }
+        return chunk;
+    }
+
+    private static long medianOfThree(long a, long b, long c) {
+        if (Long.compareUnsigned(a, b) > 0) {
+            long swap = a;
+            a = b;
+            b = swap;
+        }
+        //a <= b, the median is b unless c is smaller
+        if (Long.compareUnsigned(c, b) >= 0) {
+            return b;
+        }
+        return Long.compareUnsigned(c, a) > 0 ? c : a;
+    }
+
+    private static void swap(int[] entries, long[] keys, int i, int j) {
+        int entry = entries[i];
+        entries[i] = entries[j];
+        entries[j] = entry;
+        long key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+    }
+
+    /**
+     * Binary search for the first entry in name order that is not smaller than the key (or, if afterEqual is set,
+     * not smaller than or equal to the key)
+     */
+    private int lowerBound(byte[] key, boolean afterEqual) {
+        int low = 0, high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compareToKey(middle, key);
+            if (comparison < 0 || (afterEqual && comparison == 0)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int compareEntries(int entry, int otherEntry) {
+        int start = starts[entry], end = starts[entry + 1];
+        int otherStart = starts[otherEntry], otherEnd = starts[otherEntry + 1];
+        int comparison = compareBytes(bytes, start, end, bytes, otherStart, otherEnd);
+        return comparison != 0 ? comparison : Integer.compare(taxonIds[entry], taxonIds[otherEntry]);
+    }
+
+    private int compareToKey(int entry, byte[] key) {
+        return compareBytes(bytes, starts[entry], starts[entry + 1], key, 0, key.length);
+    }
+
+    private boolean startsWith(int entry, byte[] key) {
+        int start = starts[entry];
+        return starts[entry + 1] - start >= key.length
+                && compareBytes(bytes, start, start + key.length, key, 0, key.length) == 0;
+    }
+
+    /**
+     * Compares UTF-8 bytes, ASCII letters are compared case-insensitively
+     */
+    private static int compareBytes(byte[] a, int aStart, int aEnd, byte[] b, int bStart, int bEnd) {
+        int length = Math.min(aEnd - aStart, bEnd - bStart);
+        for (int i = 0; i < length; i++) {
+            int difference = lowerCase(a[aStart + i]) - lowerCase(b[bStart + i]);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return (aEnd - aStart) - (bEnd - bStart);
+    }
+
+    private static int lowerCase(byte b) {
+        int value = b & 0xff;
+        return value >= 'A' && value <= 'Z' ? value + ('a' - 'A') : value;
+    }
+}
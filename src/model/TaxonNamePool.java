@@ -0,0 +1,136 @@
+package model;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * <h1>Stores the scientific names of all nodes of a TaxonTree</h1>
+ * <p>
+ * Every name is stored as UTF-8 bytes behind a two byte length. An offset table maps the index of a node in the
+ * tree to the position of its name. Strings are only created when a name is actually requested.
+ * While the dmp files are parsed the pool lives on the heap. A pool loaded from a TreeSnapshot reads offsets and
+ * names directly from the memory-mapped snapshot file, so the names don't take any heap space at all.
+ * </p>
+ *
+ * @see TaxonTree
+ * @see treeParser.TreeSnapshot
+ */
+public class TaxonNamePool {
+    private IntBuffer offsets;
+    private ByteBuffer bytes;
+    private int length;
+
+    /**
+     * Creates an empty pool on the heap for the given number of nodes, names are added with {@link #setName}
+     *
+     * @param nodeCount number of nodes in the tree
+     */
+    public TaxonNamePool(int nodeCount) {
+        int[] offsetArray = new int[nodeCount];
+        Arrays.fill(offsetArray, -1);
+        this.offsets = IntBuffer.wrap(offsetArray);
+        this.bytes = ByteBuffer.wrap(new byte[Math.max(16, nodeCount * 16)]);
+    }
+
+    /**
+     * Creates a pool from an existing offset table and name bytes, e.g. slices of a memory-mapped snapshot
+     *
+     * @param offsets one offset per node, -1 if the node has no name
+     * @param bytes   the names, from position 0 to the limit
+     */
+    public TaxonNamePool(IntBuffer offsets, ByteBuffer bytes) {
+        this.offsets = offsets;
+        this.bytes = bytes;
+        this.length = bytes.limit();
+    }
+
+    /**
+     * Sets the name of a node, the name is given as UTF-8 bytes. Only possible for pools on the heap.
+     *
+     * @param index  index of the node in the tree
+     * @param source array containing the name
+     * @param start  start of the name in source
+     * @param count  number of bytes of the name
+     */
+    public void setName(int index, byte[] source, int start, int count) {
+        count = Math.min(count, 0xffff);
+        if (length + count + 2 > bytes.capacity()) {
+            int capacity = Math.max(length + count + 2, bytes.capacity() + bytes.capacity() / 2);
+            bytes = ByteBuffer.wrap(Arrays.copyOf(bytes.array(), capacity));
+        }
+        offsets.put(index, length);
+        bytes.put(length++, (byte) (count >>> 8));
+        bytes.put(length++, (byte) count);
+        for (int i = 0; i < count; i++) {
+            bytes.put(length++, source[start + i]);
+        }
+    }
+
+    /**
+     * Copies the name of a node of another pool without decoding it. Only possible for pools on the heap.
+     *
+     * @param index       index of the node in this pool
+     * @param source      pool to copy from
+     * @param sourceIndex index of the node in the source pool
+     */
+    public void copyName(int index, TaxonNamePool source, int sourceIndex) {
+        int offset = source.offsets.get(sourceIndex);
+        if (offset < 0) {
+            return;
+        }
+        int count = ((source.bytes.get(offset) & 0xff) << 8) | (source.bytes.get(offset + 1) & 0xff);
+        if (length + count + 2 > bytes.capacity()) {
+            int capacity = Math.max(length + count + 2, bytes.capacity() + bytes.capacity() / 2);
+            bytes = ByteBuffer.wrap(Arrays.copyOf(bytes.array(), capacity));
+        }
+        offsets.put(index, length);
+        for (int i = 0; i < count + 2; i++) {
+            bytes.put(length++, source.bytes.get(offset + i));
+        }
+    }
+
+    /**
+     * @param index index of the node in the tree
+     * @return the name of the node, or null if it doesn't have one
+     */
+    public String getName(int index) {
+        int offset = offsets.get(index);
+        if (offset < 0) {
+            return null;
+        }
+        int count = ((bytes.get(offset) & 0xff) << 8) | (bytes.get(offset + 1) & 0xff);
+        byte[] name = new byte[count];
+        for (int i = 0; i < count; i++) {
+            name[i] = bytes.get(offset + 2 + i);
+        }
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Drops unused capacity of a pool on the heap, should be called once all names have been added
+     */
+    public void trim() {
+        if (bytes.hasArray() && bytes.capacity() != length) {
+            bytes = ByteBuffer.wrap(Arrays.copyOf(bytes.array(), length));
+        }
+    }
+
+    /**
+     * @return the offset table, as a read-only view
+     */
+    public IntBuffer getOffsets() {
+        return offsets.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return the name bytes from position 0 to the limit, as a read-only view
+     */
+    public ByteBuffer getBytes() {
+        ByteBuffer view = bytes.asReadOnlyBuffer();
+        view.position(0);
+        view.limit(length);
+        return view;
+    }
+}
@@ -6,13 +6,19 @@ import java.util.ArrayList;
 /**
  * Created by jm on 15.05.17.
  * Represents a taxon in the phylogenetic tree
+ * Nodes of a TaxonTree are views on the arrays of the tree, they read everything from there and can't be changed.
+ * Nodes created with the public constructors stand alone and keep their own fields.
  */
 public class TaxonNode implements Serializable {
     private String name;
     private int taxonId, parentId;
     private String rank; //e.g. "kingdom", "species"
+    private byte rankCode; //see TaxonRank
     private TaxonNode parentNode;
     private ArrayList<TaxonNode> childNodeList;
+    //Set if this node is a view on a TaxonTree
+    private transient TaxonTree tree;
+    private transient int index = TaxonTree.NO_NODE;
 
     /**
      * Constructor for a Node added by the nodes.dmp-parser
@@ -23,6 +29,7 @@ public class TaxonNode implements Serializable {
     public TaxonNode(int taxonId, String rank, int parentId){
         this.taxonId = taxonId;
         this.rank = rank;
+        this.rankCode = TaxonRank.intern(rank);
         this.parentId = parentId;
         this.childNodeList = new ArrayList<>();
     }
@@ -38,15 +45,31 @@ public class TaxonNode implements Serializable {
         childNodeList.add(child);
     }
 
+    /**
+     * Constructor for the view on a node of a TaxonTree, only called by the tree
+     */
+    TaxonNode(TaxonTree tree, int index) {
+        this.tree = tree;
+        this.index = index;
+        this.taxonId = tree.getTaxonIdAt(index);
+    }
+
     /**
      * Checks whether a node doesn't have any children
      * @return
      */
     public boolean isLeaf(){
+        if (tree != null) {
+            return tree.getFirstChildIndexAt(index) == TaxonTree.NO_NODE;
+        }
         return childNodeList.isEmpty();
     }
 
     public String getName() {
+        //Names of tree nodes are only decoded when they're needed
+        if (name == null && tree != null) {
+            name = tree.getNameAt(index);
+        }
         return name;
     }
 
@@ -55,33 +78,80 @@ public class TaxonNode implements Serializable {
     }
 
     public void setName(String name) {
+        checkStandalone();
         this.name = name;
     }
 
     public String getRank() {
-        return rank;
+        return tree != null ? tree.getRankAt(index) : rank;
     }
     public void setRank(String rank) {
+        checkStandalone();
         this.rank = rank;
+        this.rankCode = TaxonRank.intern(rank);
+    }
+
+    /**
+     * @return the TaxonRank code of the rank, compare this instead of the rank String
+     */
+    public byte getRankCode() {
+        return tree != null ? tree.getRankCodeAt(index) : rankCode;
     }
 
     public model.TaxonNode getParentNode() {
+        if (tree != null) {
+            int parentIndex = tree.getParentIndexAt(index);
+            return parentIndex == TaxonTree.NO_NODE ? null : tree.getNodeAt(parentIndex);
+        }
         return parentNode;
     }
 
     public void setParentNode(model.TaxonNode parentNode) {
+        checkStandalone();
         this.parentNode = parentNode;
     }
 
+    /**
+     * For nodes of a TaxonTree, the list is created from the tree on first access. Changing it doesn't change the tree.
+     */
     public ArrayList<TaxonNode> getChildNodeList() {
+        if (childNodeList == null && tree != null) {
+            ArrayList<TaxonNode> children = new ArrayList<>();
+            for (int child = tree.getFirstChildIndexAt(index); child != TaxonTree.NO_NODE;
+                 child = tree.getNextSiblingIndexAt(child)) {
+                children.add(tree.getNodeAt(child));
+            }
+            childNodeList = children;
+        }
         return childNodeList;
     }
 
     public int getParentId() {
-        return parentId;
+        return tree != null ? tree.getParentIdAt(index) : parentId;
     }
 
     public void setParentId(int parentId) {
+        checkStandalone();
         this.parentId = parentId;
     }
+
+    /**
+     * @return the tree this node belongs to, or null for standalone nodes
+     */
+    public TaxonTree getTree() {
+        return tree;
+    }
+
+    /**
+     * @return the index of this node in its tree, or TaxonTree.NO_NODE for standalone nodes
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    private void checkStandalone() {
+        if (tree != null) {
+            throw new UnsupportedOperationException("Nodes of a TaxonTree can't be changed");
+        }
+    }
 }
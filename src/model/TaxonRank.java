@@ -0,0 +1,118 @@
+package model;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <h1>Interned table of all taxonomic ranks</h1>
+ * <p>
+ * Every rank that is parsed from nodes.dmp gets a byte code, so nodes only store that code and rank comparisons are
+ * integer comparisons. The ranks offered in the UI are registered first and have fixed codes, see the constants.
+ * Those ranks also have a canonical level (domain/superkingdom = 1 ... species = 8), all others have level 0.
+ * </p>
+ *
+ * @see TaxonTree
+ */
+public final class TaxonRank {
+    //Nodes without rank (parents that never appeared in nodes.dmp)
+    public static final byte NO_RANK = 0;
+    public static final byte SUPERKINGDOM = 1;
+    public static final byte DOMAIN = 2;
+    public static final byte KINGDOM = 3;
+    public static final byte PHYLUM = 4;
+    public static final byte CLASS = 5;
+    public static final byte ORDER = 6;
+    public static final byte FAMILY = 7;
+    public static final byte GENUS = 8;
+    public static final byte SPECIES = 9;
+    //Returned for ranks that no node has, it is never assigned
+    public static final byte UNKNOWN = (byte) 0xff;
+
+    //The canonical ranks have the codes 1 to CANONICAL_RANK_COUNT
+    public static final int CANONICAL_RANK_COUNT = 9;
+    private static final int[] LEVELS_BY_CODE = {0, 1, 1, 2, 3, 4, 5, 6, 7, 8};
+
+    //Rank names by code, replaced as a whole when a rank is added
+    private static volatile String[] names = {null, "superkingdom", "domain", "kingdom", "phylum", "class", "order",
+            "family", "genus", "species"};
+    private static final ConcurrentHashMap<String, Byte> codes = new ConcurrentHashMap<>();
+
+    static {
+        for (int code = 1; code < names.length; code++) {
+            codes.put(names[code], (byte) code);
+        }
+    }
+
+    private TaxonRank() {
+    }
+
+    /**
+     * Returns the code of a rank, the rank is added to the table if it's not there yet
+     *
+     * @param rank rank as written in nodes.dmp, e.g. "species"
+     * @return the code of the rank, NO_RANK for null
+     * @throws IllegalArgumentException if there are more ranks than codes
+     */
+    public static byte intern(String rank) throws IllegalArgumentException {
+        if (rank == null) {
+            return NO_RANK;
+        }
+        Byte code = codes.get(rank);
+        if (code != null) {
+            return code;
+        }
+        synchronized (TaxonRank.class) {
+            code = codes.get(rank);
+            if (code == null) {
+                if (names.length >= (UNKNOWN & 0xff)) {
+                    throw new IllegalArgumentException("Too many different ranks, can't add " + rank);
+                }
+                code = (byte) names.length;
+                String[] newNames = Arrays.copyOf(names, names.length + 1);
+                newNames[code & 0xff] = rank.intern();
+                names = newNames;
+                codes.put(newNames[code & 0xff], code);
+            }
+            return code;
+        }
+    }
+
+    /**
+     * Returns the code of a rank without adding it to the table
+     *
+     * @param rank rank as written in nodes.dmp, e.g. "species"
+     * @return the code of the rank, NO_RANK for null and UNKNOWN if no node has this rank
+     */
+    public static byte getCode(String rank) {
+        if (rank == null) {
+            return NO_RANK;
+        }
+        return codes.getOrDefault(rank, UNKNOWN);
+    }
+
+    /**
+     * @param code
+     * @return the name of the rank, null for NO_RANK and UNKNOWN
+     */
+    public static String getName(byte code) {
+        String[] currentNames = names;
+        int index = code & 0xff;
+        return index < currentNames.length ? currentNames[index] : null;
+    }
+
+    /**
+     * @param code
+     * @return 1 (domain) to 8 (species) for the canonical ranks, 0 for all others
+     */
+    public static int getCanonicalLevel(byte code) {
+        int index = code & 0xff;
+        return index < LEVELS_BY_CODE.length ? LEVELS_BY_CODE[index] : 0;
+    }
+
+    /**
+     * @return the names of all ranks by code, index 0 (NO_RANK) is null
+     */
+    public static String[] getNames() {
+        return names.clone();
+    }
+}
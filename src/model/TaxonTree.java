@@ -1,40 +1,291 @@
 package model;
 
 
+import java.nio.IntBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by julian on 15.05.17.
+ * <p>
+ * The tree is stored as parallel arrays instead of one object per taxon: every taxon gets a dense index, and
+ * parent, first child, next sibling and TaxonRank code are looked up by that index. Names are kept in a TaxonNamePool.
+ * getNodeForID and the other methods hand out TaxonNodes that are views on these arrays, they are created on demand
+ * and reused, so there is exactly one TaxonNode per taxon and tree.
+ * </p>
  */
 public class TaxonTree {
-    private TaxonNode root;
-    private HashMap<Integer, TaxonNode> treeStructure;
+    //Marks a missing parent, child or sibling
+    public static final int NO_NODE = -1;
+    //The id space is mapped with an int array unless the ids are very sparse
+    private static final int MAX_DENSE_ID_FACTOR = 16;
+
+    private int size;
+    private int rootIndex = NO_NODE;
+    private int[] taxonIds;
+    private int[] parentIndices, firstChildIndices, nextSiblingIndices;
+    private byte[] rankCodes;
+    private TaxonNamePool namePool;
+
+    //Dense remap of the taxon ids: idToIndex[taxonId] is the index of the taxon
+    private int[] idToIndex;
+    //Fallback for sparse ids: sorted ids and the corresponding indices
+    private int[] sortedIds, sortedIdIndices;
+    //Ids of merged taxa and the id they were merged into (see merged.dmp)
+    private final HashMap<Integer, Integer> redirects = new HashMap<>();
+    //Index of the merged taxa whose ids don't fit into idToIndex
+    private HashMap<Integer, Integer> redirectIndices;
+
+    //Preorder numbering: the subtree of a node covers the preorder numbers preorder[i] until subtreeEnd[i] (exclusive)
+    private int[] preorder, subtreeEnd, preorderToIndex;
+    //Nearest ancestor (or the node itself) with each canonical rank: entry index * CANONICAL_RANK_COUNT + code - 1
+    private IntBuffer rankAncestors;
+
+    //Built on first use, see getLcaIndex
+    private volatile LcaIndex lcaIndex;
+
+    //TaxonNodes handed out so far, by index
+    private final ConcurrentHashMap<Integer, TaxonNode> nodeViews = new ConcurrentHashMap<>();
 
     /**
-     * Constructor with root, probably not used anymore
+     * Constructor without parameters, for we don't have any in the beginning
+     */
+    public TaxonTree() {
+        this(new int[0], new int[0], new byte[0], 0);
+    }
+
+    /**
+     * Builds the tree from the rows of nodes.dmp.
+     * Siblings keep the order in which they appear in the rows. Parents that don't appear in the rows are added
+     * without rank and parent, the row whose id equals its parent id is the root.
      *
-     * @param root
+     * @param ids       taxon id of every row
+     * @param parentIds parent id of every row
+     * @param rowRanks  TaxonRank code of every row
+     * @param rowCount  number of rows used from the arrays
      */
-    public TaxonTree(TaxonNode root) {
-        this.treeStructure = new HashMap<>();
-        treeStructure.put(root.getTaxonId(), root);
-        setRoot(root);
+    public TaxonTree(int[] ids, int[] parentIds, byte[] rowRanks, int rowCount) {
+        //Placeholders for missing parents can at most double the number of nodes
+        int maxId = 0;
+        for (int i = 0; i < rowCount; i++) {
+            maxId = Math.max(maxId, Math.max(ids[i], parentIds[i]));
+        }
+        boolean dense = maxId < MAX_DENSE_ID_FACTOR * (long) rowCount + 1024;
+        HashMap<Integer, Integer> sparseIndices = dense ? null : new HashMap<>();
+        if (dense) {
+            idToIndex = new int[maxId + 1];
+            Arrays.fill(idToIndex, NO_NODE);
+        }
+
+        //Assign indices in row order, a repeated row overwrites the earlier one
+        taxonIds = new int[rowCount];
+        int[] parentIdOfIndex = new int[rowCount];
+        rankCodes = new byte[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            int index = dense ? idToIndex[ids[i]] : sparseIndices.getOrDefault(ids[i], NO_NODE);
+            if (index == NO_NODE) {
+                index = size++;
+                if (dense) {
+                    idToIndex[ids[i]] = index;
+                } else {
+                    sparseIndices.put(ids[i], index);
+                }
+            }
+            taxonIds[index] = ids[i];
+            parentIdOfIndex[index] = parentIds[i];
+            rankCodes[index] = rowRanks[i];
+        }
+
+        //Add the parents that never appeared as a row
+        int rowNodes = size;
+        for (int i = 0; i < rowNodes; i++) {
+            int parentId = parentIdOfIndex[i];
+            int parentIndex = dense ? idToIndex[parentId] : sparseIndices.getOrDefault(parentId, NO_NODE);
+            if (parentIndex == NO_NODE) {
+                if (size == taxonIds.length) {
+                    int capacity = Math.max(16, 2 * size);
+                    taxonIds = Arrays.copyOf(taxonIds, capacity);
+                    rankCodes = Arrays.copyOf(rankCodes, capacity);
+                }
+                taxonIds[size] = parentId;
+                if (dense) {
+                    idToIndex[parentId] = size;
+                } else {
+                    sparseIndices.put(parentId, size);
+                }
+                size++;
+            }
+        }
+        taxonIds = Arrays.copyOf(taxonIds, size);
+        rankCodes = Arrays.copyOf(rankCodes, size);
+
+        //Link every node to its parent, children are appended so they keep the row order
+        parentIndices = new int[size];
+        firstChildIndices = new int[size];
+        nextSiblingIndices = new int[size];
+        Arrays.fill(parentIndices, NO_NODE);
+        Arrays.fill(firstChildIndices, NO_NODE);
+        Arrays.fill(nextSiblingIndices, NO_NODE);
+        int[] lastChildIndices = new int[size];
+        for (int i = 0; i < rowNodes; i++) {
+            if (parentIdOfIndex[i] == taxonIds[i]) {
+                //The root is its own parent
+                rootIndex = i;
+                continue;
+            }
+            int parentIndex = dense ? idToIndex[parentIdOfIndex[i]] : sparseIndices.get(parentIdOfIndex[i]);
+            parentIndices[i] = parentIndex;
+            if (firstChildIndices[parentIndex] == NO_NODE) {
+                firstChildIndices[parentIndex] = i;
+            } else {
+                nextSiblingIndices[lastChildIndices[parentIndex]] = i;
+            }
+            lastChildIndices[parentIndex] = i;
+        }
+
+        if (!dense) {
+            createSparseIdIndex();
+        }
+        namePool = new TaxonNamePool(size);
+        computePreorder();
+        computeRankAncestors();
     }
 
     /**
-     * Constructor without parameters, for we don't have any in the beginning
+     * Creates a tree from its arrays, e.g. when it's loaded from a snapshot. The arrays are used, not copied.
+     * If rankAncestors is null, the table is computed.
      */
-    public TaxonTree() {
-        this.treeStructure = new HashMap<>();
+    public TaxonTree(int[] taxonIds, int[] parentIndices, int[] firstChildIndices, int[] nextSiblingIndices,
+                     byte[] rankCodes, TaxonNamePool namePool, IntBuffer rankAncestors, int rootIndex) {
+        this.size = taxonIds.length;
+        this.taxonIds = taxonIds;
+        this.parentIndices = parentIndices;
+        this.firstChildIndices = firstChildIndices;
+        this.nextSiblingIndices = nextSiblingIndices;
+        this.rankCodes = rankCodes;
+        this.namePool = namePool;
+        this.rootIndex = rootIndex;
+
+        int maxId = 0;
+        for (int taxonId : taxonIds) {
+            maxId = Math.max(maxId, taxonId);
+        }
+        if (maxId < MAX_DENSE_ID_FACTOR * (long) size + 1024) {
+            idToIndex = new int[maxId + 1];
+            Arrays.fill(idToIndex, NO_NODE);
+            for (int i = 0; i < size; i++) {
+                idToIndex[taxonIds[i]] = i;
+            }
+        } else {
+            createSparseIdIndex();
+        }
+        computePreorder();
+        if (rankAncestors == null) {
+            computeRankAncestors();
+        } else {
+            this.rankAncestors = rankAncestors;
+        }
+    }
+
+    private void createSparseIdIndex() {
+        long[] pairs = new long[size];
+        for (int i = 0; i < size; i++) {
+            pairs[i] = ((long) taxonIds[i] << 32) | i;
+        }
+        Arrays.sort(pairs);
+        sortedIds = new int[size];
+        sortedIdIndices = new int[size];
+        for (int i = 0; i < size; i++) {
+            sortedIds[i] = (int) (pairs[i] >>> 32);
+            sortedIdIndices[i] = (int) pairs[i];
+        }
+        idToIndex = null;
+    }
+
+    /**
+     * Numbers the nodes in preorder (depth first, children in list order), starting at the root.
+     * Nodes that can't be reached from the root (e.g. parents that never appeared in nodes.dmp) are numbered
+     * afterwards, together with their subtrees.
+     */
+    private void computePreorder() {
+        preorder = new int[size];
+        subtreeEnd = new int[size];
+        preorderToIndex = new int[size];
+        Arrays.fill(preorder, NO_NODE);
+        int counter = 0;
+        for (int i = -1; i < size; i++) {
+            int start = i == -1 ? rootIndex : i;
+            if (start == NO_NODE || preorder[start] != NO_NODE || parentIndices[start] != NO_NODE) {
+                continue;
+            }
+            int node = start;
+            while (node != NO_NODE) {
+                preorder[node] = counter;
+                preorderToIndex[counter++] = node;
+                if (firstChildIndices[node] != NO_NODE) {
+                    node = firstChildIndices[node];
+                    continue;
+                }
+                //Leave the finished subtrees until a node has a next sibling
+                while (true) {
+                    subtreeEnd[node] = counter;
+                    if (node == start) {
+                        node = NO_NODE;
+                        break;
+                    }
+                    if (nextSiblingIndices[node] != NO_NODE) {
+                        node = nextSiblingIndices[node];
+                        break;
+                    }
+                    node = parentIndices[node];
+                }
+            }
+        }
+        //Only nodes on a parent cycle are left, they can't be part of a proper subtree
+        for (int i = 0; i < size; i++) {
+            if (preorder[i] == NO_NODE) {
+                preorder[i] = counter;
+                preorderToIndex[counter++] = i;
+                subtreeEnd[i] = counter;
+            }
+        }
+    }
+
+    /**
+     * Fills the table of the nearest ancestor with every canonical rank. Parents come before their children in
+     * preorder, so every node only has to look at its own rank and its parent's entries.
+     */
+    private void computeRankAncestors() {
+        int ranks = TaxonRank.CANONICAL_RANK_COUNT;
+        int[] table = new int[size * ranks];
+        for (int preorderNumber = 0; preorderNumber < size; preorderNumber++) {
+            int index = preorderToIndex[preorderNumber];
+            int parentIndex = parentIndices[index];
+            for (int code = 1; code <= ranks; code++) {
+                int entry = index * ranks + code - 1;
+                if (rankCodes[index] == code) {
+                    table[entry] = index;
+                } else if (parentIndex == NO_NODE) {
+                    table[entry] = NO_NODE;
+                } else {
+                    table[entry] = table[parentIndex * ranks + code - 1];
+                }
+            }
+        }
+        rankAncestors = IntBuffer.wrap(table);
     }
 
     //GETTER
     public TaxonNode getRoot() {
-        return root;
+        return rootIndex == NO_NODE ? null : getNodeAt(rootIndex);
     }
 
-    public HashMap<Integer, TaxonNode> getTreeStructure() {
-        return treeStructure;
+    /**
+     * @return number of nodes in the tree
+     */
+    public int size() {
+        return size;
     }
 
     /**
@@ -45,33 +296,256 @@ public class TaxonTree {
      * @throws IllegalArgumentException - node id not found in tree
      */
     public TaxonNode getNodeForID(int nodeID) throws IllegalArgumentException {
-        if (treeStructure.containsKey(nodeID)) {
-            return treeStructure.get(nodeID);
+        int index = indexOf(nodeID);
+        if (index != NO_NODE) {
+            return getNodeAt(index);
         } else {
             throw new IllegalArgumentException("Node id " + nodeID + "was not found in tree");
         }
     }
 
+    /**
+     * Like getNodeForID, but returns null if the id is not in the tree
+     *
+     * @param nodeID - Node id string parsed from sample files
+     * @return returns taxon Node or null
+     */
+    public TaxonNode findNodeForID(int nodeID) {
+        int index = indexOf(nodeID);
+        return index == NO_NODE ? null : getNodeAt(index);
+    }
+
     /**
      * returns the ancestor of a node given a rank, only one not all!
+     * If there is no ancestor with this rank, the root is returned
      *
      * @param taxonNode
      * @param rank
      * @return
      */
     public TaxonNode getAncestorOfNode(TaxonNode taxonNode, String rank) {
-        int currentNodeId = taxonNode.getTaxonId();
-        TaxonNode currentNode = getNodeForID(currentNodeId);
-        while(currentNode != root && !currentNode.getRank().equals(rank)){
-            currentNodeId = currentNode.getParentId();
-            currentNode = getNodeForID(currentNodeId);
+        return getAncestorOfNode(taxonNode, TaxonRank.getCode(rank));
+    }
+
+    /**
+     * returns the ancestor of a node given a TaxonRank code, only one not all!
+     * If there is no ancestor with this rank, the root is returned
+     *
+     * @param taxonNode
+     * @param rankCode
+     * @return
+     */
+    public TaxonNode getAncestorOfNode(TaxonNode taxonNode, byte rankCode) {
+        int index = indexOf(taxonNode.getTaxonId());
+        if (index == NO_NODE) {
+            throw new IllegalArgumentException("Node id " + taxonNode.getTaxonId() + "was not found in tree");
+        }
+        int ancestorIndex = getAncestorIndexAt(index, rankCode);
+        return ancestorIndex == NO_NODE ? getRoot() : getNodeAt(ancestorIndex);
+    }
+
+    /**
+     * Returns the nearest node with the given rank on the path from a node up to the root (the node itself included).
+     * Canonical ranks are looked up in the ancestor table, other ranks are found by walking up the parents.
+     *
+     * @param index    index of the node
+     * @param rankCode TaxonRank code
+     * @return index of the ancestor, or NO_NODE if there is none
+     */
+    public int getAncestorIndexAt(int index, byte rankCode) {
+        if (rankCode > TaxonRank.NO_RANK && rankCode <= TaxonRank.CANONICAL_RANK_COUNT) {
+            return rankAncestors.get(index * TaxonRank.CANONICAL_RANK_COUNT + rankCode - 1);
+        }
+        if (rankCode == TaxonRank.UNKNOWN) {
+            return NO_NODE;
+        }
+        while (index != NO_NODE && rankCodes[index] != rankCode) {
+            index = parentIndices[index];
+        }
+        return index;
+    }
+
+    //INDEX LEVEL ACCESS, used by the TaxonNode views and everything that walks the whole tree
+
+    /**
+     * @param taxonId
+     * @return the index of the taxon, or NO_NODE if it isn't in the tree
+     */
+    public int indexOf(int taxonId) {
+        int index;
+        if (idToIndex != null) {
+            index = taxonId >= 0 && taxonId < idToIndex.length ? idToIndex[taxonId] : NO_NODE;
+        } else {
+            int position = Arrays.binarySearch(sortedIds, taxonId);
+            index = position < 0 ? NO_NODE : sortedIdIndices[position];
+        }
+        if (index == NO_NODE && redirectIndices != null) {
+            index = redirectIndices.getOrDefault(taxonId, NO_NODE);
         }
-        return getNodeForID(currentNodeId);
+        return index;
     }
 
-    //SETTER
-    public void setRoot(TaxonNode root) {
-        this.root = root;
+    /**
+     * Lets the id of a merged taxon point to the taxon it was merged into, so getNodeForID(fromId) returns the node
+     * of toId. Redirected ids are resolved by the same table as all other ids.
+     * toId may itself be a redirected id, ids that are still in the tree can't be redirected.
+     *
+     * @param fromId id of the merged taxon
+     * @param toId   id of the taxon it was merged into
+     * @return false if fromId is still in the tree or toId isn't
+     */
+    public boolean addRedirect(int fromId, int toId) {
+        int targetIndex = indexOf(toId);
+        int index = indexOf(fromId);
+        if (fromId < 0 || targetIndex == NO_NODE || (index != NO_NODE && taxonIds[index] == fromId)) {
+            return false;
+        }
+        redirects.put(fromId, taxonIds[targetIndex]);
+        if (idToIndex != null && fromId < idToIndex.length) {
+            idToIndex[fromId] = targetIndex;
+        } else {
+            if (redirectIndices == null) {
+                redirectIndices = new HashMap<>();
+            }
+            redirectIndices.put(fromId, targetIndex);
+        }
+        return true;
     }
 
+    /**
+     * @return the (shared) TaxonNode for an index
+     */
+    public TaxonNode getNodeAt(int index) {
+        return nodeViews.computeIfAbsent(index, i -> new TaxonNode(this, i));
+    }
+
+    public int getRootIndex() {
+        return rootIndex;
+    }
+
+    public int getTaxonIdAt(int index) {
+        return taxonIds[index];
+    }
+
+    public int getParentIndexAt(int index) {
+        return parentIndices[index];
+    }
+
+    public int getFirstChildIndexAt(int index) {
+        return firstChildIndices[index];
+    }
+
+    public int getNextSiblingIndexAt(int index) {
+        return nextSiblingIndices[index];
+    }
+
+    /**
+     * @return the preorder number of a node, the nodes of its subtree have the numbers from here to getSubtreeEndAt
+     */
+    public int getPreorderAt(int index) {
+        return preorder[index];
+    }
+
+    /**
+     * @return the first preorder number after the subtree of a node
+     */
+    public int getSubtreeEndAt(int index) {
+        return subtreeEnd[index];
+    }
+
+    public int getIndexAtPreorder(int preorderNumber) {
+        return preorderToIndex[preorderNumber];
+    }
+
+    /**
+     * Checks whether a node is a (proper) ancestor of another one, using the preorder numbering
+     *
+     * @param ancestor
+     * @param taxonNode
+     * @return true if taxonNode lies in the subtree of ancestor and isn't ancestor itself
+     */
+    public boolean isAncestor(TaxonNode ancestor, TaxonNode taxonNode) {
+        int ancestorIndex = indexOf(ancestor.getTaxonId());
+        int nodeIndex = indexOf(taxonNode.getTaxonId());
+        if (ancestorIndex == NO_NODE || nodeIndex == NO_NODE) {
+            return false;
+        }
+        int nodePreorder = preorder[nodeIndex];
+        return preorder[ancestorIndex] < nodePreorder && nodePreorder < subtreeEnd[ancestorIndex];
+    }
+
+    /**
+     * @return the index for lowest common ancestor queries, it's built on the first call
+     */
+    public LcaIndex getLcaIndex() {
+        LcaIndex index = lcaIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = lcaIndex;
+                if (index == null) {
+                    index = new LcaIndex(this);
+                    lcaIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return the lowest common ancestor of two nodes (a node counts as its own ancestor), null if there is none
+     */
+    public TaxonNode getLowestCommonAncestor(TaxonNode taxonNode, TaxonNode otherNode) {
+        int index = getLcaIndex().lca(indexOf(taxonNode.getTaxonId()), indexOf(otherNode.getTaxonId()));
+        return index == NO_NODE ? null : getNodeAt(index);
+    }
+
+    public byte getRankCodeAt(int index) {
+        return rankCodes[index];
+    }
+
+    public String getRankAt(int index) {
+        return TaxonRank.getName(rankCodes[index]);
+    }
+
+    public String getNameAt(int index) {
+        return namePool.getName(index);
+    }
+
+    /**
+     * The id of the parent as given in nodes.dmp: the root is its own parent, nodes without parent return 0
+     */
+    public int getParentIdAt(int index) {
+        if (index == rootIndex) {
+            return taxonIds[index];
+        }
+        return parentIndices[index] == NO_NODE ? 0 : taxonIds[parentIndices[index]];
+    }
+
+    /**
+     * @return the ancestor table, as a read-only view (see getAncestorIndexAt)
+     */
+    public IntBuffer getRankAncestors() {
+        return rankAncestors.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return the ids of all merged taxa and the id of the taxon each one was merged into
+     */
+    public HashMap<Integer, Integer> getRedirects() {
+        return new HashMap<>(redirects);
+    }
+
+    public TaxonNamePool getNamePool() {
+        return namePool;
+    }
+
+    /**
+     * Sets the scientific name of a taxon, given as UTF-8 bytes. Ids that aren't in the tree are ignored.
+     */
+    public void setName(int taxonId, byte[] source, int start, int count) {
+        int index = indexOf(taxonId);
+        if (index != NO_NODE) {
+            namePool.setName(index, source, start, count);
+        }
+    }
 }
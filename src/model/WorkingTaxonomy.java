@@ -0,0 +1,291 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * <h1>The part of the TaxonTree that is actually used by a set of samples</h1>
+ * <p>
+ * Contains every taxon observed in one of the samples plus all of its ancestors. Samples can be added and removed
+ * at any time, the taxonomy keeps a count of observations below every member and drops members whose count reaches
+ * zero. The members are numbered in preorder (of the full tree), so the subtree of a member is a contiguous range of
+ * positions. Recursive counts of a sample are sums over such a range, see {@link Sample#getTaxonCountRecursive}.
+ * </p>
+ * <p>
+ * LoadedData owns the taxonomy of all loaded samples. Samples that were not added to any taxonomy get their own one.
+ * </p>
+ *
+ * @see LoadedData
+ */
+public class WorkingTaxonomy {
+    //Positions are looked up in a table by tree index once at least one in this many taxa of the tree is a member
+    private static final int DENSE_POSITIONS_RATIO = 16;
+
+    private TaxonTree tree;
+    //Number of observed taxa in the subtree of every member, by index in the tree
+    private final HashMap<Integer, Integer> coverage = new HashMap<>();
+    //The taxa every sample added, and the version of its counts they were taken from
+    private final HashMap<Sample, Registration> registrations = new HashMap<>();
+
+    //Positions of the members, replaced by a new layout after changes
+    private volatile Layout layout = new Layout(null, new int[0], new int[0], null, new int[0], 0);
+    private volatile boolean changed;
+
+    /**
+     * Adds the taxa of a sample (and their ancestors) to the taxonomy.
+     * The tree of the taxonomy is the tree of the first taxon added, taxa of other trees are ignored.
+     *
+     * @param sample
+     */
+    public synchronized void addSample(Sample sample) {
+        if (registrations.containsKey(sample)) {
+            removeSample(sample);
+        }
+        Registration registration = new Registration();
+        registration.countsVersion = sample.getCountsVersion();
+        TaxonCountMap counts = sample.getCountMap();
+        if (tree == null) {
+            tree = counts.getTree();
+        }
+        //The counts keep the taxa of their tree as sorted indices
+        registration.taxa = tree != null && counts.getTree() == tree ? counts.getIndices() : new int[0];
+        for (int index : registration.taxa) {
+            for (int node = index; node != TaxonTree.NO_NODE; node = tree.getParentIndexAt(node)) {
+                if (coverage.merge(node, 1, Integer::sum) == 1) {
+                    changed = true;
+                }
+            }
+        }
+        registrations.put(sample, registration);
+        sample.setWorkingTaxonomy(this);
+    }
+
+    /**
+     * Removes the taxa of a sample, members that are no longer needed by another sample are dropped
+     *
+     * @param sample
+     */
+    public synchronized void removeSample(Sample sample) {
+        Registration registration = registrations.remove(sample);
+        if (registration == null) {
+            return;
+        }
+        for (int index : registration.taxa) {
+            for (int node = index; node != TaxonTree.NO_NODE; node = tree.getParentIndexAt(node)) {
+                if (coverage.merge(node, -1, Integer::sum) == 0) {
+                    coverage.remove(node);
+                    changed = true;
+                }
+            }
+        }
+        if (sample.getWorkingTaxonomy() == this) {
+            sample.setWorkingTaxonomy(null);
+        }
+        //Without samples the taxonomy may be used with another tree
+        if (registrations.isEmpty()) {
+            tree = null;
+        }
+    }
+
+    /**
+     * Removes all samples
+     */
+    public synchronized void clear() {
+        for (Sample sample : new ArrayList<>(registrations.keySet())) {
+            removeSample(sample);
+        }
+    }
+
+    /**
+     * Adds the sample again if its counts changed since it was added (e.g. because it was filtered)
+     *
+     * @param sample
+     */
+    synchronized void update(Sample sample) {
+        Registration registration = registrations.get(sample);
+        if (registration == null || registration.countsVersion != sample.getCountsVersion()) {
+            addSample(sample);
+        }
+    }
+
+    /**
+     * Numbers the members in preorder and computes the end of every subtree
+     */
+    private void rebuild() {
+        int[] preorders = new int[coverage.size()];
+        int[] order, subtreeEnds;
+        long[] members = new long[coverage.size()];
+        int i = 0;
+        for (int index : coverage.keySet()) {
+            members[i++] = ((long) tree.getPreorderAt(index) << 32) | index;
+        }
+        Arrays.sort(members);
+        order = new int[members.length];
+        for (i = 0; i < members.length; i++) {
+            preorders[i] = (int) (members[i] >>> 32);
+            order[i] = (int) members[i];
+        }
+        subtreeEnds = new int[members.length];
+        for (i = 0; i < members.length; i++) {
+            int end = Arrays.binarySearch(preorders, tree.getSubtreeEndAt(order[i]));
+            subtreeEnds[i] = end < 0 ? -end - 1 : end;
+        }
+        //A table over the whole tree is faster to look up, it's used once it isn't mostly empty
+        int[] positions = null;
+        if (members.length >= tree.size() / DENSE_POSITIONS_RATIO) {
+            positions = new int[tree.size()];
+            Arrays.fill(positions, -1);
+            for (i = 0; i < order.length; i++) {
+                positions[order[i]] = i;
+            }
+        }
+        layout = new Layout(tree, order, preorders, positions, subtreeEnds, layout.version + 1);
+        changed = false;
+    }
+
+    private void rebuildIfChanged() {
+        if (changed) {
+            rebuild();
+        }
+    }
+
+    //GETTER
+    public synchronized TaxonTree getTree() {
+        return tree;
+    }
+
+    /**
+     * @return number of taxa in the taxonomy
+     */
+    public synchronized int size() {
+        return coverage.size();
+    }
+
+    public synchronized boolean contains(TaxonNode taxonNode) {
+        return taxonNode.getTree() == tree && tree != null && coverage.containsKey(taxonNode.getIndex());
+    }
+
+    /**
+     * @return all taxa of the taxonomy in preorder
+     */
+    public synchronized ArrayList<TaxonNode> getNodes() {
+        rebuildIfChanged();
+        ArrayList<TaxonNode> nodes = new ArrayList<>(layout.order.length);
+        for (int index : layout.order) {
+            nodes.add(tree.getNodeAt(index));
+        }
+        return nodes;
+    }
+
+    /**
+     * @return the children of a taxon that are part of the taxonomy
+     */
+    public synchronized ArrayList<TaxonNode> getChildNodeList(TaxonNode taxonNode) {
+        ArrayList<TaxonNode> children = new ArrayList<>();
+        int position = getPosition(taxonNode);
+        if (position < 0) {
+            return children;
+        }
+        //The children follow their parent, each one followed by its own subtree
+        int[] subtreeEnds = layout.subtreeEnds;
+        for (int child = position + 1; child < subtreeEnds[position]; child = subtreeEnds[child]) {
+            children.add(tree.getNodeAt(layout.order[child]));
+        }
+        return children;
+    }
+
+    /**
+     * @return the position of a taxon in the preorder of the members, -1 if it isn't a member
+     */
+    synchronized int getPosition(TaxonNode taxonNode) {
+        if (taxonNode.getTree() != tree || tree == null) {
+            return -1;
+        }
+        rebuildIfChanged();
+        return layout.getPosition(taxonNode);
+    }
+
+    /**
+     * @return the current positions of the members
+     */
+    synchronized Layout getLayout() {
+        rebuildIfChanged();
+        return layout;
+    }
+
+    /**
+     * Checks without locking whether a layout is still the current one, e.g. for cached values by position
+     *
+     * @return false if the taxonomy changed since the layout was taken
+     */
+    boolean isCurrent(Layout cachedLayout) {
+        return !changed && cachedLayout == layout;
+    }
+
+    /**
+     * The positions of the members at one version of the taxonomy, never changed once created
+     */
+    static class Layout {
+        private final TaxonTree tree;
+        //Members in preorder, their preorder numbers in the tree and the end of their subtrees
+        private final int[] order;
+        private final int[] preorders;
+        private final int[] subtreeEnds;
+        //Position by index in the tree, null for small taxonomies
+        private final int[] positions;
+        private final int version;
+
+        private Layout(TaxonTree tree, int[] order, int[] preorders, int[] positions, int[] subtreeEnds,
+                       int version) {
+            this.tree = tree;
+            this.order = order;
+            this.preorders = preorders;
+            this.positions = positions;
+            this.subtreeEnds = subtreeEnds;
+            this.version = version;
+        }
+
+        TaxonTree getTree() {
+            return tree;
+        }
+
+        int size() {
+            return order.length;
+        }
+
+        /**
+         * @return the position of a taxon, -1 if it isn't a member
+         */
+        int getPosition(TaxonNode taxonNode) {
+            if (tree == null || taxonNode.getTree() != tree) {
+                return -1;
+            }
+            return getPositionAt(taxonNode.getIndex());
+        }
+
+        /**
+         * @return the position of the taxon with the index in the tree, -1 if it isn't a member
+         */
+        int getPositionAt(int index) {
+            if (positions != null) {
+                return positions[index];
+            }
+            //The positions are sorted by preorder number
+            int position = Arrays.binarySearch(preorders, tree.getPreorderAt(index));
+            return position < 0 ? -1 : position;
+        }
+
+        int getSubtreeEnd(int position) {
+            return subtreeEnds[position];
+        }
+    }
+
+    /**
+     * The taxa a sample added to the taxonomy
+     */
+    private static class Registration {
+        private int countsVersion;
+        private int[] taxa;
+    }
+}
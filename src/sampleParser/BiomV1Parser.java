@@ -8,10 +8,12 @@ import model.TaxonTree;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
 
 import java.io.*;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 
 /**
  * <h1>The class implements the parser for BiomV1 files</h1>
@@ -107,7 +109,7 @@ public class BiomV1Parser implements InputFile {
                         int id = Integer.parseInt(currentRow.get("id").toString());
                         try{
                             // Add observation to sample if taxonomy is found in tree
-                            currentTaxCount.put(taxonTree.getNodeForID(id), count);
+                            currentTaxCount.merge(taxonTree.getNodeForID(id), count, Integer::sum);
                         } catch (IllegalArgumentException e) {
                             System.out.println("Taxonomy identifier " + id + " was not found in the tree");
                             System.out.println(e.getMessage());
@@ -125,4 +127,16 @@ public class BiomV1Parser implements InputFile {
         return sampleList;
     }
 
+    @Override
+    public HashSet<Integer> scanTaxonIds(String filepath) throws IOException, ParseException {
+        HashSet<Integer> taxonIds = new HashSet<>();
+        try (FileReader reader = new FileReader(filepath)) {
+            JSONObject obj = (JSONObject) new JSONParser().parse(reader);
+            for (Object row : (JSONArray) obj.get("rows")) {
+                taxonIds.add(Integer.parseInt(((JSONObject) row).get("id").toString()));
+            }
+        }
+        return taxonIds;
+    }
+
 }
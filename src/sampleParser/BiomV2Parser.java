@@ -9,6 +9,7 @@ import model.TaxonTree;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 
 /**
  * <h1>The class implements the parser for BiomV2 files</h1>
@@ -32,6 +33,20 @@ public class BiomV2Parser implements InputFile{
         this.taxonTree = taxonTree;
     }
 
+    @Override
+    public HashSet<Integer> scanTaxonIds(String filepath) throws IOException {
+        HashSet<Integer> taxonIds = new HashSet<>();
+        IHDF5SimpleReader reader = HDF5Factory.openForReading(filepath);
+        try {
+            for (String observationId : reader.readStringArray("/observation/ids")) {
+                taxonIds.add(Integer.parseInt(observationId));
+            }
+        } finally {
+            reader.close();
+        }
+        return taxonIds;
+    }
+
     @Override
     public ArrayList<Sample> parse(String filepath) throws IOException{
         ArrayList<Sample> sampleList = new ArrayList<>();
@@ -55,7 +70,7 @@ public class BiomV2Parser implements InputFile{
             // Add counts to this sample
             for (int j = indptr[i]; j < indptr[i+1]; j++) {
                 TaxonNode node = taxonTree.getNodeForID(Integer.parseInt(observationIds[indices[j]]));
-                newSample.getTaxa2CountMap().put(node, Math.round(data[j]));
+                newSample.addTaxonCount(node, Math.round((double) data[j]));
             }
 
             // Loop over Metadata-Entries
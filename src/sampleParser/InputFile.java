@@ -5,12 +5,15 @@ import org.json.simple.parser.ParseException;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 
 /**
  * <h1>This is an interfance for the input file parsers</h1>
  * <p>
  * The class is dependant on a TaxonTree to be available!
  * When done parsing the file a list of samples is returned.
+ * The taxon ids of a file can be collected without a TaxonTree, e.g. to parse only the part of the tree that the
+ * files need (see TreeParser.parsePartialTree).
  * </p>
  *
  * @see BiomV1Parser
@@ -20,4 +23,12 @@ import java.util.ArrayList;
  */
 public interface InputFile {
     ArrayList<Sample> parse(String filepath) throws IOException, ParseException;
+
+    /**
+     * Collects the taxon ids used in a file without looking them up in the tree
+     *
+     * @param filepath the file to scan
+     * @return all taxon ids of the file
+     */
+    HashSet<Integer> scanTaxonIds(String filepath) throws IOException, ParseException;
 }
@@ -1,6 +1,8 @@
 package sampleParser;
 
+import model.LcaIndex;
 import model.Sample;
+import model.TaxonNameIndex;
 import model.TaxonNode;
 import model.TaxonTree;
 
@@ -8,7 +10,8 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.stream.IntStream;
 
 /**
  * <h1>The class implements the parser for ReadName2ID files</h1>
@@ -16,6 +19,12 @@ import java.util.HashMap;
  * The class is dependant on a TaxonTree to be available!
  * When done parsing the file a list of samples is returned.
  * </p>
+ * <p>
+ * In multi-hit mode every line may list several candidate taxon ids after the read name (readName,id1,id2,...).
+ * The read is then assigned to the lowest common ancestor of its candidates. Lines are read in batches and the
+ * ancestors of a batch are computed in parallel.
+ * With a TaxonNameIndex taxon names may be used instead of ids.
+ * </p>
  *
  * @see treeParser.TreeParser
  * @see Sample
@@ -23,12 +32,41 @@ import java.util.HashMap;
 public class ReadName2TaxIdCSVParser implements InputFile {
     private ArrayList<Sample> sampleList;
     private TaxonTree taxonTree;
+    private boolean multiHit;
+    private TaxonNameIndex nameIndex;
+
+    //Number of lines that are assigned in parallel at once in multi-hit mode
+    private static final int BATCH_SIZE = 1 << 16;
 
     public ReadName2TaxIdCSVParser(TaxonTree taxonTree) {
+        this(taxonTree, false);
+    }
+
+    /**
+     * @param taxonTree the tree the taxon ids are looked up in
+     * @param multiHit  whether lines may contain several taxon ids per read
+     */
+    public ReadName2TaxIdCSVParser(TaxonTree taxonTree, boolean multiHit) {
         this.taxonTree = taxonTree;
+        this.multiHit = multiHit;
         sampleList = new ArrayList<>();
     }
 
+    public boolean isMultiHit() {
+        return multiHit;
+    }
+
+    public void setMultiHit(boolean multiHit) {
+        this.multiHit = multiHit;
+    }
+
+    /**
+     * @param nameIndex used to resolve taxon names in place of ids, names can't be read without it
+     */
+    public void setNameIndex(TaxonNameIndex nameIndex) {
+        this.nameIndex = nameIndex;
+    }
+
     /**
      *
      * @param filepath
@@ -37,8 +75,9 @@ public class ReadName2TaxIdCSVParser implements InputFile {
      */
     @Override
     public ArrayList<Sample> parse(String filepath) throws IOException {
-        //Get Mapping of IDs to TaxonNodes from the TaxonTree
-        HashMap<Integer, TaxonNode> treeStructure = taxonTree.getTreeStructure();
+        if (multiHit) {
+            return parseMultiHit(filepath);
+        }
         //Initialize the object to be returned
         sampleList = new ArrayList<>();
         //This file format can only contain a single sample, so the list will contain only one element
@@ -49,22 +88,15 @@ public class ReadName2TaxIdCSVParser implements InputFile {
         int currentTaxonId;
         while (line != null) {
             lineSplit = line.split(",");
-            currentTaxonId = Integer.parseInt(lineSplit[1]);
+            currentTaxonId = TaxonNameIndex.parseTaxonId(lineSplit[1], nameIndex);
             //Get the TaxonNode for this sample
-            TaxonNode currentTaxonNode = treeStructure.get(currentTaxonId);
+            TaxonNode currentTaxonNode = taxonTree.findNodeForID(currentTaxonId);
 
             if (currentTaxonNode == null) {
                 System.out.println("Couldn't find node:" + currentTaxonId);
             } else {
-                //Check if this taxon is already in the sample
-                HashMap<TaxonNode, Integer> taxa2CountMap = sample.getTaxa2CountMap();
-                if (taxa2CountMap.containsKey(currentTaxonNode)) {
-                    //Increment the count of this taxon in the sample by one
-                    taxa2CountMap.put(currentTaxonNode, taxa2CountMap.get(currentTaxonNode) + 1);
-                } else {
-                    //Else add the taxon to the sample and set its count to one
-                    taxa2CountMap.put(currentTaxonNode, 1);
-                }
+                //Increment the count of this taxon in the sample by one, it's added if it isn't in the sample yet
+                sample.addTaxonCount(currentTaxonNode, 1);
             }
             line = reader.readLine();
         }
@@ -75,4 +107,92 @@ public class ReadName2TaxIdCSVParser implements InputFile {
         }
         return sampleList;
     }
+
+    /**
+     * Assigns every read to the lowest common ancestor of its taxon ids. Ids that are not in the tree are ignored,
+     * reads without any known id are skipped.
+     *
+     * @param filepath
+     * @return a list with the single sample of the file, empty if no read could be assigned
+     * @throws IOException
+     */
+    private ArrayList<Sample> parseMultiHit(String filepath) throws IOException {
+        sampleList = new ArrayList<>();
+        LcaIndex lcaIndex = taxonTree.getLcaIndex();
+        //Reads per node index, counted over all batches
+        int[] counts = new int[taxonTree.size()];
+        int skippedReads = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(filepath))) {
+            String[] lines = new String[BATCH_SIZE];
+            int[] assignments = new int[BATCH_SIZE];
+            int lineCount;
+            do {
+                lineCount = 0;
+                String line;
+                while (lineCount < BATCH_SIZE && (line = reader.readLine()) != null) {
+                    lines[lineCount++] = line;
+                }
+                //Parsing the ids and folding their ancestor is independent for each line
+                IntStream.range(0, lineCount).parallel()
+                        .forEach(i -> assignments[i] = assignRead(lines[i], lcaIndex));
+                for (int i = 0; i < lineCount; i++) {
+                    if (assignments[i] == TaxonTree.NO_NODE) {
+                        skippedReads++;
+                    } else {
+                        counts[assignments[i]]++;
+                    }
+                }
+            } while (lineCount == BATCH_SIZE);
+        }
+        if (skippedReads > 0) {
+            System.out.println("Couldn't assign " + skippedReads + " reads");
+        }
+
+        Sample sample = new Sample();
+        for (int index = 0; index < counts.length; index++) {
+            if (counts[index] > 0) {
+                sample.addTaxonCount(taxonTree.getNodeAt(index), counts[index]);
+            }
+        }
+        //Only add sample if it's not empty
+        if (sample.getTaxa2CountMap().size() > 0) {
+            sampleList.add(sample);
+        }
+        return sampleList;
+    }
+
+    /**
+     * @return index of the lowest common ancestor of the ids in the line, NO_NODE if there is none
+     */
+    private int assignRead(String line, LcaIndex lcaIndex) {
+        String[] lineSplit = line.split(",");
+        int[] indices = new int[lineSplit.length - 1];
+        for (int column = 1; column < lineSplit.length; column++) {
+            String taxonId = lineSplit[column].trim();
+            indices[column - 1] = taxonId.isEmpty() ? TaxonTree.NO_NODE
+                    : taxonTree.indexOf(TaxonNameIndex.parseTaxonId(taxonId, nameIndex));
+        }
+        return lcaIndex.lca(indices, 0, indices.length);
+    }
+
+    @Override
+    public HashSet<Integer> scanTaxonIds(String filepath) throws IOException {
+        HashSet<Integer> taxonIds = new HashSet<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(filepath))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] lineSplit = line.split(",");
+                //In multi-hit mode all candidates are needed to find their common ancestor
+                int lastColumn = multiHit ? lineSplit.length - 1 : 1;
+                for (int column = 1; column <= lastColumn; column++) {
+                    String field = lineSplit[column].trim();
+                    //Names can only be resolved once the tree is there
+                    if (!field.isEmpty() && (nameIndex == null || Character.isDigit(field.charAt(0)))) {
+                        taxonIds.add(Integer.parseInt(field));
+                    }
+                }
+            }
+        }
+        return taxonIds;
+    }
 }
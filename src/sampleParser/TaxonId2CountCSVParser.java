@@ -1,6 +1,7 @@
 package sampleParser;
 
 import model.Sample;
+import model.TaxonNameIndex;
 import model.TaxonNode;
 import model.TaxonTree;
 
@@ -8,13 +9,14 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
 
 /**
  * <h1>The class implements the parser for TaxonID2count files</h1>
  * <p>
  * The class is dependant on a TaxonTree to be available!
  * When done parsing the file a list of samples is returned.
+ * With a TaxonNameIndex the first column may contain taxon names instead of ids.
  * </p>
  *
  * @see treeParser.TreeParser
@@ -23,12 +25,20 @@ import java.util.HashMap;
 public class TaxonId2CountCSVParser implements InputFile {
     private ArrayList<Sample> sampleList;
     private TaxonTree taxonTree;
+    private TaxonNameIndex nameIndex;
 
     public TaxonId2CountCSVParser(TaxonTree taxonTree) {
         this.taxonTree = taxonTree;
         this.sampleList = new ArrayList<>();
     }
 
+    /**
+     * @param nameIndex used to resolve taxon names in place of ids, names can't be read without it
+     */
+    public void setNameIndex(TaxonNameIndex nameIndex) {
+        this.nameIndex = nameIndex;
+    }
+
     //So far, every column is read and the corresponding number of sample objects is created.
     @Override
     public ArrayList<Sample> parse(String filepath) throws IOException {
@@ -41,21 +51,19 @@ public class TaxonId2CountCSVParser implements InputFile {
             sampleList.add(new Sample());
         }
 
-        //Get mapping of IDs to TaxonNodes from the TaxonTree
-        HashMap<Integer, TaxonNode> treeStructure = taxonTree.getTreeStructure();
-
         while (line != null) {
             lineSplit = line.split(",");
-            int currentTaxonId = Integer.parseInt(lineSplit[0]);
+            int currentTaxonId = TaxonNameIndex.parseTaxonId(lineSplit[0], nameIndex);
 
-            TaxonNode currentTaxonNode = treeStructure.get(currentTaxonId);
+            TaxonNode currentTaxonNode = taxonTree.findNodeForID(currentTaxonId);
             if (currentTaxonNode == null) {
                 System.out.println("Couldn't find node:" + currentTaxonId);
             } else {
                 //Add counts to datasets
                 for (int i = 1; i <= numberOfDatasets; i++) {
-                    int currentSampleReadCount = (int) Double.parseDouble(lineSplit[i]);
-                    sampleList.get(i - 1).getTaxa2CountMap().put(currentTaxonNode, currentSampleReadCount);
+                    long currentSampleReadCount = (long) Double.parseDouble(lineSplit[i]);
+                    //Merged ids point to the same node, their counts are added up
+                    sampleList.get(i - 1).addTaxonCount(currentTaxonNode, currentSampleReadCount);
                 }
             }
             line = reader.readLine();
@@ -63,4 +71,21 @@ public class TaxonId2CountCSVParser implements InputFile {
 
         return sampleList;
     }
+
+    @Override
+    public HashSet<Integer> scanTaxonIds(String filepath) throws IOException {
+        HashSet<Integer> taxonIds = new HashSet<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(filepath))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf(',');
+                String field = (separator < 0 ? line : line.substring(0, separator)).trim();
+                //Names can only be resolved once the tree is there
+                if (nameIndex == null || field.isEmpty() || Character.isDigit(field.charAt(0))) {
+                    taxonIds.add(Integer.parseInt(field));
+                }
+            }
+        }
+        return taxonIds;
+    }
 }
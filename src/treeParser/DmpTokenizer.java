@@ -0,0 +1,421 @@
+package treeParser;
+
+import model.TaxonRank;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * <h1>Allocation-free tokenizer for the NCBI nodes.dmp and names.dmp files</h1>
+ * <p>
+ * The dmp files consist of rows terminated by "\t|\n" whose fields are separated by "\t|\t".
+ * Instead of reading lines as Strings and splitting them with a regex, the tokenizer scans the raw bytes of the
+ * memory-mapped file. Ids are decoded in place, ranks are looked up in a small cache of TaxonRank codes, and
+ * scientific names are handed over as raw UTF-8 bytes.
+ * Files can also be split into line-aligned byte ranges which are tokenized independently (one tokenizer per thread).
+ * Buffers that contain complete lines only, like the chunks of a DmpZipReader, can be tokenized as well.
+ * </p>
+ *
+ * @see TreeParser
+ */
+class DmpTokenizer {
+
+    /**
+     * Receives the rows of nodes.dmp, the rank as TaxonRank code
+     */
+    interface NodeHandler {
+        void node(int taxonId, int parentId, byte rankCode);
+    }
+
+    /**
+     * Receives the scientific names of names.dmp as UTF-8 bytes, the array is reused for the next name
+     */
+    interface NameHandler {
+        void name(int taxonId, byte[] name, int length);
+    }
+
+    /**
+     * Receives the ids of merged.dmp (old and new id) or delnodes.dmp (the deleted id, second is 0)
+     */
+    interface IdHandler {
+        void ids(int first, int second);
+    }
+
+    //Files are mapped in windows of this size, every window ends at a line break
+    private static final int WINDOW_SIZE = 256 * 1024 * 1024;
+    private static final byte[] SCIENTIFIC_NAME = "scientific name".getBytes(StandardCharsets.US_ASCII);
+
+    private final RankCache rankCache = new RankCache();
+    private byte[] scratch = new byte[256];
+    private ByteBuffer buffer;
+    private int position;
+
+    /**
+     * Reads every row of a nodes.dmp file
+     *
+     * @param fileNodesDmp path to nodes.dmp
+     * @param handler      receives id, parent id and rank of every row
+     * @throws IOException
+     */
+    public void readNodes(String fileNodesDmp, NodeHandler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileNodesDmp), StandardOpenOption.READ)) {
+            readNodes(channel, 0, channel.size(), handler);
+        }
+    }
+
+    /**
+     * Reads the rows of nodes.dmp between two line starts, see {@link #splitIntoLineRanges}
+     */
+    void readNodes(FileChannel channel, long start, long end, NodeHandler handler) throws IOException {
+        long windowStart = start;
+        while (windowStart < end) {
+            int limit = mapWindow(channel, windowStart, end);
+            tokenizeNodes(limit, handler);
+            windowStart += limit;
+        }
+    }
+
+    /**
+     * Reads the rows of nodes.dmp in a buffer that contains complete lines only, e.g. a chunk of a zip entry
+     */
+    void readNodes(ByteBuffer chunk, NodeHandler handler) {
+        buffer = chunk;
+        position = 0;
+        tokenizeNodes(chunk.limit(), handler);
+    }
+
+    private void tokenizeNodes(int limit, NodeHandler handler) {
+        while (position < limit) {
+            int taxonId = readIntField();
+            int parentId = readIntField();
+            int rankEnd = fieldEnd();
+            byte rankCode = rankCache.get(buffer, position, rankEnd);
+            position = rankEnd;
+            nextLine();
+            handler.node(taxonId, parentId, rankCode);
+        }
+    }
+
+    /**
+     * Reads the scientific names of a names.dmp file, all other name classes are skipped
+     *
+     * @param fileNamesDmp path to names.dmp
+     * @param handler      receives id and scientific name
+     * @throws IOException
+     */
+    public void readNames(String fileNamesDmp, NameHandler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileNamesDmp), StandardOpenOption.READ)) {
+            readNames(channel, 0, channel.size(), handler);
+        }
+    }
+
+    /**
+     * Reads the names of all name classes of a names.dmp file (synonyms, common names, ...)
+     *
+     * @param fileNamesDmp      path to names.dmp
+     * @param scientificHandler receives id and scientific name
+     * @param otherHandler      receives id and name of all other rows
+     * @throws IOException
+     */
+    public void readAllNames(String fileNamesDmp, NameHandler scientificHandler, NameHandler otherHandler)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileNamesDmp), StandardOpenOption.READ)) {
+            long windowStart = 0;
+            long end = channel.size();
+            while (windowStart < end) {
+                int limit = mapWindow(channel, windowStart, end);
+                tokenizeNames(limit, scientificHandler, otherHandler);
+                windowStart += limit;
+            }
+        }
+    }
+
+    /**
+     * Reads the scientific names of names.dmp between two line starts, see {@link #splitIntoLineRanges}
+     */
+    void readNames(FileChannel channel, long start, long end, NameHandler handler) throws IOException {
+        long windowStart = start;
+        while (windowStart < end) {
+            int limit = mapWindow(channel, windowStart, end);
+            tokenizeNames(limit, handler, null);
+            windowStart += limit;
+        }
+    }
+
+    /**
+     * Reads the scientific names of names.dmp in a buffer that contains complete lines only
+     */
+    void readNames(ByteBuffer chunk, NameHandler handler) {
+        buffer = chunk;
+        position = 0;
+        tokenizeNames(chunk.limit(), handler, null);
+    }
+
+    /**
+     * @param otherHandler receives the names of the other name classes, they are skipped if it's null
+     */
+    private void tokenizeNames(int limit, NameHandler handler, NameHandler otherHandler) {
+        while (position < limit) {
+            int taxonId = readIntField();
+            int nameStart = position;
+            int nameEnd = fieldEnd();
+            position = nameEnd;
+            skipSeparator();
+            //unique name
+            position = fieldEnd();
+            skipSeparator();
+            int classEnd = fieldEnd();
+            if (equalsBytes(position, classEnd, SCIENTIFIC_NAME)) {
+                handler.name(taxonId, copy(nameStart, nameEnd), nameEnd - nameStart);
+            } else if (otherHandler != null) {
+                otherHandler.name(taxonId, copy(nameStart, nameEnd), nameEnd - nameStart);
+            }
+            position = classEnd;
+            nextLine();
+        }
+    }
+
+    /**
+     * Reads the first one or two id columns of every row, used for merged.dmp and delnodes.dmp
+     *
+     * @param fileDmp path to the dmp file
+     * @param handler receives the ids of every row, 0 for a missing second id
+     * @throws IOException
+     */
+    public void readIds(String fileDmp, IdHandler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileDmp), StandardOpenOption.READ)) {
+            long windowStart = 0;
+            long end = channel.size();
+            while (windowStart < end) {
+                int limit = mapWindow(channel, windowStart, end);
+                tokenizeIds(limit, handler);
+                windowStart += limit;
+            }
+        }
+    }
+
+    /**
+     * Reads the id columns of merged.dmp or delnodes.dmp in a buffer that contains complete lines only
+     */
+    void readIds(ByteBuffer chunk, IdHandler handler) {
+        buffer = chunk;
+        position = 0;
+        tokenizeIds(chunk.limit(), handler);
+    }
+
+    private void tokenizeIds(int limit, IdHandler handler) {
+        while (position < limit) {
+            int first = readIntField();
+            byte b = byteAt(position);
+            int second = b >= '0' && b <= '9' ? readIntField() : 0;
+            nextLine();
+            handler.ids(first, second);
+        }
+    }
+
+    /**
+     * Splits a file into byte ranges of roughly the given size that start at the beginning of a line, so they can be
+     * tokenized independently of each other
+     *
+     * @param channel   the dmp file
+     * @param rangeSize preferred size of the ranges in bytes
+     * @return the range boundaries: range i spans from boundaries[i] to boundaries[i+1]
+     * @throws IOException
+     */
+    static long[] splitIntoLineRanges(FileChannel channel, long rangeSize) throws IOException {
+        long size = channel.size();
+        ArrayList<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long boundary = rangeSize;
+        while (boundary < size) {
+            //Move the boundary behind the next line break
+            long lineStart = -1;
+            for (long probeStart = boundary; lineStart < 0 && probeStart < size; probeStart += probe.capacity()) {
+                probe.clear();
+                int read = channel.read(probe, probeStart);
+                for (int i = 0; i < read; i++) {
+                    if (probe.get(i) == '\n') {
+                        lineStart = probeStart + i + 1;
+                        break;
+                    }
+                }
+            }
+            if (lineStart < 0 || lineStart >= size) {
+                break;
+            }
+            boundaries.add(lineStart);
+            boundary = lineStart + rangeSize;
+        }
+        boundaries.add(size);
+
+        long[] result = new long[boundaries.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = boundaries.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Maps the next window of the file, shortened to its last line break
+     *
+     * @return the number of bytes of the window that contain complete lines
+     */
+    private int mapWindow(FileChannel channel, long windowStart, long end) throws IOException {
+        int length = (int) Math.min(WINDOW_SIZE, end - windowStart);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, length);
+        position = 0;
+        int limit = length;
+        if (windowStart + length < end) {
+            while (limit > 0 && buffer.get(limit - 1) != '\n') {
+                limit--;
+            }
+            if (limit == 0) {
+                throw new IOException("Line longer than " + WINDOW_SIZE + " bytes");
+            }
+        }
+        //Reads stop at the last complete line, the rest is mapped again with the next window
+        buffer.limit(limit);
+        return limit;
+    }
+
+    /**
+     * Decodes the digits of the current field and moves behind the following separator
+     */
+    private int readIntField() {
+        int value = 0;
+        byte b;
+        while ((b = byteAt(position)) >= '0' && b <= '9') {
+            value = value * 10 + (b - '0');
+            position++;
+        }
+        skipSeparator();
+        return value;
+    }
+
+    /**
+     * @return the index of the tab or line break that ends the current field
+     */
+    private int fieldEnd() {
+        int end = position;
+        int limit = buffer.limit();
+        byte b;
+        while (end < limit && (b = buffer.get(end)) != '\t' && b != '\n') {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Skips "\t|\t" (or whatever whitespace surrounds the pipe)
+     */
+    private void skipSeparator() {
+        while (byteAt(position) == '\t' || byteAt(position) == ' ') {
+            position++;
+        }
+        if (byteAt(position) == '|') {
+            position++;
+        }
+        while (byteAt(position) == '\t' || byteAt(position) == ' ') {
+            position++;
+        }
+    }
+
+    /**
+     * @return the byte at the index, or a line break behind the limit, so a last line without a trailing line break
+     * ends like every other line
+     */
+    private byte byteAt(int index) {
+        return index < buffer.limit() ? buffer.get(index) : (byte) '\n';
+    }
+
+    /**
+     * Moves to the first byte of the next line
+     */
+    private void nextLine() {
+        int limit = buffer.limit();
+        while (position < limit && buffer.get(position) != '\n') {
+            position++;
+        }
+        position++;
+    }
+
+    private boolean equalsBytes(int start, int end, byte[] expected) {
+        if (end - start != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (buffer.get(start + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies bytes of the buffer into the scratch array
+     */
+    private byte[] copy(int start, int end) {
+        int length = end - start;
+        if (length > scratch.length) {
+            scratch = new byte[Math.max(length, 2 * scratch.length)];
+        }
+        for (int i = 0; i < length; i++) {
+            scratch[i] = buffer.get(start + i);
+        }
+        return scratch;
+    }
+
+    /**
+     * Maps the bytes of a rank to its TaxonRank code, there are only a few dozen different ranks
+     */
+    private static class RankCache {
+        private static final int CAPACITY = 256;
+        private final byte[][] keys = new byte[CAPACITY][];
+        private final byte[] values = new byte[CAPACITY];
+        private int size;
+
+        byte get(ByteBuffer buffer, int start, int end) {
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + buffer.get(i);
+            }
+            int slot = hash & (CAPACITY - 1);
+            while (keys[slot] != null) {
+                if (matches(keys[slot], buffer, start, end)) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & (CAPACITY - 1);
+            }
+            byte[] key = new byte[end - start];
+            for (int i = 0; i < key.length; i++) {
+                key[i] = buffer.get(start + i);
+            }
+            if (size >= CAPACITY / 2) {
+                //More ranks than NCBI has ever used, don't cache them any more
+                return TaxonRank.intern(new String(key, StandardCharsets.UTF_8));
+            }
+            size++;
+            keys[slot] = key;
+            values[slot] = TaxonRank.intern(new String(key, StandardCharsets.UTF_8));
+            return values[slot];
+        }
+
+        private static boolean matches(byte[] key, ByteBuffer buffer, int start, int end) {
+            if (key.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != buffer.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
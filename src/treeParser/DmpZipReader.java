@@ -0,0 +1,152 @@
+package treeParser;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * <h1>Streams the dmp files out of taxdmp.zip without extracting them</h1>
+ * <p>
+ * A producer thread decompresses the requested entries into large buffers, every buffer ends at a line break.
+ * The filled buffers are handed to the calling thread through a small queue, so decompression and tokenizing run at
+ * the same time. Buffers are recycled once the consumer is done with them.
+ * </p>
+ *
+ * @see TreeParser#parseTreeFromZip
+ * @see DmpTokenizer
+ */
+class DmpZipReader {
+    /**
+     * Receives the chunks of an entry in file order, the buffer contains complete lines only and is reused afterwards
+     */
+    interface ChunkHandler {
+        void chunk(String entryName, ByteBuffer chunk) throws IOException;
+    }
+
+    private static final int CHUNK_SIZE = 8 * 1024 * 1024;
+    //Number of filled chunks that may wait for the consumer
+    private static final int QUEUE_CAPACITY = 4;
+
+    //Marks the end of the zip file
+    private static final Chunk END = new Chunk(null, null, 0);
+
+    private final String zipFile;
+    private final ArrayBlockingQueue<Chunk> filledChunks = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final ArrayBlockingQueue<byte[]> freeBuffers = new ArrayBlockingQueue<>(QUEUE_CAPACITY + 2);
+    private volatile Exception producerException;
+
+    DmpZipReader(String zipFile) {
+        this.zipFile = zipFile;
+    }
+
+    /**
+     * Reads the given entries of the zip file, entries are handed to the handler in the order they appear in the zip
+     *
+     * @param handler     receives the chunks
+     * @param entryNames  names of the entries to read, e.g. "nodes.dmp"
+     * @throws IOException if the zip can't be read or the handler fails
+     */
+    void read(ChunkHandler handler, String... entryNames) throws IOException {
+        HashSet<String> entries = new HashSet<>(Arrays.asList(entryNames));
+        //One buffer is being filled, one is being tokenized and the rest wait in the queue
+        for (int i = 0; i < QUEUE_CAPACITY + 2; i++) {
+            freeBuffers.add(new byte[CHUNK_SIZE]);
+        }
+        Thread producer = new Thread(() -> decompress(entries), "taxdmp.zip reader");
+        producer.setDaemon(true);
+        producer.start();
+        try {
+            Chunk chunk;
+            while ((chunk = filledChunks.take()) != END) {
+                handler.chunk(chunk.entryName, ByteBuffer.wrap(chunk.bytes, 0, chunk.length));
+                freeBuffers.put(chunk.bytes);
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while reading " + zipFile, e);
+        } finally {
+            producer.interrupt();
+        }
+        if (producerException != null) {
+            throw new IOException("Can't read " + zipFile, producerException);
+        }
+    }
+
+    /**
+     * Runs on the producer thread: decompresses the entries and cuts them into chunks at line breaks.
+     * The end marker is always queued, also after an error.
+     */
+    private void decompress(HashSet<String> entries) {
+        try (ZipInputStream zipInputStream = new ZipInputStream(new FileInputStream(zipFile))) {
+            ZipEntry zipEntry;
+            while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+                if (entries.contains(zipEntry.getName())) {
+                    decompressEntry(zipEntry.getName(), zipInputStream);
+                }
+            }
+        } catch (Exception e) {
+            producerException = e;
+            //The chunks of a broken entry are of no use, and the consumer may not take any more chunks
+            filledChunks.clear();
+        } finally {
+            try {
+                filledChunks.put(END);
+            } catch (InterruptedException e) {
+                //The consumer is gone already
+            }
+        }
+    }
+
+    private void decompressEntry(String entryName, InputStream in) throws IOException, InterruptedException {
+        byte[] bytes = freeBuffers.take();
+        int length = 0;
+        while (true) {
+            int read = in.read(bytes, length, bytes.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+            if (length < bytes.length) {
+                continue;
+            }
+            //The buffer is full: queue the complete lines, the started line is moved to the next buffer
+            int lineEnd = length;
+            while (lineEnd > 0 && bytes[lineEnd - 1] != '\n') {
+                lineEnd--;
+            }
+            if (lineEnd == 0) {
+                throw new IOException("Line longer than " + CHUNK_SIZE + " bytes in " + entryName);
+            }
+            byte[] next = freeBuffers.take();
+            System.arraycopy(bytes, lineEnd, next, 0, length - lineEnd);
+            filledChunks.put(new Chunk(entryName, bytes, lineEnd));
+            length -= lineEnd;
+            bytes = next;
+        }
+        if (length > 0 && bytes[length - 1] != '\n') {
+            //The last line has no line break, the tokenizer needs one
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, length + 1);
+            }
+            bytes[length++] = '\n';
+        }
+        filledChunks.put(new Chunk(entryName, bytes, length));
+    }
+
+    private static class Chunk {
+        private final String entryName;
+        private final byte[] bytes;
+        private final int length;
+
+        Chunk(String entryName, byte[] bytes, int length) {
+            this.entryName = entryName;
+            this.bytes = bytes;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package treeParser;
+
+import model.TaxonTree;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * <h1>Applies the NCBI diff files to an existing TaxonTree</h1>
+ * <p>
+ * NCBI merges taxa (merged.dmp: old id, new id) and deletes them (delnodes.dmp: id). Instead of parsing a whole new
+ * dump, these files, plus optional nodes.dmp and names.dmp files that only contain new or changed taxa, are applied
+ * to the tree that was loaded before, e.g. from a TreeSnapshot. The arrays of the old tree are reused as rows, so
+ * only the diff files have to be parsed.
+ * </p>
+ * <p>
+ * Ids of merged taxa are kept as redirects of the tree, so sample files that still use them are assigned to the
+ * taxon they were merged into.
+ * </p>
+ *
+ * @see TaxonTree#addRedirect
+ * @see TreeSnapshot
+ */
+public class TaxonomyUpdate {
+
+    /**
+     * Adds the redirects of merged.dmp to the tree. Rows whose target is itself merged are resolved as well,
+     * regardless of their order in the file.
+     *
+     * @param taxonTree     the tree
+     * @param fileMergedDmp path to merged.dmp
+     * @return number of redirects added
+     * @throws IOException
+     */
+    public static int applyMerged(TaxonTree taxonTree, String fileMergedDmp) throws IOException {
+        HashMap<Integer, Integer> merged = readMerged(fileMergedDmp);
+        return addRedirects(taxonTree, merged);
+    }
+
+    /**
+     * Creates the updated tree: merged and deleted taxa are removed, new and changed taxa are added, all other taxa
+     * keep their parent, rank and name. Children of a deleted taxon are moved to its closest remaining ancestor.
+     *
+     * @param taxonTree       the tree to update, it is not changed
+     * @param fileMergedDmp   path to merged.dmp, or null
+     * @param fileDelnodesDmp path to delnodes.dmp, or null
+     * @param fileNodesDmp    path to a nodes.dmp with the new and changed taxa only, or null
+     * @param fileNamesDmp    path to a names.dmp with the names of new and renamed taxa only, or null
+     * @return the updated tree
+     * @throws IOException
+     */
+    public static TaxonTree update(TaxonTree taxonTree, String fileMergedDmp, String fileDelnodesDmp,
+                                   String fileNodesDmp, String fileNamesDmp) throws IOException {
+        long startTime = System.currentTimeMillis();
+        DmpTokenizer tokenizer = new DmpTokenizer();
+        HashMap<Integer, Integer> merged = fileMergedDmp == null ? new HashMap<>() : readMerged(fileMergedDmp);
+        HashSet<Integer> deleted = new HashSet<>();
+        if (fileDelnodesDmp != null) {
+            tokenizer.readIds(fileDelnodesDmp, (taxonId, unused) -> deleted.add(taxonId));
+        }
+        //Changed rows replace the rows of the old tree, new rows are appended
+        HashMap<Integer, long[]> changedRows = new HashMap<>();
+        if (fileNodesDmp != null) {
+            tokenizer.readNodes(fileNodesDmp, (taxonId, parentId, rankCode) ->
+                    changedRows.put(taxonId, new long[]{parentId, rankCode}));
+        }
+
+        //Rows of the old tree, placeholders for missing parents are created again by the TaxonTree
+        int size = taxonTree.size();
+        int[] ids = new int[size + changedRows.size()];
+        int[] parentIds = new int[ids.length];
+        byte[] rankCodes = new byte[ids.length];
+        int rowCount = 0;
+        for (int index = 0; index < size; index++) {
+            int taxonId = taxonTree.getTaxonIdAt(index);
+            boolean placeholder = taxonTree.getParentIndexAt(index) == TaxonTree.NO_NODE
+                    && index != taxonTree.getRootIndex();
+            if (placeholder || deleted.contains(taxonId) || merged.containsKey(taxonId)
+                    || changedRows.containsKey(taxonId)) {
+                continue;
+            }
+            ids[rowCount] = taxonId;
+            parentIds[rowCount] = taxonTree.getParentIdAt(index);
+            rankCodes[rowCount++] = taxonTree.getRankCodeAt(index);
+        }
+        for (Map.Entry<Integer, long[]> row : changedRows.entrySet()) {
+            if (deleted.contains(row.getKey()) || merged.containsKey(row.getKey())) {
+                continue;
+            }
+            ids[rowCount] = row.getKey();
+            parentIds[rowCount] = (int) row.getValue()[0];
+            rankCodes[rowCount++] = (byte) row.getValue()[1];
+        }
+        //Parents of deleted taxa, so their children can be moved up; deleted ids that aren't in the tree go to the root
+        int rootId = taxonTree.getTaxonIdAt(taxonTree.getRootIndex());
+        HashMap<Integer, Integer> deletedParents = new HashMap<>();
+        for (int taxonId : deleted) {
+            int index = taxonTree.indexOf(taxonId);
+            boolean inTree = index != TaxonTree.NO_NODE && taxonTree.getTaxonIdAt(index) == taxonId;
+            deletedParents.put(taxonId, changedRows.containsKey(taxonId) ? (int) changedRows.get(taxonId)[0]
+                    : inTree ? taxonTree.getParentIdAt(index) : rootId);
+        }
+        //Children of merged taxa are moved to the taxon they were merged into, children of deleted taxa to the
+        //closest ancestor that wasn't deleted
+        for (int i = 0; i < rowCount; i++) {
+            parentIds[i] = survivingParent(merged, deletedParents, parentIds[i], rootId);
+        }
+
+        TaxonTree updatedTree = new TaxonTree(ids, parentIds, rankCodes, rowCount);
+        for (int index = 0; index < updatedTree.size(); index++) {
+            int oldIndex = taxonTree.indexOf(updatedTree.getTaxonIdAt(index));
+            if (oldIndex != TaxonTree.NO_NODE && taxonTree.getTaxonIdAt(oldIndex) == updatedTree.getTaxonIdAt(index)) {
+                updatedTree.getNamePool().copyName(index, taxonTree.getNamePool(), oldIndex);
+            }
+        }
+        if (fileNamesDmp != null) {
+            tokenizer.readNames(fileNamesDmp, (taxonId, name, length) -> updatedTree.setName(taxonId, name, 0, length));
+        }
+        updatedTree.getNamePool().trim();
+
+        //Old redirects stay valid, unless their target was deleted
+        HashMap<Integer, Integer> redirects = taxonTree.getRedirects();
+        redirects.putAll(merged);
+        addRedirects(updatedTree, redirects);
+        System.out.println("Taxonomy updated in " + (System.currentTimeMillis() - startTime) / 1000.d + "s");
+        return updatedTree;
+    }
+
+    /**
+     * Loads a snapshot regardless of the files it was parsed from, applies the diff files and writes it back
+     *
+     * @param snapshotPath    the snapshot to update
+     * @param fileMergedDmp   path to merged.dmp, or null
+     * @param fileDelnodesDmp path to delnodes.dmp, or null
+     * @param fileNodesDmp    path to a nodes.dmp with the new and changed taxa only, or null
+     * @param fileNamesDmp    path to a names.dmp with the names of new and renamed taxa only, or null
+     * @param sourcePaths     the files the updated snapshot is valid for, see {@link TreeSnapshot#write}
+     * @return the updated tree, or null if there is no snapshot
+     * @throws IOException
+     */
+    public static TaxonTree updateSnapshot(String snapshotPath, String fileMergedDmp, String fileDelnodesDmp,
+                                           String fileNodesDmp, String fileNamesDmp, String... sourcePaths)
+            throws IOException {
+        TaxonTree taxonTree = TreeSnapshot.loadIgnoringSources(snapshotPath);
+        if (taxonTree == null) {
+            return null;
+        }
+        TaxonTree updatedTree = update(taxonTree, fileMergedDmp, fileDelnodesDmp, fileNodesDmp, fileNamesDmp);
+        TreeSnapshot.write(updatedTree, snapshotPath, sourcePaths);
+        return updatedTree;
+    }
+
+    private static HashMap<Integer, Integer> readMerged(String fileMergedDmp) throws IOException {
+        HashMap<Integer, Integer> merged = new HashMap<>();
+        new DmpTokenizer().readIds(fileMergedDmp, merged::put);
+        return merged;
+    }
+
+    /**
+     * Follows the merges of an id until it reaches an id that wasn't merged
+     */
+    private static int resolve(HashMap<Integer, Integer> merged, int taxonId) {
+        //The number of steps is limited, in case the file contains a cycle
+        for (int step = 0; step < merged.size() && merged.containsKey(taxonId); step++) {
+            taxonId = merged.get(taxonId);
+        }
+        return taxonId;
+    }
+
+    /**
+     * Follows merges and deletions of a parent until it reaches a taxon that is still in the tree
+     */
+    private static int survivingParent(HashMap<Integer, Integer> merged, HashMap<Integer, Integer> deletedParents,
+                                       int parentId, int rootId) {
+        //The number of steps is limited, in case the files contain a cycle
+        for (int step = 0; step <= deletedParents.size(); step++) {
+            parentId = resolve(merged, parentId);
+            if (!deletedParents.containsKey(parentId)) {
+                return parentId;
+            }
+            parentId = deletedParents.get(parentId);
+        }
+        return rootId;
+    }
+
+    /**
+     * Adds the rows of merged.dmp as redirects, targets that were merged themselves are resolved first
+     *
+     * @return number of redirects added
+     */
+    static int addRedirects(TaxonTree taxonTree, HashMap<Integer, Integer> merged) {
+        int added = 0;
+        for (Map.Entry<Integer, Integer> entry : merged.entrySet()) {
+            if (taxonTree.addRedirect(entry.getKey(), resolve(merged, entry.getValue()))) {
+                added++;
+            }
+        }
+        return added;
+    }
+}
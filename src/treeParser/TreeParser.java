@@ -3,12 +3,23 @@ package treeParser;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 import javafx.beans.value.ObservableStringValue;
-import model.TaxonNode;
+import model.TaxonNameIndex;
 import model.TaxonTree;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
 
 
 /**
@@ -16,12 +27,20 @@ import java.io.IOException;
  * <p>
  * It is required that the nodes.dmp and names.dmp files are present!
  * nodes.dmp should always be read before names.dmp (it is implemented this way).
+ * The files are scanned byte by byte by the DmpTokenizer, which avoids creating Strings for every line.
+ * parseTreeParallel tokenizes both files on all cores and builds the same tree as parseTree.
+ * parseTreeFromZip reads the files directly from taxdmp.zip, without extracting them first.
+ * parsePartialTree only keeps the given taxa and their ancestors, for a fast start with a few sample files.
+ * The rows are collected in columns and the TaxonTree is built from them in one go.
  * </p>
  *
  * @see util.DownloadNodesAndNameDMPFiles
  *
  */
 public class TreeParser {
+    //Size of the byte ranges that are tokenized in parallel
+    private static final long PARALLEL_RANGE_SIZE = 8 * 1024 * 1024;
+
     //Tree to be created
     private TaxonTree taxonTree;
     public StringProperty progressProperty;
@@ -63,48 +82,9 @@ public class TreeParser {
         /*DEBUG*/
         long startTime = System.currentTimeMillis();
         try {
-            BufferedReader reader = new BufferedReader(new FileReader(fileNodesDmp));
-
-            //First, read and create the root
-            String line = reader.readLine();
-            String[] lineSplit = line.split("\\|");
-            int id = Integer.parseInt(lineSplit[0].trim());
-            int parentId = Integer.parseInt(lineSplit[1].trim()); //Should also be 1 for the root
-            String rank = lineSplit[2].trim();
-            TaxonNode currentNode = new TaxonNode(id, rank, parentId);
-            taxonTree.setRoot(currentNode);
-            taxonTree.getTreeStructure().put(id, currentNode);
-
-            //Parse the rest of the tree
-            while ((line = reader.readLine()) != null) {
-                lineSplit = line.split("\\|");
-                id = Integer.parseInt(lineSplit[0].trim());
-                parentId = Integer.parseInt(lineSplit[1].trim());
-                rank = lineSplit[2].trim();
-                //Check if node already exists (happens if it's the parent of a previously parsed node)
-                if (taxonTree.getTreeStructure().containsKey(id)) {
-                    //In this case only update the existing node (it only contains an id and a child list so far)
-                    currentNode = taxonTree.getTreeStructure().get(id);
-                    currentNode.setParentId(parentId);
-                    currentNode.setRank(rank);
-                } else {
-                    //Create a new node and add it to the tree
-                    currentNode = new TaxonNode(id, rank, parentId);
-                    taxonTree.getTreeStructure().put(id, currentNode);
-                }
-
-                //Check if parent node doesn't exist yet (happens if parentId>id)
-                TaxonNode parentNode;
-                if (parentId > id) {
-                    parentNode = new TaxonNode(parentId, currentNode);
-                } else {
-                    parentNode = taxonTree.getTreeStructure().get(parentId);
-                    parentNode.getChildNodeList().add(currentNode);
-                }
-                taxonTree.getTreeStructure().put(parentId, parentNode);
-                //Set parentNode as parent of currentNode
-                currentNode.setParentNode(parentNode);
-            }
+            NodeColumns columns = new NodeColumns(new File(fileNodesDmp).length());
+            new DmpTokenizer().readNodes(fileNodesDmp, columns);
+            taxonTree = new TaxonTree(columns.ids, columns.parentIds, columns.rankCodes, columns.size);
         } catch (IOException e) {
             printFileDoesNotExist();
         }
@@ -119,24 +99,349 @@ public class TreeParser {
     private void readNamesDmpFile(String fileNamesDmp) {
         long startTime = System.currentTimeMillis();
         try {
-            BufferedReader reader = new BufferedReader(new FileReader(fileNamesDmp));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] lineSplit = line.split("\\|");
-                String identifier = lineSplit[3].trim();
-                if (identifier.equals("scientific name")) {
-                    int taxonId = Integer.parseInt(lineSplit[0].trim());
-                    String name = lineSplit[1].trim();
-                    taxonTree.getTreeStructure().get(taxonId).setName(name);
+            new DmpTokenizer().readNames(fileNamesDmp, (taxonId, name, length) ->
+                    taxonTree.setName(taxonId, name, 0, length));
+            taxonTree.getNamePool().trim();
+        } catch (IOException e) {
+            printFileDoesNotExist();
+        }
+        System.out.println("Names parsed in " + (System.currentTimeMillis() - startTime) / 1000.d + "s");
+    }
+
+    /**
+     * Parallel version of parseTree, produces exactly the same tree.
+     * Both files are split into line-aligned byte ranges that are tokenized in parallel on the common ForkJoinPool.
+     * The tree is then built on the calling thread from the rows in file order, while names.dmp is still being
+     * tokenized.
+     *
+     * @param fileNodesDmp
+     * @param fileNamesDmp
+     */
+    public void parseTreeParallel(String fileNodesDmp, String fileNamesDmp) {
+        parseTreeParallel(fileNodesDmp, fileNamesDmp, PARALLEL_RANGE_SIZE);
+    }
+
+    void parseTreeParallel(String fileNodesDmp, String fileNamesDmp, long rangeSize) {
+        long startTime = System.currentTimeMillis();
+        try (FileChannel nodesChannel = FileChannel.open(Paths.get(fileNodesDmp), StandardOpenOption.READ);
+             FileChannel namesChannel = FileChannel.open(Paths.get(fileNamesDmp), StandardOpenOption.READ)) {
+            progressProperty.setValue("reading Nodes");
+            List<ForkJoinTask<NodeColumns>> nodeTasks = submitNodeRanges(nodesChannel, rangeSize);
+            //Names are tokenized at the same time and while the tree is built
+            List<ForkJoinTask<NameColumns>> nameTasks = submitNameRanges(namesChannel, rangeSize, null);
+
+            NodeColumns allNodes = joinNodeRanges(nodeTasks, nodesChannel.size());
+            taxonTree = new TaxonTree(allNodes.ids, allNodes.parentIds, allNodes.rankCodes, allNodes.size);
+            System.out.println("Nodes parsed in " + (System.currentTimeMillis() - startTime) / 1000.d + "s");
+
+            progressProperty.setValue("reading Names");
+            setNames(nameTasks);
+            System.out.println("Names parsed in " + (System.currentTimeMillis() - startTime) / 1000.d + "s");
+        } catch (IOException e) {
+            printFileDoesNotExist();
+        }
+    }
+
+    /**
+     * Fast start: builds a tree that only contains the given taxa and their ancestors, e.g. the ids of the sample
+     * files that are about to be opened (see sampleParser.InputFile#scanTaxonIds). nodes.dmp is tokenized completely,
+     * since the ancestors of a taxon can be anywhere in the file, but no TaxonTree is built from it: only the selected
+     * rows are copied into the tree. names.dmp is streamed once and only the names of the selected taxa are kept.
+     * The full tree can be parsed later on, see UI.TreePreloadService#loadPartialTree.
+     * Merged ids are resolved through merged.dmp and kept as redirects, if the file is given.
+     *
+     * @param fileNodesDmp
+     * @param fileNamesDmp
+     * @param fileMergedDmp path to merged.dmp, or null
+     * @param taxonIds      the taxa the tree must contain
+     */
+    public void parsePartialTree(String fileNodesDmp, String fileNamesDmp, String fileMergedDmp,
+                                 Set<Integer> taxonIds) {
+        long startTime = System.currentTimeMillis();
+        try (FileChannel nodesChannel = FileChannel.open(Paths.get(fileNodesDmp), StandardOpenOption.READ);
+             FileChannel namesChannel = FileChannel.open(Paths.get(fileNamesDmp), StandardOpenOption.READ)) {
+            progressProperty.setValue("reading Nodes");
+            List<ForkJoinTask<NodeColumns>> nodeTasks = submitNodeRanges(nodesChannel, PARALLEL_RANGE_SIZE);
+            HashMap<Integer, Integer> merged = new HashMap<>();
+            if (fileMergedDmp != null && new File(fileMergedDmp).isFile()) {
+                new DmpTokenizer().readIds(fileMergedDmp, merged::put);
+            }
+            NodeColumns allNodes = joinNodeRanges(nodeTasks, nodesChannel.size());
+
+            //Row of every id, the last row wins like in the TaxonTree
+            int maxId = 0;
+            for (int i = 0; i < allNodes.size; i++) {
+                maxId = Math.max(maxId, allNodes.ids[i]);
+            }
+            IntUnaryOperator rowOfId;
+            if (maxId < 16L * allNodes.size + 1024) {
+                int[] rows = new int[maxId + 1];
+                Arrays.fill(rows, -1);
+                for (int i = 0; i < allNodes.size; i++) {
+                    rows[allNodes.ids[i]] = i;
                 }
+                rowOfId = taxonId -> taxonId >= 0 && taxonId < rows.length ? rows[taxonId] : -1;
+            } else {
+                HashMap<Integer, Integer> rows = new HashMap<>();
+                for (int i = 0; i < allNodes.size; i++) {
+                    rows.put(allNodes.ids[i], i);
+                }
+                rowOfId = taxonId -> rows.getOrDefault(taxonId, -1);
             }
+            //Select the rows of the taxa and of their ancestors, a walk stops at the first selected row
+            boolean[] selected = new boolean[allNodes.size];
+            int selectedCount = 0;
+            for (int taxonId : taxonIds) {
+                for (int step = 0; step <= merged.size() && merged.containsKey(taxonId); step++) {
+                    taxonId = merged.get(taxonId);
+                }
+                int row = rowOfId.applyAsInt(taxonId);
+                while (row != -1 && !selected[row]) {
+                    selected[row] = true;
+                    selectedCount++;
+                    int parentId = allNodes.parentIds[row];
+                    row = parentId == allNodes.ids[row] ? -1 : rowOfId.applyAsInt(parentId);
+                }
+            }
+            NodeColumns selectedNodes = new NodeColumns(64L * selectedCount);
+            for (int i = 0; i < allNodes.size; i++) {
+                if (selected[i]) {
+                    selectedNodes.node(allNodes.ids[i], allNodes.parentIds[i], allNodes.rankCodes[i]);
+                }
+            }
+            TaxonTree partialTree = new TaxonTree(selectedNodes.ids, selectedNodes.parentIds,
+                    selectedNodes.rankCodes, selectedNodes.size);
+            System.out.println("Nodes parsed in " + (System.currentTimeMillis() - startTime) / 1000.d + "s");
+
+            progressProperty.setValue("reading Names");
+            taxonTree = partialTree;
+            setNames(submitNameRanges(namesChannel, PARALLEL_RANGE_SIZE,
+                    taxonId -> partialTree.indexOf(taxonId) != TaxonTree.NO_NODE));
+            TaxonomyUpdate.addRedirects(taxonTree, merged);
+            System.out.println("Partial tree of " + taxonTree.size() + " taxa parsed in "
+                    + (System.currentTimeMillis() - startTime) / 1000.d + "s");
         } catch (IOException e) {
             printFileDoesNotExist();
         }
-        System.out.println("Names parsed in " + (System.currentTimeMillis() - startTime) / 1000.d + "s");
+    }
+
+    /**
+     * Tokenizes the line-aligned ranges of nodes.dmp on the common ForkJoinPool
+     */
+    private static List<ForkJoinTask<NodeColumns>> submitNodeRanges(FileChannel nodesChannel, long rangeSize)
+            throws IOException {
+        List<ForkJoinTask<NodeColumns>> nodeTasks = new ArrayList<>();
+        long[] nodeRanges = DmpTokenizer.splitIntoLineRanges(nodesChannel, rangeSize);
+        for (int i = 0; i + 1 < nodeRanges.length; i++) {
+            NodeColumns columns = new NodeColumns(nodeRanges[i + 1] - nodeRanges[i]);
+            long start = nodeRanges[i], end = nodeRanges[i + 1];
+            nodeTasks.add(ForkJoinPool.commonPool().submit(() -> {
+                new DmpTokenizer().readNodes(nodesChannel, start, end, columns);
+                return columns;
+            }));
+        }
+        return nodeTasks;
+    }
+
+    /**
+     * Concatenates the ranges in file order, this makes the result identical to the sequential parser
+     */
+    private static NodeColumns joinNodeRanges(List<ForkJoinTask<NodeColumns>> nodeTasks, long fileSize) {
+        NodeColumns allNodes = new NodeColumns(fileSize);
+        for (ForkJoinTask<NodeColumns> nodeTask : nodeTasks) {
+            allNodes.addAll(nodeTask.join());
+        }
+        return allNodes;
+    }
+
+    /**
+     * Tokenizes the line-aligned ranges of names.dmp on the common ForkJoinPool
+     *
+     * @param filter only the names of these ids are kept, null keeps all
+     */
+    private static List<ForkJoinTask<NameColumns>> submitNameRanges(FileChannel namesChannel, long rangeSize,
+                                                                   IntPredicate filter) throws IOException {
+        List<ForkJoinTask<NameColumns>> nameTasks = new ArrayList<>();
+        long[] nameRanges = DmpTokenizer.splitIntoLineRanges(namesChannel, rangeSize);
+        for (int i = 0; i + 1 < nameRanges.length; i++) {
+            NameColumns columns = new NameColumns(filter);
+            long start = nameRanges[i], end = nameRanges[i + 1];
+            nameTasks.add(ForkJoinPool.commonPool().submit(() -> {
+                new DmpTokenizer().readNames(namesChannel, start, end, columns);
+                return columns;
+            }));
+        }
+        return nameTasks;
+    }
+
+    private void setNames(List<ForkJoinTask<NameColumns>> nameTasks) {
+        for (ForkJoinTask<NameColumns> nameTask : nameTasks) {
+            NameColumns columns = nameTask.join();
+            for (int i = 0; i < columns.size; i++) {
+                taxonTree.setName(columns.ids[i], columns.bytes, columns.starts[i], columns.lengths[i]);
+            }
+        }
+        taxonTree.getNamePool().trim();
+    }
+
+    /**
+     * Parses nodes.dmp and names.dmp directly from the taxdmp.zip of the NCBI, the ids of merged.dmp are added as
+     * redirects. The entries are decompressed on a separate thread while the chunks are tokenized.
+     * names.dmp comes before nodes.dmp in the zip, so the names are collected and set once the tree is built.
+     *
+     * @param fileTaxdmpZip path to taxdmp.zip
+     */
+    public void parseTreeFromZip(String fileTaxdmpZip) {
+        long startTime = System.currentTimeMillis();
+        NodeColumns nodes = new NodeColumns(PARALLEL_RANGE_SIZE);
+        NameColumns names = new NameColumns(null);
+        HashMap<Integer, Integer> merged = new HashMap<>();
+        DmpTokenizer tokenizer = new DmpTokenizer();
+        try {
+            progressProperty.setValue("reading taxdmp.zip");
+            new DmpZipReader(fileTaxdmpZip).read((entryName, chunk) -> {
+                switch (entryName) {
+                    case "nodes.dmp":
+                        tokenizer.readNodes(chunk, nodes);
+                        break;
+                    case "names.dmp":
+                        tokenizer.readNames(chunk, names);
+                        break;
+                    case "merged.dmp":
+                        tokenizer.readIds(chunk, merged::put);
+                        break;
+                }
+            }, "nodes.dmp", "names.dmp", "merged.dmp");
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        System.out.println("taxdmp.zip read in " + (System.currentTimeMillis() - startTime) / 1000.d + "s");
+
+        taxonTree = new TaxonTree(nodes.ids, nodes.parentIds, nodes.rankCodes, nodes.size);
+        progressProperty.setValue("reading Names");
+        for (int i = 0; i < names.size; i++) {
+            taxonTree.setName(names.ids[i], names.bytes, names.starts[i], names.lengths[i]);
+        }
+        taxonTree.getNamePool().trim();
+        TaxonomyUpdate.addRedirects(taxonTree, merged);
+        System.out.println("Tree built in " + (System.currentTimeMillis() - startTime) / 1000.d + "s");
+    }
+
+    /**
+     * Reads all names of names.dmp into a TaxonNameIndex: the scientific names and the synonyms, common names etc.
+     * Only names of taxa in the tree are kept, ids of merged taxa are mapped to the taxon they were merged into.
+     *
+     * @param fileNamesDmp path to names.dmp
+     * @param taxonTree    the tree the names belong to
+     * @return the index, or null if names.dmp can't be read
+     */
+    public static TaxonNameIndex parseNameIndex(String fileNamesDmp, TaxonTree taxonTree) {
+        long startTime = System.currentTimeMillis();
+        TaxonNameIndex nameIndex = new TaxonNameIndex();
+        try {
+            new DmpTokenizer().readAllNames(fileNamesDmp,
+                    (taxonId, name, length) -> addName(nameIndex, taxonTree, taxonId, name, length, true),
+                    (taxonId, name, length) -> addName(nameIndex, taxonTree, taxonId, name, length, false));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        System.out.println("Name index of " + nameIndex.size() + " names parsed in "
+                + (System.currentTimeMillis() - startTime) / 1000.d + "s");
+        return nameIndex;
+    }
+
+    private static void addName(TaxonNameIndex nameIndex, TaxonTree taxonTree, int taxonId, byte[] name, int length,
+                                boolean scientific) {
+        int index = taxonTree.indexOf(taxonId);
+        if (index != TaxonTree.NO_NODE) {
+            nameIndex.add(taxonTree.getTaxonIdAt(index), name, 0, length, scientific);
+        }
     }
 
     public TaxonTree getTaxonTree() {
         return taxonTree;
     }
+
+    /**
+     * Rows of a range of nodes.dmp, collected by one tokenizer thread
+     */
+    private static class NodeColumns implements DmpTokenizer.NodeHandler {
+        private int size;
+        private int[] ids, parentIds;
+        private byte[] rankCodes;
+
+        NodeColumns(long rangeSize) {
+            //A row of nodes.dmp has roughly 70 bytes
+            int capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(16, rangeSize / 64));
+            ids = new int[capacity];
+            parentIds = new int[capacity];
+            rankCodes = new byte[capacity];
+        }
+
+        @Override
+        public void node(int taxonId, int parentId, byte rankCode) {
+            ensureCapacity(size + 1);
+            ids[size] = taxonId;
+            parentIds[size] = parentId;
+            rankCodes[size] = rankCode;
+            size++;
+        }
+
+        void addAll(NodeColumns other) {
+            ensureCapacity(size + other.size);
+            System.arraycopy(other.ids, 0, ids, size, other.size);
+            System.arraycopy(other.parentIds, 0, parentIds, size, other.size);
+            System.arraycopy(other.rankCodes, 0, rankCodes, size, other.size);
+            size += other.size;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > ids.length) {
+                capacity = Math.max(capacity, 2 * ids.length);
+                ids = Arrays.copyOf(ids, capacity);
+                parentIds = Arrays.copyOf(parentIds, capacity);
+                rankCodes = Arrays.copyOf(rankCodes, capacity);
+            }
+        }
+    }
+
+    /**
+     * Scientific names of a range of names.dmp, collected by one tokenizer thread.
+     * The UTF-8 bytes of all names are stored in one array. An optional filter drops the names of unneeded ids.
+     */
+    private static class NameColumns implements DmpTokenizer.NameHandler {
+        private final IntPredicate filter;
+        private int size, byteCount;
+        private int[] ids = new int[1024];
+        private int[] starts = new int[1024];
+        private int[] lengths = new int[1024];
+        private byte[] bytes = new byte[16 * 1024];
+
+        NameColumns(IntPredicate filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        public void name(int taxonId, byte[] name, int length) {
+            if (filter != null && !filter.test(taxonId)) {
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, 2 * size);
+                starts = Arrays.copyOf(starts, 2 * size);
+                lengths = Arrays.copyOf(lengths, 2 * size);
+            }
+            if (byteCount + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(byteCount + length, 2 * bytes.length));
+            }
+            System.arraycopy(name, 0, bytes, byteCount, length);
+            ids[size] = taxonId;
+            starts[size] = byteCount;
+            lengths[size] = length;
+            byteCount += length;
+            size++;
+        }
+    }
 }
@@ -0,0 +1,313 @@
+package treeParser;
+
+import model.TaxonNamePool;
+import model.TaxonRank;
+import model.TaxonTree;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * <h1>The class stores a parsed TaxonTree as a compact binary snapshot</h1>
+ * <p>
+ * Parsing the NCBI dump files takes a long time, so after the first successful parse the tree is written to a
+ * snapshot file. On later starts the snapshot is memory-mapped and the arrays of the tree are copied from it in bulk.
+ * The name pool and the ancestor table are not copied: they keep reading from the mapped file, so they don't take
+ * heap space and names are only decoded once requested.
+ * The snapshot remembers size, modification time and a CRC32 checksum of every source file (nodes.dmp, names.dmp).
+ * If any of those changed, the snapshot is considered stale and {@link #load} returns null. Optional sources like
+ * merged.dmp may be missing, they're fingerprinted as missing then.
+ * </p>
+ * <p>
+ * Layout (big endian): magic, version, source fingerprints, node count, root index, rank table, then the arrays of
+ * the TaxonTree (ids, parent, first child and next sibling indices, rank codes), the name offsets, the ancestor table,
+ * the name bytes and the redirects of merged ids.
+ * </p>
+ *
+ * @see TreeParser
+ * @see UI.TreePreloadService
+ */
+public class TreeSnapshot {
+
+    private static final int MAGIC = 0x434e5454; //"CNTT"
+    private static final int VERSION = 4;
+    private static final int CHECKSUM_WINDOW = 64 * 1024 * 1024;
+    //Stored as the size of a source file that doesn't exist
+    private static final long MISSING_FILE = -1;
+
+    /**
+     * Writes the tree to the snapshot file, together with the fingerprints of the files it was parsed from.
+     * The snapshot is written to a temporary file first and then moved into place, so an interrupted write never
+     * leaves a broken snapshot behind.
+     *
+     * @param taxonTree    the parsed tree
+     * @param snapshotPath where to save the snapshot
+     * @param sourcePaths  the files the tree was parsed from (e.g. nodes.dmp and names.dmp)
+     * @throws IOException
+     */
+    public static void write(TaxonTree taxonTree, String snapshotPath, String... sourcePaths) throws IOException {
+        int size = taxonTree.size();
+        int[] taxonIds = new int[size];
+        int[] parentIndices = new int[size];
+        int[] firstChildIndices = new int[size];
+        int[] nextSiblingIndices = new int[size];
+        byte[] rankCodes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            taxonIds[i] = taxonTree.getTaxonIdAt(i);
+            parentIndices[i] = taxonTree.getParentIndexAt(i);
+            firstChildIndices[i] = taxonTree.getFirstChildIndexAt(i);
+            nextSiblingIndices[i] = taxonTree.getNextSiblingIndexAt(i);
+            rankCodes[i] = taxonTree.getRankCodeAt(i);
+        }
+        TaxonNamePool namePool = taxonTree.getNamePool();
+
+        Path target = Paths.get(snapshotPath);
+        Path temporary = Paths.get(snapshotPath + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temporary.toFile()), 1 << 20))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeFingerprints(out, sourcePaths);
+
+            out.writeInt(size);
+            out.writeInt(taxonTree.getRootIndex());
+            //Rank codes are only valid within one run, so the rank names are stored as well
+            String[] ranks = TaxonRank.getNames();
+            out.writeInt(ranks.length - 1);
+            for (int code = 1; code < ranks.length; code++) {
+                byte[] rankBytes = ranks[code].getBytes(StandardCharsets.UTF_8);
+                out.writeShort(rankBytes.length);
+                out.write(rankBytes);
+            }
+
+            writeInts(out, IntBuffer.wrap(taxonIds));
+            writeInts(out, IntBuffer.wrap(parentIndices));
+            writeInts(out, IntBuffer.wrap(firstChildIndices));
+            writeInts(out, IntBuffer.wrap(nextSiblingIndices));
+            out.write(rankCodes);
+            writeInts(out, namePool.getOffsets());
+            writeInts(out, taxonTree.getRankAncestors());
+            ByteBuffer nameBytes = namePool.getBytes();
+            out.writeInt(nameBytes.remaining());
+            byte[] chunk = new byte[64 * 1024];
+            while (nameBytes.hasRemaining()) {
+                int count = Math.min(chunk.length, nameBytes.remaining());
+                nameBytes.get(chunk, 0, count);
+                out.write(chunk, 0, count);
+            }
+            HashMap<Integer, Integer> redirects = taxonTree.getRedirects();
+            out.writeInt(redirects.size());
+            for (Map.Entry<Integer, Integer> redirect : redirects.entrySet()) {
+                out.writeInt(redirect.getKey());
+                out.writeInt(redirect.getValue());
+            }
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Loads the tree from the snapshot file, if the snapshot exists and still matches the given source files
+     *
+     * @param snapshotPath where the snapshot was saved
+     * @param sourcePaths  the files the tree was parsed from, in the same order as in {@link #write}
+     * @return the tree, or null if there is no valid snapshot for these source files
+     */
+    public static TaxonTree load(String snapshotPath, String... sourcePaths) {
+        return load(snapshotPath, sourcePaths.length, sourcePaths);
+    }
+
+    /**
+     * Checks if the snapshot was written for the same source files and the first of them didn't change since. The
+     * others may have changed, e.g. the diff files that can be applied with {@link TaxonomyUpdate} instead of parsing
+     * everything again.
+     *
+     * @param snapshotPath       where the snapshot was saved
+     * @param checkedSourceCount number of source files that must not have changed
+     * @param sourcePaths        all files the tree was parsed from, in the same order as in {@link #write}
+     * @return true if the snapshot exists and the first checkedSourceCount files match their fingerprints
+     */
+    public static boolean matchesSources(String snapshotPath, int checkedSourceCount, String... sourcePaths) {
+        File snapshotFile = new File(snapshotPath);
+        if (!snapshotFile.isFile()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return buffer.getInt() == MAGIC && buffer.getInt() == VERSION
+                    && matchesFingerprints(buffer, sourcePaths, checkedSourceCount);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Loads the tree from the snapshot file, even if the files it was parsed from changed since, e.g. to update it
+     * with {@link TaxonomyUpdate}
+     *
+     * @param snapshotPath where the snapshot was saved
+     * @return the tree, or null if there is no valid snapshot
+     */
+    public static TaxonTree loadIgnoringSources(String snapshotPath) {
+        return load(snapshotPath, 0);
+    }
+
+    private static TaxonTree load(String snapshotPath, int checkedSourceCount, String... sourcePaths) {
+        File snapshotFile = new File(snapshotPath);
+        if (!snapshotFile.isFile()) {
+            return null;
+        }
+        long startTime = System.currentTimeMillis();
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            if (!matchesFingerprints(buffer, sourcePaths, checkedSourceCount)) {
+                return null;
+            }
+
+            int size = buffer.getInt();
+            int rootIndex = buffer.getInt();
+            if (size < 0 || 17L * size > buffer.remaining()) {
+                //A damaged header, the arrays can't be in the file
+                return null;
+            }
+            //Maps the stored rank codes to the codes of this run
+            byte[] rankCodeMap = new byte[buffer.getInt() + 1];
+            for (int code = 1; code < rankCodeMap.length; code++) {
+                byte[] rankBytes = new byte[buffer.getShort() & 0xffff];
+                buffer.get(rankBytes);
+                rankCodeMap[code] = TaxonRank.intern(new String(rankBytes, StandardCharsets.UTF_8));
+            }
+
+            //The tree structure is copied into arrays in bulk, no objects are created per node
+            int[] taxonIds = readInts(buffer, size);
+            int[] parentIndices = readInts(buffer, size);
+            int[] firstChildIndices = readInts(buffer, size);
+            int[] nextSiblingIndices = readInts(buffer, size);
+            byte[] rankCodes = new byte[size];
+            buffer.get(rankCodes);
+            for (int i = 0; i < size; i++) {
+                rankCodes[i] = rankCodeMap[rankCodes[i] & 0xff];
+            }
+            //The names stay in the mapped file, they are only decoded when a node's name is requested
+            ByteBuffer nameOffsets = buffer.slice();
+            nameOffsets.limit(4 * size);
+            buffer.position(buffer.position() + 4 * size);
+            //The ancestor table is used directly from the mapped file as well
+            ByteBuffer rankAncestors = buffer.slice();
+            rankAncestors.limit(4 * size * TaxonRank.CANONICAL_RANK_COUNT);
+            buffer.position(buffer.position() + 4 * size * TaxonRank.CANONICAL_RANK_COUNT);
+            int nameLength = buffer.getInt();
+            ByteBuffer nameBytes = buffer.slice();
+            nameBytes.limit(nameLength);
+            buffer.position(buffer.position() + nameLength);
+
+            TaxonTree taxonTree = new TaxonTree(taxonIds, parentIndices, firstChildIndices, nextSiblingIndices,
+                    rankCodes, new TaxonNamePool(nameOffsets.asIntBuffer(), nameBytes),
+                    rankAncestors.asIntBuffer(), rootIndex);
+            int redirectCount = buffer.getInt();
+            for (int i = 0; i < redirectCount; i++) {
+                taxonTree.addRedirect(buffer.getInt(), buffer.getInt());
+            }
+            System.out.println("Snapshot loaded in " + (System.currentTimeMillis() - startTime) / 1000.d + "s");
+            return taxonTree;
+        } catch (IOException | RuntimeException e) {
+            //A broken snapshot is no reason to fail, the tree is simply parsed again
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, IntBuffer values) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(64 * 1024);
+        while (values.hasRemaining()) {
+            IntBuffer chunkInts = chunk.asIntBuffer();
+            int count = Math.min(chunkInts.capacity(), values.remaining());
+            for (int i = 0; i < count; i++) {
+                chunkInts.put(values.get());
+            }
+            out.write(chunk.array(), 0, 4 * count);
+        }
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + 4 * count);
+        return values;
+    }
+
+    private static void writeFingerprints(DataOutputStream out, String[] sourcePaths) throws IOException {
+        out.writeInt(sourcePaths.length);
+        for (String sourcePath : sourcePaths) {
+            File sourceFile = new File(sourcePath);
+            if (!sourceFile.isFile()) {
+                //Optional files like merged.dmp, the snapshot stays valid as long as they're still missing
+                out.writeLong(MISSING_FILE);
+                out.writeLong(0);
+                out.writeLong(0);
+                continue;
+            }
+            out.writeLong(sourceFile.length());
+            out.writeLong(sourceFile.lastModified());
+            out.writeLong(checksum(sourceFile));
+        }
+    }
+
+    /**
+     * Compares the stored fingerprints with the current source files. Size and modification time are checked
+     * first, the checksum is only computed if both still match.
+     *
+     * @param checkedSourceCount number of files that are compared, the fingerprints of the others are skipped
+     */
+    private static boolean matchesFingerprints(ByteBuffer buffer, String[] sourcePaths, int checkedSourceCount)
+            throws IOException {
+        int sourceCount = buffer.getInt();
+        if (checkedSourceCount > 0 && sourceCount != sourcePaths.length) {
+            return false;
+        }
+        for (int source = 0; source < sourceCount; source++) {
+            long size = buffer.getLong();
+            long lastModified = buffer.getLong();
+            long checksum = buffer.getLong();
+            if (source >= checkedSourceCount) {
+                continue;
+            }
+            File sourceFile = new File(sourcePaths[source]);
+            if (!sourceFile.isFile()) {
+                if (size != MISSING_FILE) {
+                    return false;
+                }
+            } else if (sourceFile.length() != size || sourceFile.lastModified() != lastModified
+                    || checksum(sourceFile) != checksum) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * CRC32 over the whole file, read through memory-mapped windows
+     */
+    private static long checksum(File file) throws IOException {
+        CRC32 crc32 = new CRC32();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += CHECKSUM_WINDOW) {
+                crc32.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(CHECKSUM_WINDOW, size - position)));
+            }
+        }
+        return crc32.getValue();
+    }
+}
@@ -0,0 +1,137 @@
+package analysis;
+
+import model.RankProjection;
+import model.Sample;
+import model.TaxonNode;
+import model.TaxonRank;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.special.Erf;
+import org.apache.commons.math3.stat.correlation.KendallsCorrelation;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests Kendall's tau-b against commons-math and the p-values against a direct count of all pairs of samples
+ */
+public class KendallCorrelationTest {
+
+    /**
+     * More taxa than fit into one tile, with many tied counts and one taxon with a constant count
+     */
+    @Test
+    public void testCorrelation() {
+        RankProjection projection = randomProjection(30, 90, 4);
+        double[][] counts = projection.getCountMatrix();
+        KendallCorrelation kendallCorrelation = new KendallCorrelation(projection);
+        RealMatrix expected = new KendallsCorrelation(counts).getCorrelationMatrix();
+        RealMatrix correlationMatrix = kendallCorrelation.getCorrelationMatrix();
+        RealMatrix pValues = kendallCorrelation.getCorrelationPValues();
+
+        for (int i = 0; i < expected.getRowDimension(); i++) {
+            assertEquals(0, pValues.getEntry(i, i), 0);
+            for (int j = 0; j < expected.getColumnDimension(); j++) {
+                assertEquals(expected.getEntry(i, j), correlationMatrix.getEntry(i, j), 1e-10);
+                if (i != j) {
+                    assertEquals(pValue(counts, i, j), pValues.getEntry(i, j), 1e-10);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testEdges() {
+        RankProjection projection = randomProjection(30, 90, 4);
+        KendallCorrelation kendallCorrelation = new KendallCorrelation(projection);
+        PearsonCorrelationTest.assertEdgesEqual(kendallCorrelation.getCorrelationMatrix(),
+                kendallCorrelation.getCorrelationPValues(), KendallCorrelation.computeEdges(projection, 0.3, 7));
+    }
+
+    /**
+     * Without ties the variance of the difference of concordant and discordant pairs is n(n - 1)(2n + 5) / 18
+     */
+    @Test
+    public void testPValueWithoutTies() {
+        TaxonNode taxon1 = new TaxonNode(1, "species", 0);
+        TaxonNode taxon2 = new TaxonNode(2, "species", 0);
+        int[][] counts = {{1, 2}, {2, 1}, {3, 4}, {4, 3}, {5, 6}, {6, 5}};
+        List<Sample> samples = new ArrayList<>();
+        for (int[] sampleCounts : counts) {
+            Sample sample = new Sample();
+            sample.getTaxa2CountMap().put(taxon1, sampleCounts[0]);
+            sample.getTaxa2CountMap().put(taxon2, sampleCounts[1]);
+            samples.add(sample);
+        }
+        RankProjection.invalidate();
+        KendallCorrelation kendallCorrelation = new KendallCorrelation(RankProjection.of(samples, TaxonRank.SPECIES));
+        //3 of 15 pairs are discordant
+        assertEquals(9 / 15., kendallCorrelation.getCorrelationMatrix().getEntry(0, 1), 1e-12);
+        double variance = 6 * 5 * 17 / 18.;
+        assertEquals(Erf.erfc(9 / Math.sqrt(2 * variance)), kendallCorrelation.getCorrelationPValues().getEntry(1, 0),
+                1e-12);
+    }
+
+    /**
+     * The p-value of the normal approximation with the variance corrected for ties, from all pairs of samples
+     */
+    private static double pValue(double[][] counts, int x, int y) {
+        int n = counts.length;
+        long s = 0;
+        for (int k = 0; k < n; k++) {
+            for (int l = k + 1; l < n; l++) {
+                s += (long) (Math.signum(counts[k][x] - counts[l][x]) * Math.signum(counts[k][y] - counts[l][y]));
+            }
+        }
+        double[] xTies = tieSums(counts, x), yTies = tieSums(counts, y);
+        double variance = (n * (n - 1.) * (2 * n + 5) - xTies[0] - yTies[0]) / 18
+                + xTies[1] * yTies[1] / (2. * n * (n - 1)) + xTies[2] * yTies[2] / (9. * n * (n - 1) * (n - 2));
+        if (!(variance > 0) || xTies[1] == n * (n - 1.) || yTies[1] == n * (n - 1.)) {
+            return Double.NaN;
+        }
+        return Erf.erfc(Math.abs(s) / Math.sqrt(2 * variance));
+    }
+
+    /**
+     * @return the sums of t(t - 1)(2t + 5), t(t - 1) and t(t - 1)(t - 2) over all groups of t equal counts
+     */
+    private static double[] tieSums(double[][] counts, int column) {
+        HashMap<Double, Integer> groupSizes = new HashMap<>();
+        for (double[] row : counts) {
+            groupSizes.merge(row[column], 1, Integer::sum);
+        }
+        double[] sums = new double[3];
+        for (double t : groupSizes.values()) {
+            sums[0] += t * (t - 1) * (2 * t + 5);
+            sums[1] += t * (t - 1);
+            sums[2] += t * (t - 1) * (t - 2);
+        }
+        return sums;
+    }
+
+    private static RankProjection randomProjection(int sampleCount, int taxonCount, int maxCount) {
+        List<TaxonNode> taxa = new ArrayList<>();
+        for (int taxonId = 1; taxonId <= taxonCount; taxonId++) {
+            taxa.add(new TaxonNode(taxonId, "species", 0));
+        }
+        Random random = new Random(sampleCount * 31 + taxonCount);
+        List<Sample> samples = new ArrayList<>();
+        for (int sampleIndex = 0; sampleIndex < sampleCount; sampleIndex++) {
+            Sample sample = new Sample();
+            for (TaxonNode taxonNode : taxa) {
+                if (random.nextDouble() < 0.6) {
+                    sample.getTaxa2CountMap().put(taxonNode, 1 + random.nextInt(maxCount));
+                }
+            }
+            //The first taxon has the same count in every sample
+            sample.getTaxa2CountMap().put(taxa.get(0), 3);
+            samples.add(sample);
+        }
+        RankProjection.invalidate();
+        return RankProjection.of(samples, TaxonRank.SPECIES);
+    }
+}
@@ -0,0 +1,157 @@
+package analysis;
+
+import model.RankProjection;
+import model.Sample;
+import model.SampleMatrix;
+import model.TaxonNode;
+import model.TaxonRank;
+import org.apache.commons.math3.linear.BlockRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.stat.correlation.PearsonsCorrelation;
+import org.apache.commons.math3.stat.correlation.SpearmansCorrelation;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the parallel Pearson correlation matches the one of commons-math
+ */
+public class PearsonCorrelationTest {
+
+    /**
+     * More taxa than fit into one tile, one of them with a constant count
+     */
+    @Test
+    public void testCorrelationMatrix() {
+        long[][] rows = randomRows(12, 150);
+        for (long[] row : rows) {
+            row[42] = 7;
+        }
+        SampleMatrix counts = SampleMatrix.fromRows(rows, 150);
+        PearsonsCorrelation expected = new PearsonsCorrelation(counts.toArray());
+
+        RealMatrix correlationMatrix = PearsonCorrelation.computeCorrelationMatrix(counts);
+        assertMatrixEquals(expected.getCorrelationMatrix(), correlationMatrix);
+        assertTrue(Double.isNaN(correlationMatrix.getEntry(3, 42)));
+        assertEquals(1, correlationMatrix.getEntry(42, 42), 0);
+
+        assertMatrixEquals(expected.getCorrelationPValues(),
+                PearsonCorrelation.computePValues(correlationMatrix, counts.getRowCount()));
+    }
+
+    /**
+     * More samples than fit into one block
+     */
+    @Test
+    public void testManySamples() {
+        long[][] rows = randomRows(600, 20);
+        SampleMatrix counts = SampleMatrix.fromRows(rows, 20);
+        assertMatrixEquals(new PearsonsCorrelation(counts.toArray()).getCorrelationMatrix(),
+                PearsonCorrelation.computeCorrelationMatrix(counts));
+    }
+
+    /**
+     * Spearman's correlation as Pearson's correlation of the ranked columns of a projection, with many tied counts
+     */
+    @Test
+    public void testSpearmanCorrelation() {
+        List<TaxonNode> taxa = new ArrayList<>();
+        for (int taxonId = 1; taxonId <= 80; taxonId++) {
+            taxa.add(new TaxonNode(taxonId, "species", 0));
+        }
+        Random random = new Random(5);
+        List<Sample> samples = new ArrayList<>();
+        for (int sampleIndex = 0; sampleIndex < 15; sampleIndex++) {
+            Sample sample = new Sample();
+            for (TaxonNode taxonNode : taxa) {
+                if (random.nextDouble() < 0.5) {
+                    sample.getTaxa2CountMap().put(taxonNode, 1 + random.nextInt(5));
+                }
+            }
+            samples.add(sample);
+        }
+        RankProjection.invalidate();
+        RankProjection projection = RankProjection.of(samples, TaxonRank.SPECIES);
+        SpearmansCorrelation expected = new SpearmansCorrelation(new BlockRealMatrix(projection.getMatrix().toArray()));
+
+        RealMatrix correlationMatrix = PearsonCorrelation.computeRankCorrelationMatrix(projection);
+        assertMatrixEquals(expected.getCorrelationMatrix(), correlationMatrix);
+        assertMatrixEquals(expected.getRankCorrelation().getCorrelationPValues(),
+                PearsonCorrelation.computePValues(correlationMatrix, samples.size()));
+        assertEdgesEqual(correlationMatrix, PearsonCorrelation.computePValues(correlationMatrix, samples.size()),
+                PearsonCorrelation.computeRankCorrelationEdges(projection, 0.5, 10));
+    }
+
+    /**
+     * The edges are the pairs of the matrices that reach the floor, the pivots keep their full rows
+     */
+    @Test
+    public void testEdges() {
+        long[][] rows = randomRows(12, 150);
+        for (long[] row : rows) {
+            row[42] = 7;
+        }
+        SampleMatrix counts = SampleMatrix.fromRows(rows, 150);
+        RealMatrix correlationMatrix = PearsonCorrelation.computeCorrelationMatrix(counts);
+        RealMatrix pValues = PearsonCorrelation.computePValues(correlationMatrix, counts.getRowCount());
+        CorrelationEdges edges = PearsonCorrelation.computeEdges(counts, 0.5, 10);
+        assertEdgesEqual(correlationMatrix, pValues, edges);
+    }
+
+    /**
+     * Compares the edges with the pairs of the matrices, pairs are kept if their absolute correlation reaches the floor
+     */
+    static void assertEdgesEqual(RealMatrix correlationMatrix, RealMatrix pValues, CorrelationEdges edges) {
+        int taxonCount = correlationMatrix.getRowDimension();
+        int expectedSize = 0;
+        for (int i = 0; i < taxonCount; i++) {
+            for (int j = i + 1; j < taxonCount; j++) {
+                if (Math.abs(correlationMatrix.getEntry(i, j)) >= edges.getFloor()) {
+                    expectedSize++;
+                }
+            }
+        }
+        assertTrue(expectedSize > 0);
+        assertEquals(expectedSize, edges.size());
+        for (int edge = 0; edge < edges.size(); edge++) {
+            int source = edges.getSource(edge), target = edges.getTarget(edge);
+            assertTrue(source < target);
+            assertEquals(correlationMatrix.getEntry(source, target), edges.getCorrelation(edge), 1e-6);
+            assertEquals(pValues.getEntry(source, target), edges.getPValue(edge), 1e-6);
+        }
+
+        int[] pivots = edges.getPivots();
+        for (int row = 0; row < pivots.length; row++) {
+            for (int column = 0; column < taxonCount; column++) {
+                double r = correlationMatrix.getEntry(pivots[row], column);
+                assertEquals(Double.isNaN(r) ? 0 : r, edges.getPivotCorrelations()[row][column], 1e-10);
+            }
+        }
+    }
+
+    private static void assertMatrixEquals(RealMatrix expected, RealMatrix actual) {
+        assertEquals(expected.getRowDimension(), actual.getRowDimension());
+        for (int i = 0; i < expected.getRowDimension(); i++) {
+            for (int j = 0; j < expected.getColumnDimension(); j++) {
+                assertEquals(expected.getEntry(i, j), actual.getEntry(i, j), 1e-10);
+            }
+        }
+    }
+
+    private static long[][] randomRows(int rowCount, int columnCount) {
+        Random random = new Random(rowCount * 31 + columnCount);
+        long[][] rows = new long[rowCount][columnCount];
+        for (long[] row : rows) {
+            for (int column = 0; column < columnCount; column++) {
+                if (random.nextDouble() < 0.4) {
+                    row[column] = 1 + random.nextInt(1000);
+                }
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,188 @@
+package model;
+
+import org.apache.commons.math3.stat.ranking.NaturalRanking;
+import org.junit.Before;
+import org.junit.Test;
+import treeParser.TreeParser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the projection of samples onto a rank
+ */
+public class RankProjectionTest {
+    private TaxonNode genus1, genus2, species1, species2, species3;
+    private Sample sample1, sample2;
+
+    /**
+     * Creates two genera with the following species:
+     * genus1 (10): species1 (20), species2 (30)
+     * genus2 (11): species3 (40)
+     * sample1 contains genus1: 1, species1: 2, species3: 4
+     * sample2 contains species2: 3, species3: 5
+     */
+    @Before
+    public void setUp() {
+        genus1 = new TaxonNode(10, "genus", 1);
+        genus2 = new TaxonNode(11, "genus", 1);
+        species1 = new TaxonNode(20, "species", 10);
+        species2 = new TaxonNode(30, "species", 10);
+        species3 = new TaxonNode(40, "species", 11);
+        genus1.getChildNodeList().add(species1);
+        genus1.getChildNodeList().add(species2);
+        genus2.getChildNodeList().add(species3);
+
+        sample1 = new Sample();
+        sample1.getTaxa2CountMap().put(genus1, 1);
+        sample1.getTaxa2CountMap().put(species1, 2);
+        sample1.getTaxa2CountMap().put(species3, 4);
+        sample2 = new Sample();
+        sample2.getTaxa2CountMap().put(species2, 3);
+        sample2.getTaxa2CountMap().put(species3, 5);
+        RankProjection.invalidate();
+    }
+
+    @Test
+    public void testCounts() {
+        List<Sample> samples = Arrays.asList(sample1, sample2);
+        RankProjection projection = RankProjection.of(samples, TaxonRank.SPECIES);
+        assertEquals(Arrays.asList(species1, species2, species3), projection.getTaxa());
+        assertEquals(2, projection.getSampleCount());
+        assertArrayEquals(new double[]{2, 0, 4}, projection.getCountMatrix()[0], 0);
+        assertArrayEquals(new double[]{0, 3, 5}, projection.getCountMatrix()[1], 0);
+
+        //Only genus1 is in one of the samples itself, but its count includes the species
+        RankProjection genera = RankProjection.of(samples, TaxonRank.GENUS);
+        assertEquals(Arrays.asList(genus1), genera.getTaxa());
+        assertEquals(3, genera.getCount(0, 0));
+        assertEquals(3, genera.getCount(1, 0));
+    }
+
+    @Test
+    public void testRelativeFrequencies() {
+        RankProjection projection = RankProjection.of(Arrays.asList(sample1, sample2), TaxonRank.SPECIES);
+        assertArrayEquals(new double[]{2 / 6., 0, 4 / 6.}, projection.getRelativeFrequencies(0), 1e-12);
+        assertArrayEquals(new double[]{0, 3 / 8., 5 / 8.}, projection.getRelativeFrequencies(1), 1e-12);
+    }
+
+    @Test
+    public void testReuse() {
+        ArrayList<Sample> samples = new ArrayList<>(Arrays.asList(sample1, sample2));
+        RankProjection projection = RankProjection.of(samples, TaxonRank.SPECIES);
+        //Another list with the same samples
+        assertSame(projection, RankProjection.of(new ArrayList<>(samples), TaxonRank.SPECIES));
+
+        //Changed counts
+        sample2.getTaxa2CountMap().put(species1, 7);
+        RankProjection changed = RankProjection.of(samples, TaxonRank.SPECIES);
+        assertNotSame(projection, changed);
+        assertEquals(7, changed.getCount(1, 0));
+
+        //Other samples
+        samples.remove(sample1);
+        assertEquals(1, RankProjection.of(samples, TaxonRank.SPECIES).getSampleCount());
+
+        RankProjection.invalidate();
+        assertNotSame(changed, RankProjection.of(Arrays.asList(sample1, sample2), TaxonRank.SPECIES));
+    }
+
+    @Test
+    public void testRankedColumns() {
+        Sample sample3 = new Sample();
+        sample3.getTaxa2CountMap().put(species1, 2);
+        sample3.getTaxa2CountMap().put(species3, 4);
+        List<Sample> samples = Arrays.asList(sample1, sample2, sample3);
+        RankProjection projection = RankProjection.of(samples, TaxonRank.SPECIES);
+        double[][] ranks = new double[3][samples.size()];
+        projection.readRankedColumns(0, 3, ranks);
+        //species1: 2, 0, 2; species2: 0, 3, 0; species3: 4, 5, 4
+        assertArrayEquals(new double[]{2.5, 1, 2.5}, ranks[0], 0);
+        assertArrayEquals(new double[]{1.5, 3, 1.5}, ranks[1], 0);
+        assertArrayEquals(new double[]{1.5, 3, 1.5}, ranks[2], 0);
+        for (int column = 0; column < ranks.length; column++) {
+            double[] counts = new double[samples.size()];
+            for (int row = 0; row < counts.length; row++) {
+                counts[row] = projection.getCount(row, column);
+            }
+            assertArrayEquals(new NaturalRanking().rank(counts), ranks[column], 0);
+        }
+        //A block of the taxa
+        double[][] block = new double[1][samples.size()];
+        projection.readRankedColumns(2, 3, block);
+        assertArrayEquals(ranks[2], block[0], 0);
+
+        //Doubled ranks and the samples sorted by them, equal ranks by sample index
+        int[][] doubledRanks = new int[3][samples.size()];
+        int[][] orders = new int[3][samples.size()];
+        projection.readSortedRanks(0, 3, doubledRanks, orders);
+        assertArrayEquals(new int[]{5, 2, 5}, doubledRanks[0]);
+        assertArrayEquals(new int[]{1, 0, 2}, orders[0]);
+        assertArrayEquals(new int[]{0, 2, 1}, orders[1]);
+    }
+
+    /**
+     * Ranks stored in mapped files are the same as on the heap
+     */
+    @Test
+    public void testMappedRanks() {
+        Random random = new Random(3);
+        long[][] rows = new long[40][70];
+        for (long[] row : rows) {
+            for (int column = 0; column < row.length; column++) {
+                row[column] = random.nextInt(3) == 0 ? 0 : random.nextInt(6);
+            }
+        }
+        SampleMatrix counts = SampleMatrix.fromRows(rows, 70);
+        RankedColumns heapRanks = new RankedColumns(counts, false);
+        RankedColumns mappedRanks = new RankedColumns(counts, true);
+        double[] heapColumn = new double[40], mappedColumn = new double[40];
+        int[] heapOrder = new int[40], mappedOrder = new int[40];
+        for (int column = 0; column < 70; column++) {
+            heapRanks.readRanks(column, heapColumn);
+            mappedRanks.readRanks(column, mappedColumn);
+            assertArrayEquals(new NaturalRanking().rank(counts.getColumn(column)), heapColumn, 0);
+            assertArrayEquals(heapColumn, mappedColumn, 0);
+            heapRanks.readOrder(column, heapOrder);
+            mappedRanks.readOrder(column, mappedOrder);
+            assertArrayEquals(heapOrder, mappedOrder);
+        }
+    }
+
+    /**
+     * Counts of taxa of a tree are projected through the rank-ancestor table, they must match the recursive counts
+     * of the samples at every rank
+     */
+    @Test
+    public void testTreeCounts() throws Exception {
+        TreeParser treeParser = new TreeParser();
+        treeParser.parseTree("./res/testFiles/treeParser/nodes_stub.dmp", "./res/testFiles/treeParser/names_stub.dmp");
+        TaxonTree stubTree = treeParser.getTaxonTree();
+        Random random = new Random(42);
+        List<Sample> samples = new ArrayList<>();
+        for (int sampleIndex = 0; sampleIndex < 5; sampleIndex++) {
+            Sample sample = new Sample();
+            for (int taxon = 0; taxon < 30; taxon++) {
+                sample.getTaxa2CountMap().put(stubTree.getNodeAt(random.nextInt(stubTree.size())),
+                        1 + random.nextInt(100));
+            }
+            samples.add(sample);
+        }
+        for (byte rankCode = TaxonRank.SUPERKINGDOM; rankCode <= TaxonRank.SPECIES; rankCode++) {
+            RankProjection projection = RankProjection.of(samples, rankCode);
+            for (int sampleIndex = 0; sampleIndex < samples.size(); sampleIndex++) {
+                Sample sample = samples.get(sampleIndex);
+                double[] frequencies = projection.getRelativeFrequencies(sampleIndex);
+                for (int column = 0; column < projection.getTaxa().size(); column++) {
+                    TaxonNode taxonNode = projection.getTaxa().get(column);
+                    assertEquals(sample.getTaxonCountRecursive(taxonNode), projection.getCount(sampleIndex, column));
+                    assertEquals(sample.getTaxa2CountMap().containsKey(taxonNode), frequencies[column] > 0);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the dense and the sparse layout of a SampleMatrix return the same counts
+ */
+public class SampleMatrixTest {
+
+    @Test
+    public void testLayout() {
+        assertTrue(SampleMatrix.fromRows(randomRows(5, 20, 0.9), 20).isDense());
+        assertFalse(SampleMatrix.fromRows(randomRows(5, 20, 0.05), 20).isDense());
+    }
+
+    @Test
+    public void testSparseMatrix() {
+        long[][] rows = randomRows(7, 50, 0.1);
+        testMatrix(rows, SampleMatrix.fromRows(rows, 50));
+    }
+
+    @Test
+    public void testDenseMatrix() {
+        long[][] rows = randomRows(7, 50, 0.8);
+        testMatrix(rows, SampleMatrix.fromRows(rows, 50));
+    }
+
+    /**
+     * Builds the matrix in a mapped file, reusing the row array
+     */
+    @Test
+    public void testMappedMatrix() {
+        long[][] rows = randomRows(7, 50, 0.5);
+        SampleMatrix.Builder builder = new SampleMatrix.Builder(7, 50, true);
+        long[] row = new long[50];
+        for (int i = 0; i < rows.length; i++) {
+            System.arraycopy(rows[i], 0, row, 0, row.length);
+            builder.setRow(i, row);
+        }
+        SampleMatrix matrix = builder.build();
+        assertTrue(matrix instanceof MappedSampleMatrix);
+        testMatrix(rows, matrix);
+    }
+
+    /**
+     * A large sparse matrix keeps its entries in mapped files
+     */
+    @Test
+    public void testMappedSparseMatrix() {
+        long[][] rows = randomRows(7, 50, 0.1);
+        SampleMatrix.Builder builder = new SampleMatrix.Builder(7, 50, true);
+        for (int i = 0; i < rows.length; i++) {
+            builder.setRow(i, rows[i]);
+        }
+        SampleMatrix matrix = builder.build();
+        assertTrue(matrix instanceof MappedSparseSampleMatrix);
+        testMatrix(rows, matrix);
+    }
+
+    /**
+     * Rows given as their non-zero entries, rows that are skipped stay empty
+     */
+    @Test
+    public void testSparseRows() {
+        SampleMatrix.Builder builder = new SampleMatrix.Builder(4, 10);
+        builder.setRow(1, new int[]{2, 7, 0}, new long[]{5, 3, 0}, 2);
+        builder.setRow(3, new int[]{9}, new long[]{1}, 1);
+        SampleMatrix matrix = builder.build();
+        assertFalse(matrix.isDense());
+        assertEquals(3, matrix.getNonZeroCount());
+        assertEquals(5, matrix.get(1, 2));
+        assertEquals(3, matrix.get(1, 7));
+        assertEquals(1, matrix.get(3, 9));
+        assertEquals(0, matrix.getRowSum(0));
+        assertEquals(0, matrix.getRowSum(2));
+    }
+
+    private void testMatrix(long[][] rows, SampleMatrix matrix) {
+        int nonZeroCount = 0;
+        for (int row = 0; row < rows.length; row++) {
+            long rowSum = 0;
+            for (int column = 0; column < rows[0].length; column++) {
+                assertEquals(rows[row][column], matrix.get(row, column));
+                assertEquals(rows[row][column], matrix.getRow(row)[column], 0);
+                rowSum += rows[row][column];
+                if (rows[row][column] != 0) {
+                    nonZeroCount++;
+                }
+            }
+            assertEquals(rowSum, matrix.getRowSum(row));
+        }
+        assertEquals(nonZeroCount, matrix.getNonZeroCount());
+
+        for (int column = 0; column < rows[0].length; column++) {
+            long columnSum = 0;
+            for (int row = 0; row < rows.length; row++) {
+                assertEquals(rows[row][column], matrix.getColumn(column)[row], 0);
+                columnSum += rows[row][column];
+            }
+            assertEquals(columnSum, matrix.getColumnSum(column));
+
+            //Non-zero entries in the order of the rows
+            List<Integer> visitedRows = new ArrayList<>();
+            matrix.forEachInColumn(column, (row, value) -> {
+                assertNotEquals(0, value);
+                visitedRows.add(row);
+            });
+            for (int i = 1; i < visitedRows.size(); i++) {
+                assertTrue(visitedRows.get(i - 1) < visitedRows.get(i));
+            }
+        }
+        assertArrayEquals(matrix.getRow(3), matrix.toArray()[3], 0);
+
+        //A block of columns, overwriting what was in the arrays before
+        double[][] block = new double[5][rows.length];
+        for (double[] column : block) {
+            Arrays.fill(column, -1);
+        }
+        matrix.readColumns(10, 15, block);
+        for (int column = 10; column < 15; column++) {
+            assertArrayEquals(matrix.getColumn(column), block[column - 10], 0);
+        }
+    }
+
+    private static long[][] randomRows(int rowCount, int columnCount, double fillRatio) {
+        Random random = new Random(rowCount * 31 + columnCount);
+        long[][] rows = new long[rowCount][columnCount];
+        for (long[] row : rows) {
+            for (int column = 0; column < columnCount; column++) {
+                if (random.nextDouble() < fillRatio) {
+                    row[column] = 1 + random.nextInt(1000);
+                }
+            }
+        }
+        return rows;
+    }
+}
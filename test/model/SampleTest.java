@@ -4,6 +4,8 @@ import org.junit.Before;
 import org.junit.Test;
 import treeParser.TreeParser;
 
+import java.util.HashMap;
+
 import static org.junit.Assert.*;
 
 /**
@@ -92,4 +94,132 @@ public class SampleTest {
         assertEquals(42,sample.getTaxonCountRecursive(node32));
 
     }
-}
\ No newline at end of file
+
+    /**
+     * For nodes of a TaxonTree the recursive count is a range sum over the preorder numbering.
+     * It must match summing up the child lists, also after the counts have changed.
+     * @throws Exception
+     */
+    @Test
+    public void testTaxonCountRangeSum() throws Exception {
+        TreeParser parser = new TreeParser();
+        parser.parseTree("./res/testFiles/treeParser/nodes_stub.dmp", "./res/testFiles/treeParser/names_stub.dmp");
+        TaxonTree taxonTree = parser.getTaxonTree();
+        Sample sample = new Sample();
+        for (int index = 0; index < taxonTree.size(); index += 3) {
+            sample.getTaxa2CountMap().put(taxonTree.getNodeAt(index), index + 1);
+        }
+        for (int index = 0; index < taxonTree.size(); index++) {
+            TaxonNode node = taxonTree.getNodeAt(index);
+            assertEquals(sumChildLists(sample, node), sample.getTaxonCountRecursive(node));
+        }
+
+        sample.getTaxa2CountMap().put(taxonTree.getNodeForID(7), 1000);
+        sample.getTaxa2CountMap().remove(taxonTree.getRoot());
+        for (int index = 0; index < taxonTree.size(); index++) {
+            TaxonNode node = taxonTree.getNodeAt(index);
+            assertEquals(sumChildLists(sample, node), sample.getTaxonCountRecursive(node));
+        }
+    }
+
+    /**
+     * Recursive counts that don't fit into an int are cut off at Integer.MAX_VALUE instead of turning negative
+     * @throws Exception
+     */
+    @Test
+    public void testLargeTaxonCount() throws Exception {
+        TreeParser parser = new TreeParser();
+        parser.parseTree("./res/testFiles/treeParser/nodes_stub.dmp", "./res/testFiles/treeParser/names_stub.dmp");
+        TaxonTree taxonTree = parser.getTaxonTree();
+        Sample sample = new Sample();
+        //Species 7 belongs to genus 6
+        sample.addTaxonCount(taxonTree.getNodeForID(6), Integer.MAX_VALUE);
+        sample.addTaxonCount(taxonTree.getNodeForID(7), Integer.MAX_VALUE);
+        assertEquals(Integer.MAX_VALUE, sample.getTaxonCountRecursive(taxonTree.getNodeForID(7)));
+        assertEquals(Integer.MAX_VALUE, sample.getTaxonCountRecursive(taxonTree.getNodeForID(6)));
+        assertEquals(2L * Integer.MAX_VALUE, sample.getCountSum());
+    }
+
+    /**
+     * The cached recursive counts must be rebuilt when another sample changes the shared taxonomy or the counts map
+     * is replaced
+     * @throws Exception
+     */
+    @Test
+    public void testCachedCountsInSharedTaxonomy() throws Exception {
+        TreeParser parser = new TreeParser();
+        parser.parseTree("./res/testFiles/treeParser/nodes_stub.dmp", "./res/testFiles/treeParser/names_stub.dmp");
+        TaxonTree taxonTree = parser.getTaxonTree();
+        Sample sample = new Sample();
+        sample.getTaxa2CountMap().put(taxonTree.getNodeForID(33), 13);
+        sample.getTaxa2CountMap().put(taxonTree.getNodeForID(34), 15);
+        Sample otherSample = new Sample();
+        otherSample.getTaxa2CountMap().put(taxonTree.getNodeForID(7), 5);
+        otherSample.getTaxa2CountMap().put(taxonTree.getNodeForID(41), 2);
+        WorkingTaxonomy taxonomy = new WorkingTaxonomy();
+        taxonomy.addSample(sample);
+        assertEquals(28, sample.getTaxonCountRecursive(taxonTree.getNodeForID(32)));
+
+        //The other sample adds members before and after the taxa of the sample
+        taxonomy.addSample(otherSample);
+        assertEquals(28, sample.getTaxonCountRecursive(taxonTree.getNodeForID(32)));
+        assertEquals(0, sample.getTaxonCountRecursive(taxonTree.getNodeForID(41)));
+        assertEquals(2, otherSample.getTaxonCountRecursive(taxonTree.getNodeForID(41)));
+        for (int index = 0; index < taxonTree.size(); index++) {
+            TaxonNode node = taxonTree.getNodeAt(index);
+            assertEquals(sumChildLists(sample, node), sample.getTaxonCountRecursive(node));
+            assertEquals(sumChildLists(otherSample, node), otherSample.getTaxonCountRecursive(node));
+        }
+
+        taxonomy.removeSample(otherSample);
+        HashMap<TaxonNode, Integer> replacement = new HashMap<>();
+        replacement.put(taxonTree.getNodeForID(35), 4);
+        sample.setTaxa2CountMap(replacement);
+        assertEquals(4, sample.getTaxonCountRecursive(taxonTree.getNodeForID(32)));
+        assertEquals(0, sample.getTaxonCountRecursive(taxonTree.getNodeForID(33)));
+    }
+
+    /**
+     * Filtering with a new threshold starts from the full counts again, the frequencies are relative to the full sum.
+     * Counts: 33: 10, 34: 20, 35: 70
+     * @throws Exception
+     */
+    @Test
+    public void testFilterTaxaPrimary() throws Exception {
+        TreeParser parser = new TreeParser();
+        parser.parseTree("./res/testFiles/treeParser/nodes_stub.dmp", "./res/testFiles/treeParser/names_stub.dmp");
+        TaxonTree taxonTree = parser.getTaxonTree();
+        Sample sample = new Sample();
+        sample.getTaxa2CountMap().put(taxonTree.getNodeForID(33), 10);
+        sample.getTaxa2CountMap().put(taxonTree.getNodeForID(34), 20);
+        sample.getTaxa2CountMap().put(taxonTree.getNodeForID(35), 70);
+        double oldThreshold = AnalysisData.getExcludeFrequencyThreshold();
+        try {
+            AnalysisData.excludeFrequencyThresholdProperty().set(0.15);
+            sample.filterTaxaPrimary();
+            assertEquals(2, sample.getTaxa2CountMap().size());
+            assertFalse(sample.getTaxa2CountMap().containsKey(taxonTree.getNodeForID(33)));
+            assertEquals(90, sample.getTaxonCountRecursive(taxonTree.getNodeForID(32)));
+
+            AnalysisData.excludeFrequencyThresholdProperty().set(0.5);
+            sample.filterTaxaPrimary();
+            assertEquals(1, sample.getTaxa2CountMap().size());
+            assertEquals(70, sample.getTaxonCountRecursive(taxonTree.getNodeForID(32)));
+
+            AnalysisData.excludeFrequencyThresholdProperty().set(0);
+            sample.filterTaxaPrimary();
+            assertEquals(3, sample.getTaxa2CountMap().size());
+            assertEquals(100, sample.getTaxonCountRecursive(taxonTree.getNodeForID(32)));
+        } finally {
+            AnalysisData.excludeFrequencyThresholdProperty().set(oldThreshold);
+        }
+    }
+
+    private static int sumChildLists(Sample sample, TaxonNode node) {
+        int sum = sample.getTaxa2CountMap().getOrDefault(node, 0);
+        for (TaxonNode child : node.getChildNodeList()) {
+            sum += sumChildLists(sample, child);
+        }
+        return sum;
+    }
+}
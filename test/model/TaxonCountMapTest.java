@@ -0,0 +1,174 @@
+package model;
+
+import org.junit.Before;
+import org.junit.Test;
+import treeParser.TreeParser;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the primitive count storage of samples against a plain HashMap
+ */
+public class TaxonCountMapTest {
+    private TaxonTree taxonTree;
+
+    @Before
+    public void setUp() throws Exception {
+        TreeParser parser = new TreeParser();
+        parser.parseTree("./res/testFiles/treeParser/nodes_stub.dmp", "./res/testFiles/treeParser/names_stub.dmp");
+        taxonTree = parser.getTaxonTree();
+    }
+
+    /**
+     * Applies the same random changes to both maps, with taxa of the tree and a standalone node
+     */
+    @Test
+    public void testMapView() {
+        TaxonCountMap counts = new TaxonCountMap();
+        HashMap<TaxonNode, Integer> expected = new HashMap<>();
+        TaxonNode standalone = new TaxonNode(1, "no rank", 1);
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            int index = random.nextInt(taxonTree.size() + 1);
+            TaxonNode node = index == taxonTree.size() ? standalone : taxonTree.getNodeAt(index);
+            int value = random.nextInt(100);
+            switch (random.nextInt(4)) {
+                case 0:
+                    assertEquals(expected.put(node, value), counts.put(node, value));
+                    break;
+                case 1:
+                    assertEquals(expected.merge(node, value, Integer::sum), counts.merge(node, value, Integer::sum));
+                    break;
+                case 2:
+                    assertEquals(expected.remove(node), counts.remove(node));
+                    break;
+                default:
+                    assertEquals(expected.get(node), counts.get(node));
+            }
+            assertEquals(expected.size(), counts.size());
+        }
+        assertEquals(expected, counts);
+        assertEquals(expected.keySet(), counts.keySet());
+        assertEquals(expected, counts.clone());
+
+        //Removing through the iterators
+        Iterator<Map.Entry<TaxonNode, Integer>> iterator = counts.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<TaxonNode, Integer> entry = iterator.next();
+            if (entry.getValue() % 2 == 0) {
+                iterator.remove();
+            } else {
+                entry.setValue(entry.getValue() + 1);
+            }
+        }
+        expected.entrySet().removeIf(entry -> entry.getValue() % 2 == 0);
+        expected.replaceAll((node, value) -> value + 1);
+        assertEquals(expected, counts);
+    }
+
+    @Test
+    public void testLongCounts() {
+        TaxonCountMap counts = new TaxonCountMap();
+        TaxonNode node = taxonTree.getNodeForID(33);
+        counts.addCount(node, Integer.MAX_VALUE);
+        counts.addCount(node, 10);
+        assertEquals(Integer.MAX_VALUE + 10L, counts.getCount(node));
+        assertEquals(Integer.MAX_VALUE, (int) counts.get(node));
+        assertEquals(Integer.MAX_VALUE + 10L, counts.sum());
+    }
+
+    @Test
+    public void testAddAllAndFilter() {
+        TaxonCountMap counts = new TaxonCountMap();
+        TaxonCountMap otherCounts = new TaxonCountMap();
+        counts.put(taxonTree.getNodeForID(33), 13);
+        counts.put(taxonTree.getNodeForID(34), 15);
+        otherCounts.put(taxonTree.getNodeForID(34), 5);
+        otherCounts.put(taxonTree.getNodeForID(41), 1);
+
+        counts.addAll(otherCounts);
+        assertEquals(3, counts.size());
+        assertEquals(13, counts.getCount(taxonTree.getNodeForID(33)));
+        assertEquals(20, counts.getCount(taxonTree.getNodeForID(34)));
+        assertEquals(1, counts.getCount(taxonTree.getNodeForID(41)));
+
+        TaxonCountMap filteredCounts = counts.filter(count -> count > 10);
+        assertEquals(2, filteredCounts.size());
+        assertFalse(filteredCounts.containsKey(taxonTree.getNodeForID(41)));
+        assertEquals(3, counts.size());
+        assertNotEquals(counts.getVersion(), filteredCounts.getVersion());
+    }
+
+    /**
+     * Counts 33: 10, 34: 20, 35: 30, 41: 40, total 100
+     */
+    @Test
+    public void testViewAbove() {
+        TaxonCountMap counts = new TaxonCountMap();
+        counts.put(taxonTree.getNodeForID(35), 30);
+        counts.put(taxonTree.getNodeForID(33), 10);
+        counts.put(taxonTree.getNodeForID(41), 40);
+        counts.put(taxonTree.getNodeForID(34), 20);
+
+        TaxonCountMap view = counts.viewAbove(0.2);
+        assertEquals(2, view.size());
+        assertNull(view.get(taxonTree.getNodeForID(34)));
+        assertEquals(30, (int) view.get(taxonTree.getNodeForID(35)));
+        assertEquals(70, view.sum());
+        assertEquals(2, view.getIndices().length);
+        HashMap<TaxonNode, Integer> expected = new HashMap<>();
+        expected.put(taxonTree.getNodeForID(35), 30);
+        expected.put(taxonTree.getNodeForID(41), 40);
+        assertEquals(expected, view);
+
+        assertEquals(4, counts.viewAbove(0).size());
+        assertEquals(0, counts.viewAbove(0.5).size());
+        assertTrue(counts.viewAbove(0.5).isEmpty());
+
+        //Changing the view copies it, the full counts stay the same
+        view.put(taxonTree.getNodeForID(33), 1);
+        view.remove(taxonTree.getNodeForID(41));
+        assertEquals(2, view.size());
+        assertEquals(4, counts.size());
+        assertEquals(10, counts.getCount(taxonTree.getNodeForID(33)));
+        assertEquals(40, counts.getCount(taxonTree.getNodeForID(41)));
+    }
+
+    /**
+     * Taxa in the buffer are read by several threads at once, reading doesn't merge them into the map
+     */
+    @Test
+    public void testConcurrentReads() {
+        TaxonCountMap counts = new TaxonCountMap();
+        HashMap<TaxonNode, Integer> expected = new HashMap<>();
+        //Fewer taxa than fit into the buffer, in descending order
+        for (int index = 20; index > 0; index--) {
+            counts.put(taxonTree.getNodeAt(index), index);
+            expected.put(taxonTree.getNodeAt(index), index);
+        }
+        int version = counts.getVersion();
+        IntStream.range(0, 64).parallel().forEach(i -> {
+            assertEquals(expected, new HashMap<>(counts));
+            int[] indices = counts.getIndices();
+            assertEquals(20, indices.length);
+            for (int position = 1; position < indices.length; position++) {
+                assertTrue(indices[position - 1] < indices[position]);
+            }
+            TaxonCountMap.IndexedCounts taxa = counts.readIndexedCounts();
+            for (int position = 0; position < taxa.size(); position++) {
+                assertEquals(taxa.getIndexAt(position), taxa.getCountAt(position));
+            }
+        });
+        assertEquals(version, counts.getVersion());
+
+        counts.compact();
+        assertEquals(version, counts.getVersion());
+        assertEquals(expected, counts);
+    }
+}
@@ -0,0 +1,55 @@
+package model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the lookup of columns by id and by node
+ */
+public class TaxonIndexTest {
+
+    @Test
+    public void testColumns() {
+        List<TaxonNode> taxa = new ArrayList<>();
+        for (int id = 3000; id > 0; id -= 3) {
+            taxa.add(new TaxonNode(id, "species", 1));
+        }
+        //Duplicates are added once
+        taxa.add(taxa.get(0));
+        TaxonIndex taxonIndex = new TaxonIndex(taxa);
+
+        assertEquals(1000, taxonIndex.size());
+        for (int column = 0; column < taxonIndex.size(); column++) {
+            int id = taxonIndex.getTaxonIdAt(column);
+            assertEquals(3 * column + 3, id);
+            assertEquals(column, taxonIndex.columnOf(id));
+            assertEquals(column, taxonIndex.indexOf(taxonIndex.getNodeAt(column)));
+            assertSame(taxonIndex.getNodeAt(column), taxonIndex.asList().get(column));
+        }
+        assertEquals(-1, taxonIndex.columnOf(4));
+        assertEquals(-1, taxonIndex.columnOf(-3));
+        assertEquals(-1, taxonIndex.indexOf(new TaxonNode(3, "species", 1)));
+        assertEquals(0, new TaxonIndex(new ArrayList<>()).size());
+    }
+
+    /**
+     * Standalone nodes may share an id, they get a column each
+     */
+    @Test
+    public void testSharedIds() {
+        TaxonNode node = new TaxonNode(5, "genus", 1);
+        TaxonNode otherNode = new TaxonNode(5, "genus", 1);
+        TaxonNode thirdNode = new TaxonNode(7, "genus", 1);
+        TaxonIndex taxonIndex = new TaxonIndex(Arrays.asList(thirdNode, node, otherNode));
+        assertEquals(3, taxonIndex.size());
+        assertEquals(2, taxonIndex.indexOf(thirdNode));
+        assertNotEquals(taxonIndex.indexOf(node), taxonIndex.indexOf(otherNode));
+        assertTrue(taxonIndex.indexOf(node) < 2 && taxonIndex.indexOf(otherNode) < 2);
+        assertTrue(taxonIndex.asList().contains(otherNode));
+    }
+}
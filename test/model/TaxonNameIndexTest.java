@@ -0,0 +1,69 @@
+package model;
+
+import org.junit.Before;
+import org.junit.Test;
+import treeParser.TreeParser;
+
+import static org.junit.Assert.*;
+
+/**
+ * Looks up names of the stub tree, including synonyms and misspellings
+ */
+public class TaxonNameIndexTest {
+    TaxonTree stubTree;
+    TaxonNameIndex nameIndex;
+
+    @Before
+    public void setUp() throws Exception {
+        TreeParser treeParser = new TreeParser();
+        treeParser.parseTree("./res/testFiles/treeParser/nodes_stub.dmp", "./res/testFiles/treeParser/names_stub.dmp");
+        stubTree = treeParser.getTaxonTree();
+        nameIndex = TreeParser.parseNameIndex("./res/testFiles/treeParser/names_stub.dmp", stubTree);
+    }
+
+    /**
+     * Case is ignored, names of other name classes are found as well
+     * @throws Exception
+     */
+    @Test
+    public void testFindExact() throws Exception {
+        assertEquals(7, nameIndex.findTaxonId("azorhizobium CAULINODANS"));
+        int[] entries = nameIndex.findExact("Azorhizobium caulinodans");
+        assertEquals(1, entries.length);
+        assertTrue(nameIndex.isScientificAt(entries[0]));
+        //A misspelling of 6 (Azorhizobium)
+        assertEquals(6, nameIndex.findTaxonId("Azotirhizobium"));
+        assertFalse(nameIndex.isScientificAt(nameIndex.findExact("Azotirhizobium")[0]));
+        assertEquals(-1, nameIndex.findTaxonId("Azorhizobium caulinodan"));
+    }
+
+    /**
+     * All names with the prefix are returned in alphabetical order
+     * @throws Exception
+     */
+    @Test
+    public void testFindPrefix() throws Exception {
+        int[] entries = nameIndex.findPrefix("azorhizobium", 100);
+        assertTrue(entries.length >= 3);
+        assertEquals("Azorhizobium", nameIndex.getNameAt(entries[0]));
+        for (int i = 0; i < entries.length; i++) {
+            assertTrue(nameIndex.getNameAt(entries[i]).toLowerCase().startsWith("azorhizobium"));
+            if (i > 0) {
+                assertTrue(nameIndex.getNameAt(entries[i - 1]).compareToIgnoreCase(nameIndex.getNameAt(entries[i])) <= 0);
+            }
+        }
+        assertEquals(2, nameIndex.findPrefix("azorhizobium", 2).length);
+        assertEquals(0, nameIndex.findPrefix("Azorhizobiumx", 100).length);
+    }
+
+    /**
+     * An index built from the tree only knows the scientific names
+     * @throws Exception
+     */
+    @Test
+    public void testFromTree() throws Exception {
+        TaxonNameIndex treeIndex = TaxonNameIndex.fromTree(stubTree);
+        assertEquals(7, treeIndex.findTaxonId("Azorhizobium caulinodans"));
+        assertEquals(-1, treeIndex.findTaxonId("Azotirhizobium"));
+    }
+}
@@ -0,0 +1,41 @@
+package model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the interned rank table
+ */
+public class TaxonRankTest {
+
+    /**
+     * Interning the same rank twice must return the same code, unknown ranks must not be added by getCode
+     */
+    @Test
+    public void testIntern() throws Exception {
+        assertEquals(TaxonRank.SPECIES, TaxonRank.intern("species"));
+        assertEquals(TaxonRank.NO_RANK, TaxonRank.intern(null));
+        byte code = TaxonRank.intern("subspecies");
+        assertEquals(code, TaxonRank.intern(new String("subspecies")));
+        assertEquals(code, TaxonRank.getCode("subspecies"));
+        assertEquals("subspecies", TaxonRank.getName(code));
+
+        assertEquals(TaxonRank.UNKNOWN, TaxonRank.getCode("not_a_rank"));
+        assertEquals(TaxonRank.UNKNOWN, TaxonRank.getCode("not_a_rank"));
+        assertNull(TaxonRank.getName(TaxonRank.UNKNOWN));
+    }
+
+    /**
+     * Only the ranks offered for analysis have a canonical level
+     */
+    @Test
+    public void testCanonicalLevel() throws Exception {
+        assertEquals(1, TaxonRank.getCanonicalLevel(TaxonRank.getCode("superkingdom")));
+        assertEquals(1, TaxonRank.getCanonicalLevel(TaxonRank.getCode("domain")));
+        assertEquals(3, TaxonRank.getCanonicalLevel(TaxonRank.getCode("phylum")));
+        assertEquals(8, TaxonRank.getCanonicalLevel(TaxonRank.getCode("species")));
+        assertEquals(0, TaxonRank.getCanonicalLevel(TaxonRank.intern("no rank")));
+        assertEquals(0, TaxonRank.getCanonicalLevel(TaxonRank.NO_RANK));
+    }
+}
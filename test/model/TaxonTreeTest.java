@@ -4,9 +4,6 @@ import org.junit.Before;
 import org.junit.Test;
 import treeParser.TreeParser;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-
 import static org.junit.Assert.*;
 
 /**
@@ -35,4 +32,97 @@ public class TaxonTreeTest {
         assertEquals(ancestor, tree.getAncestorOfNode(testNode, "family"));
         assertEquals(tree.getRoot(), tree.getAncestorOfNode(testNode, "not_a_rank"));
     }
-}
\ No newline at end of file
+
+    /**
+     * The preorder numbering must give every subtree a contiguous range: the range of a node must contain exactly
+     * the node and its descendants. Uses the stub files, so every node can be checked.
+     * @throws Exception
+     */
+    @Test
+    public void testPreorderIndex() throws Exception {
+        TreeParser treeParser = new TreeParser();
+        treeParser.parseTree("./res/testFiles/treeParser/nodes_stub.dmp", "./res/testFiles/treeParser/names_stub.dmp");
+        TaxonTree stubTree = treeParser.getTaxonTree();
+        for (int index = 0; index < stubTree.size(); index++) {
+            TaxonNode node = stubTree.getNodeAt(index);
+            assertEquals(index, stubTree.getIndexAtPreorder(stubTree.getPreorderAt(index)));
+            assertEquals(countSubtree(node), stubTree.getSubtreeEndAt(index) - stubTree.getPreorderAt(index));
+            assertFalse(stubTree.isAncestor(node, node));
+            for (TaxonNode child : node.getChildNodeList()) {
+                assertTrue(stubTree.isAncestor(node, child));
+                assertFalse(stubTree.isAncestor(child, node));
+                for (TaxonNode grandChild : child.getChildNodeList()) {
+                    assertTrue(stubTree.isAncestor(node, grandChild));
+                }
+            }
+        }
+        //7 (Azorhizobium caulinodans) is in the subtree of 6 (Azorhizobium) and its ancestors, but not of 9
+        assertFalse(stubTree.isAncestor(stubTree.getNodeForID(9), stubTree.getNodeForID(7)));
+        for (TaxonNode ancestor = stubTree.getNodeForID(6); ancestor != null; ancestor = ancestor.getParentNode()) {
+            assertTrue(stubTree.isAncestor(ancestor, stubTree.getNodeForID(7)));
+        }
+    }
+
+    /**
+     * The ancestor table must give the same result as walking up the parents, for every node and canonical rank
+     * @throws Exception
+     */
+    @Test
+    public void testAncestorTable() throws Exception {
+        TreeParser treeParser = new TreeParser();
+        treeParser.parseTree("./res/testFiles/treeParser/nodes_stub.dmp", "./res/testFiles/treeParser/names_stub.dmp");
+        TaxonTree stubTree = treeParser.getTaxonTree();
+        for (int index = 0; index < stubTree.size(); index++) {
+            for (byte rankCode = TaxonRank.SUPERKINGDOM; rankCode <= TaxonRank.SPECIES; rankCode++) {
+                int expected = index;
+                while (expected != TaxonTree.NO_NODE && stubTree.getRankCodeAt(expected) != rankCode) {
+                    expected = stubTree.getParentIndexAt(expected);
+                }
+                assertEquals(expected, stubTree.getAncestorIndexAt(index, rankCode));
+            }
+        }
+        //7 (Azorhizobium caulinodans) is a species of the genus 6 (Azorhizobium)
+        TaxonNode node7 = stubTree.getNodeForID(7);
+        assertEquals(stubTree.getNodeForID(6), stubTree.getAncestorOfNode(node7, "genus"));
+        assertEquals(node7, stubTree.getAncestorOfNode(node7, "species"));
+    }
+
+    /**
+     * The lowest common ancestor must be the first ancestor of one node that is also an ancestor of the other,
+     * for every pair of nodes of the stub tree
+     * @throws Exception
+     */
+    @Test
+    public void testLowestCommonAncestor() throws Exception {
+        TreeParser treeParser = new TreeParser();
+        treeParser.parseTree("./res/testFiles/treeParser/nodes_stub.dmp", "./res/testFiles/treeParser/names_stub.dmp");
+        TaxonTree stubTree = treeParser.getTaxonTree();
+        LcaIndex lcaIndex = stubTree.getLcaIndex();
+        for (int index = 0; index < stubTree.size(); index++) {
+            for (int otherIndex = 0; otherIndex < stubTree.size(); otherIndex++) {
+                int expected = index;
+                while (expected != TaxonTree.NO_NODE && expected != otherIndex
+                        && !stubTree.isAncestor(stubTree.getNodeAt(expected), stubTree.getNodeAt(otherIndex))) {
+                    expected = stubTree.getParentIndexAt(expected);
+                }
+                assertEquals(expected, lcaIndex.lca(index, otherIndex));
+            }
+        }
+        //33 is in the family 31 and 41 in the family 39, both families belong to 80811
+        assertEquals(stubTree.getNodeForID(80811), stubTree.getLowestCommonAncestor(stubTree.getNodeForID(33),
+                stubTree.getNodeForID(41)));
+        //7 and 9 are in different trees of the stub
+        assertNull(stubTree.getLowestCommonAncestor(stubTree.getNodeForID(7), stubTree.getNodeForID(9)));
+        int[] indices = {stubTree.indexOf(33), TaxonTree.NO_NODE, stubTree.indexOf(34), stubTree.indexOf(35)};
+        assertEquals(stubTree.indexOf(32), lcaIndex.lca(indices, 0, indices.length));
+        assertEquals(TaxonTree.NO_NODE, lcaIndex.lca(indices, 1, 2));
+    }
+
+    private static int countSubtree(TaxonNode node) {
+        int count = 1;
+        for (TaxonNode child : node.getChildNodeList()) {
+            count += countSubtree(child);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,72 @@
+package model;
+
+import org.junit.Before;
+import org.junit.Test;
+import treeParser.TreeParser;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class WorkingTaxonomyTest {
+    private TaxonTree stubTree;
+
+    @Before
+    public void setUp() throws Exception {
+        TreeParser treeParser = new TreeParser();
+        treeParser.parseTree("./res/testFiles/treeParser/nodes_stub.dmp", "./res/testFiles/treeParser/names_stub.dmp");
+        stubTree = treeParser.getTaxonTree();
+    }
+
+    /**
+     * Sample a has 33 (13) and 34 (15), both children of 32. Sample b has 38 (5), a child of 47, and 41 (1).
+     * 47 and 40 (the parent of 41) are children of 39.
+     * The taxonomy must contain exactly the observed taxa and their ancestors while samples are added and removed.
+     * @throws Exception
+     */
+    @Test
+    public void testAddAndRemoveSamples() throws Exception {
+        Sample a = new Sample();
+        a.getTaxa2CountMap().put(stubTree.getNodeForID(33), 13);
+        a.getTaxa2CountMap().put(stubTree.getNodeForID(34), 15);
+        Sample b = new Sample();
+        b.getTaxa2CountMap().put(stubTree.getNodeForID(38), 5);
+        b.getTaxa2CountMap().put(stubTree.getNodeForID(41), 1);
+
+        WorkingTaxonomy taxonomy = new WorkingTaxonomy();
+        taxonomy.addSample(a);
+        assertTrue(taxonomy.contains(stubTree.getNodeForID(32)));
+        assertFalse(taxonomy.contains(stubTree.getNodeForID(35)));
+        assertFalse(taxonomy.contains(stubTree.getNodeForID(39)));
+        ArrayList<TaxonNode> children = taxonomy.getChildNodeList(stubTree.getNodeForID(32));
+        assertEquals(2, children.size());
+        assertTrue(children.contains(stubTree.getNodeForID(33)));
+        assertTrue(children.contains(stubTree.getNodeForID(34)));
+
+        taxonomy.addSample(b);
+        assertTrue(taxonomy.contains(stubTree.getNodeForID(47)));
+        assertTrue(taxonomy.contains(stubTree.getNodeForID(39)));
+        assertEquals(2, taxonomy.getChildNodeList(stubTree.getNodeForID(39)).size());
+        assertEquals(28, a.getTaxonCountRecursive(stubTree.getNodeForID(32)));
+        assertEquals(0, a.getTaxonCountRecursive(stubTree.getNodeForID(39)));
+        assertEquals(6, b.getTaxonCountRecursive(stubTree.getNodeForID(39)));
+        assertEquals(0, b.getTaxonCountRecursive(stubTree.getNodeForID(35)));
+
+        taxonomy.removeSample(b);
+        assertFalse(taxonomy.contains(stubTree.getNodeForID(38)));
+        assertFalse(taxonomy.contains(stubTree.getNodeForID(39)));
+        assertTrue(taxonomy.contains(stubTree.getNodeForID(32)));
+        for (TaxonNode taxonNode : taxonomy.getNodes()) {
+            assertTrue(taxonNode.getTaxonId() == 33 || taxonNode.getTaxonId() == 34
+                    || stubTree.isAncestor(taxonNode, stubTree.getNodeForID(33)));
+        }
+
+        //Changed counts are picked up by the taxonomy
+        a.getTaxa2CountMap().put(stubTree.getNodeForID(35), 14);
+        assertEquals(42, a.getTaxonCountRecursive(stubTree.getNodeForID(32)));
+        assertTrue(taxonomy.contains(stubTree.getNodeForID(35)));
+
+        taxonomy.clear();
+        assertEquals(0, taxonomy.size());
+    }
+}
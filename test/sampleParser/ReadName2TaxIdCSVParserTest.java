@@ -8,7 +8,7 @@ import model.TaxonNode;
 import treeParser.TreeParser;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 
@@ -43,5 +43,23 @@ public class ReadName2TaxIdCSVParserTest {
 
     }
 
-
-}
\ No newline at end of file
+    /**
+     * Reads with several taxa are counted for their lowest common ancestor, unknown ids are ignored
+     * @throws Exception
+     */
+    @Test
+    public void testMultiHit() throws Exception {
+        TreeParser treeParser = new TreeParser();
+        treeParser.parseTree("./res/testFiles/treeParser/nodes_stub.dmp", "./res/testFiles/treeParser/names_stub.dmp");
+        TaxonTree stubTree = treeParser.getTaxonTree();
+        ReadName2TaxIdCSVParser multiHitParser = new ReadName2TaxIdCSVParser(stubTree, true);
+        ArrayList<Sample> samples = multiHitParser.parse(
+                "./res/testFiles/readName2TaxId/example.readName2TaxId_multiHit.txt");
+        Map<TaxonNode, Integer> taxa2CountMap = samples.get(0).getTaxa2CountMap();
+        assertEquals(2, taxa2CountMap.get(stubTree.getNodeForID(32)), 0);
+        assertEquals(1, taxa2CountMap.get(stubTree.getNodeForID(33)), 0);
+        assertEquals(1, taxa2CountMap.get(stubTree.getNodeForID(80811)), 0);
+        assertEquals(1, taxa2CountMap.get(stubTree.getNodeForID(6)), 0);
+        assertEquals(4, taxa2CountMap.size());
+    }
+}
@@ -63,5 +63,21 @@ public class TaxonId2CountCSVTest {
 
     }
 
+    /**
+     * With a name index taxa can be given by their names, counts of the same taxon are added up
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testTaxonNames() throws Exception {
+        TreeParser treeParser = new TreeParser();
+        treeParser.parseTree("./res/testFiles/treeParser/nodes_stub.dmp", "./res/testFiles/treeParser/names_stub.dmp");
+        TaxonTree stubTree = treeParser.getTaxonTree();
+        TaxonId2CountCSVParser nameParser = new TaxonId2CountCSVParser(stubTree);
+        nameParser.setNameIndex(TreeParser.parseNameIndex("./res/testFiles/treeParser/names_stub.dmp", stubTree));
+        ArrayList<Sample> samples = nameParser.parse("./res/testFiles/taxonId2Count/example.taxonId2Count_names.txt");
+        assertEquals(8, samples.get(0).getTaxa2CountMap().get(stubTree.getNodeForID(7)), 0);
+        assertEquals(2, samples.get(0).getTaxa2CountMap().get(stubTree.getNodeForID(6)), 0);
+        assertEquals(2, samples.get(0).getTaxa2CountMap().size());
+    }
 }
-
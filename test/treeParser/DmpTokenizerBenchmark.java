@@ -0,0 +1,40 @@
+package treeParser;
+
+import model.TaxonRank;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Before/after throughput on the full NCBI dump: the old line based String.split parsing against the tokenizer. Only
+ * tokenization is measured, building the tree is the same for both. Run by hand, it's not part of the tests.
+ */
+public class DmpTokenizerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String nodesDmp = args.length > 0 ? args[0] : "./res/nodes.dmp";
+        String namesDmp = args.length > 1 ? args[1] : "./res/names.dmp";
+        double megabytes = (new File(nodesDmp).length() + new File(namesDmp).length()) / (1024.d * 1024.d);
+
+        long startTime = System.nanoTime();
+        long[] splitChecksum = {0};
+        DmpTokenizerTest.splitNodes(nodesDmp, row -> splitChecksum[0] += row.hashCode());
+        DmpTokenizerTest.splitNames(namesDmp, row -> splitChecksum[0] += row.hashCode());
+        double splitSeconds = (System.nanoTime() - startTime) / 1e9;
+
+        startTime = System.nanoTime();
+        long[] tokenizerChecksum = {0};
+        DmpTokenizer tokenizer = new DmpTokenizer();
+        tokenizer.readNodes(nodesDmp, (id, parentId, rank) ->
+                tokenizerChecksum[0] += (id + "|" + parentId + "|" + TaxonRank.getName(rank)).hashCode());
+        tokenizer.readNames(namesDmp, (id, name, length) ->
+                tokenizerChecksum[0] += (id + "|" + new String(name, 0, length, StandardCharsets.UTF_8)).hashCode());
+        double tokenizerSeconds = (System.nanoTime() - startTime) / 1e9;
+
+        System.out.printf("String.split: %.2fs (%.1f MB/s)%n", splitSeconds, megabytes / splitSeconds);
+        System.out.printf("DmpTokenizer: %.2fs (%.1f MB/s)%n", tokenizerSeconds, megabytes / tokenizerSeconds);
+        if (splitChecksum[0] != tokenizerChecksum[0]) {
+            System.out.println("Checksums differ");
+        }
+    }
+}
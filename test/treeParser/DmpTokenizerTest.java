@@ -0,0 +1,108 @@
+package treeParser;
+
+import model.TaxonRank;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the byte-level DmpTokenizer with the String.split based parsing it replaced
+ */
+public class DmpTokenizerTest {
+
+    /**
+     * Every row of the stub files must be tokenized exactly like String.split and trim did before
+     */
+    @Test
+    public void testTokenizerMatchesSplit() throws Exception {
+        List<String> expectedNodes = new ArrayList<>();
+        splitNodes("./res/testFiles/treeParser/nodes_stub.dmp", expectedNodes);
+        List<String> tokenizedNodes = new ArrayList<>();
+        new DmpTokenizer().readNodes("./res/testFiles/treeParser/nodes_stub.dmp",
+                (id, parentId, rank) -> tokenizedNodes.add(id + "|" + parentId + "|" + TaxonRank.getName(rank)));
+        assertEquals(100, tokenizedNodes.size());
+        assertEquals(expectedNodes, tokenizedNodes);
+
+        List<String> expectedNames = new ArrayList<>();
+        splitNames("./res/testFiles/treeParser/names_stub.dmp", expectedNames);
+        List<String> tokenizedNames = new ArrayList<>();
+        new DmpTokenizer().readNames("./res/testFiles/treeParser/names_stub.dmp",
+                (id, name, length) -> tokenizedNames.add(id + "|" + new String(name, 0, length, StandardCharsets.UTF_8)));
+        assertEquals(expectedNames, tokenizedNames);
+        assertTrue(tokenizedNames.contains("7|Azorhizobium caulinodans"));
+    }
+
+    /**
+     * A last line without a trailing line break, like merged.dmp or delnodes.dmp may end, is read like every other line
+     */
+    @Test
+    public void testLastLineWithoutLineBreak() throws Exception {
+        File mergedDmp = File.createTempFile("merged", ".dmp");
+        mergedDmp.deleteOnExit();
+        try (FileWriter writer = new FileWriter(mergedDmp)) {
+            writer.write("12\t|\t74109\t|\n30\t|\t29\t|");
+        }
+        List<String> ids = new ArrayList<>();
+        new DmpTokenizer().readIds(mergedDmp.getPath(), (first, second) -> ids.add(first + "|" + second));
+        assertEquals(Arrays.asList("12|74109", "30|29"), ids);
+
+        try (FileWriter writer = new FileWriter(mergedDmp)) {
+            writer.write("7\t|\n42");
+        }
+        ids.clear();
+        new DmpTokenizer().readIds(mergedDmp.getPath(), (first, second) -> ids.add(first + "|" + second));
+        assertEquals(Arrays.asList("7|0", "42|0"), ids);
+    }
+
+    interface RowConsumer {
+        void accept(String row);
+    }
+    /**
+     * The parsing of nodes.dmp as it was done before the tokenizer
+     */
+    private static void splitNodes(String fileNodesDmp, List<String> rows) throws Exception {
+        splitNodes(fileNodesDmp, rows::add);
+    }
+
+    static void splitNodes(String fileNodesDmp, RowConsumer rows) throws Exception {
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileNodesDmp))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] lineSplit = line.split("\\|");
+                int id = Integer.parseInt(lineSplit[0].trim());
+                int parentId = Integer.parseInt(lineSplit[1].trim());
+                String rank = lineSplit[2].trim();
+                rows.accept(id + "|" + parentId + "|" + rank);
+            }
+        }
+    }
+
+    /**
+     * The parsing of names.dmp as it was done before the tokenizer
+     */
+    private static void splitNames(String fileNamesDmp, List<String> rows) throws Exception {
+        splitNames(fileNamesDmp, rows::add);
+    }
+
+    static void splitNames(String fileNamesDmp, RowConsumer rows) throws Exception {
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileNamesDmp))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] lineSplit = line.split("\\|");
+                if (lineSplit[3].trim().equals("scientific name")) {
+                    int taxonId = Integer.parseInt(lineSplit[0].trim());
+                    rows.accept(taxonId + "|" + lineSplit[1].trim());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package treeParser;
+
+import model.TaxonTree;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+
+/**
+ * Applies small diff files to the stub tree
+ */
+public class TaxonomyUpdateTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String nodesDmp, namesDmp, mergedDmp, delnodesDmp, changedNodesDmp, changedNamesDmp, snapshot;
+
+    /**
+     * 34 is merged into 33 and 35 into 34 (so also into 33), 38 is deleted.
+     * 200 is a new species below 32 and 41 is moved from 40 to 42.
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        nodesDmp = folder.getRoot() + File.separator + "nodes.dmp";
+        namesDmp = folder.getRoot() + File.separator + "names.dmp";
+        snapshot = folder.getRoot() + File.separator + "taxonTree.snapshot";
+        Files.copy(Paths.get("./res/testFiles/treeParser/nodes_stub.dmp"), Paths.get(nodesDmp));
+        Files.copy(Paths.get("./res/testFiles/treeParser/names_stub.dmp"), Paths.get(namesDmp));
+        mergedDmp = write("merged.dmp", "35\t|\t34\t|\n34\t|\t33\t|\n");
+        delnodesDmp = write("delnodes.dmp", "38\t|\n");
+        changedNodesDmp = write("nodes_changed.dmp", "200\t|\t32\t|\tspecies\t|\t\t|\n41\t|\t42\t|\tspecies\t|\t\t|\n");
+        changedNamesDmp = write("names_changed.dmp", "200\t|\tNew species\t|\t\t|\tscientific name\t|\n");
+    }
+
+    private String write(String fileName, String content) throws Exception {
+        String path = folder.getRoot() + File.separator + fileName;
+        try (FileWriter writer = new FileWriter(path)) {
+            writer.write(content);
+        }
+        return path;
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        TreeParser treeParser = new TreeParser();
+        treeParser.parseTree(nodesDmp, namesDmp);
+        TaxonTree parsedTree = treeParser.getTaxonTree();
+        TaxonTree updatedTree = TaxonomyUpdate.update(parsedTree, mergedDmp, delnodesDmp, changedNodesDmp,
+                changedNamesDmp);
+
+        assertEquals(33, updatedTree.getNodeForID(34).getTaxonId());
+        assertEquals(33, updatedTree.getNodeForID(35).getTaxonId());
+        assertNull(updatedTree.findNodeForID(38));
+        assertEquals(32, updatedTree.getNodeForID(200).getParentId());
+        assertEquals("New species", updatedTree.getNodeForID(200).getName());
+        assertEquals("species", updatedTree.getNodeForID(200).getRank());
+        assertEquals(42, updatedTree.getNodeForID(41).getParentId());
+        assertEquals(parsedTree.getNodeForID(33).getName(), updatedTree.getNodeForID(33).getName());
+        assertEquals(parsedTree.size() - 3 + 1, updatedTree.size());
+        //The old tree is not changed
+        assertEquals(34, parsedTree.getNodeForID(34).getTaxonId());
+    }
+
+    /**
+     * Children of deleted taxa are moved to the closest ancestor that wasn't deleted, the deleted ids are gone
+     * @throws Exception
+     */
+    @Test
+    public void testDeleteWithChildren() throws Exception {
+        //42 is the parent of 43, 47 the parent of 38 and 48, all of them are below 39
+        String delnodes = write("delnodes_inner.dmp", "42\t|\n47\t|\n");
+        TreeParser treeParser = new TreeParser();
+        treeParser.parseTree(nodesDmp, namesDmp);
+        TaxonTree parsedTree = treeParser.getTaxonTree();
+        TaxonTree updatedTree = TaxonomyUpdate.update(parsedTree, null, delnodes, null, null);
+
+        assertNull(updatedTree.findNodeForID(42));
+        assertNull(updatedTree.findNodeForID(47));
+        assertEquals(39, updatedTree.getNodeForID(43).getParentId());
+        assertEquals(39, updatedTree.getNodeForID(38).getParentId());
+        assertEquals(39, updatedTree.getNodeForID(48).getParentId());
+        assertEquals(parsedTree.size() - 2, updatedTree.size());
+    }
+
+    /**
+     * Ids that are still in the tree are not redirected
+     * @throws Exception
+     */
+    @Test
+    public void testApplyMerged() throws Exception {
+        String merged = write("merged_unknown.dmp", "12\t|\t11\t|\n34\t|\t33\t|\n");
+        TreeParser treeParser = new TreeParser();
+        treeParser.parseTree(nodesDmp, namesDmp);
+        TaxonTree taxonTree = treeParser.getTaxonTree();
+        assertEquals(1, TaxonomyUpdate.applyMerged(taxonTree, merged));
+        assertEquals(11, taxonTree.getNodeForID(12).getTaxonId());
+        assertEquals(34, taxonTree.getNodeForID(34).getTaxonId());
+    }
+
+    /**
+     * The redirects are kept in the snapshot
+     * @throws Exception
+     */
+    @Test
+    public void testUpdateSnapshot() throws Exception {
+        TreeParser treeParser = new TreeParser();
+        treeParser.parseTree(nodesDmp, namesDmp);
+        TreeSnapshot.write(treeParser.getTaxonTree(), snapshot, nodesDmp, namesDmp);
+        assertNotNull(TaxonomyUpdate.updateSnapshot(snapshot, mergedDmp, delnodesDmp, null, null,
+                nodesDmp, namesDmp));
+
+        TaxonTree loadedTree = TreeSnapshot.load(snapshot, nodesDmp, namesDmp);
+        assertNotNull(loadedTree);
+        assertEquals(33, loadedTree.getNodeForID(35).getTaxonId());
+        assertNull(loadedTree.findNodeForID(38));
+    }
+}
@@ -3,7 +3,18 @@ package treeParser;
 import model.TaxonNode;
 import model.TaxonTree;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import sampleParser.ReadName2TaxIdCSVParser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import static org.junit.Assert.*;
 
@@ -27,4 +38,113 @@ public class TreeParserTest {
         assertEquals("Archangium", testNode.getParentNode().getName());
     }
 
-}
\ No newline at end of file
+    /**
+     * The parallel parser must build exactly the same tree as the sequential one.
+     * The stub files are split into tiny ranges so that every range boundary case is hit.
+     */
+    @Test
+    public void testParseTreeParallel() throws Exception {
+        String nodesDmp = "./res/testFiles/treeParser/nodes_stub.dmp";
+        String namesDmp = "./res/testFiles/treeParser/names_stub.dmp";
+        TreeParser sequentialParser = new TreeParser();
+        sequentialParser.parseTree(nodesDmp, namesDmp);
+        TaxonTree sequentialTree = sequentialParser.getTaxonTree();
+
+        for (long rangeSize : new long[]{1, 100, 1000, Long.MAX_VALUE}) {
+            TreeParser parallelParser = new TreeParser();
+            parallelParser.parseTreeParallel(nodesDmp, namesDmp, rangeSize);
+            TaxonTree parallelTree = parallelParser.getTaxonTree();
+
+            assertEquals(sequentialTree.getRoot().getTaxonId(), parallelTree.getRoot().getTaxonId());
+            assertEquals(sequentialTree.size(), parallelTree.size());
+            for (int index = 0; index < sequentialTree.size(); index++) {
+                TaxonNode node = sequentialTree.getNodeAt(index);
+                TaxonNode parallelNode = parallelTree.getNodeForID(node.getTaxonId());
+                assertEquals(node.getName(), parallelNode.getName());
+                assertEquals(node.getRank(), parallelNode.getRank());
+                assertEquals(node.getParentId(), parallelNode.getParentId());
+                assertEquals(node.getChildNodeList().size(), parallelNode.getChildNodeList().size());
+                for (int i = 0; i < node.getChildNodeList().size(); i++) {
+                    assertEquals(node.getChildNodeList().get(i).getTaxonId(),
+                            parallelNode.getChildNodeList().get(i).getTaxonId());
+                }
+            }
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Parsing the stub files from a zip (names.dmp before nodes.dmp, like in taxdmp.zip) must give the same tree as
+     * parsing the extracted files. merged.dmp in the zip is applied as well.
+     * @throws Exception
+     */
+    @Test
+    public void testParseTreeFromZip() throws Exception {
+        String nodesDmp = "./res/testFiles/treeParser/nodes_stub.dmp";
+        String namesDmp = "./res/testFiles/treeParser/names_stub.dmp";
+        String zipFile = folder.getRoot() + File.separator + "taxdmp.zip";
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile))) {
+            out.putNextEntry(new ZipEntry("merged.dmp"));
+            out.write("12\t|\t11\t|\n".getBytes("UTF-8"));
+            out.putNextEntry(new ZipEntry("names.dmp"));
+            out.write(Files.readAllBytes(Paths.get(namesDmp)));
+            out.putNextEntry(new ZipEntry("nodes.dmp"));
+            out.write(Files.readAllBytes(Paths.get(nodesDmp)));
+        }
+        TreeParser sequentialParser = new TreeParser();
+        sequentialParser.parseTree(nodesDmp, namesDmp);
+        TaxonTree sequentialTree = sequentialParser.getTaxonTree();
+        TreeParser zipParser = new TreeParser();
+        zipParser.parseTreeFromZip(zipFile);
+        TaxonTree zipTree = zipParser.getTaxonTree();
+
+        assertEquals(sequentialTree.size(), zipTree.size());
+        for (int index = 0; index < sequentialTree.size(); index++) {
+            TaxonNode node = sequentialTree.getNodeAt(index);
+            TaxonNode zipNode = zipTree.getNodeForID(node.getTaxonId());
+            assertEquals(node.getName(), zipNode.getName());
+            assertEquals(node.getRank(), zipNode.getRank());
+            assertEquals(node.getParentId(), zipNode.getParentId());
+        }
+        assertEquals(11, zipTree.getNodeForID(12).getTaxonId());
+    }
+
+    /**
+     * The partial tree for the ids of a sample file must contain these taxa and their ancestors, with the same
+     * parents and names as the full tree, and nothing else
+     * @throws Exception
+     */
+    @Test
+    public void testParsePartialTree() throws Exception {
+        String nodesDmp = "./res/testFiles/treeParser/nodes_stub.dmp";
+        String namesDmp = "./res/testFiles/treeParser/names_stub.dmp";
+        HashSet<Integer> taxonIds = new ReadName2TaxIdCSVParser(null)
+                .scanTaxonIds("./res/testFiles/readName2TaxId/example.readName2TaxId_stub.txt");
+        assertTrue(taxonIds.contains(7));
+        TreeParser fullParser = new TreeParser();
+        fullParser.parseTree(nodesDmp, namesDmp);
+        TaxonTree fullTree = fullParser.getTaxonTree();
+        TreeParser partialParser = new TreeParser();
+        partialParser.parsePartialTree(nodesDmp, namesDmp, null, taxonIds);
+        TaxonTree partialTree = partialParser.getTaxonTree();
+
+        HashSet<Integer> expectedIds = new HashSet<>();
+        for (int taxonId : taxonIds) {
+            for (TaxonNode node = fullTree.findNodeForID(taxonId); node != null; node = node.getParentNode()) {
+                expectedIds.add(node.getTaxonId());
+            }
+        }
+        assertEquals(expectedIds.size(), partialTree.size());
+        assertTrue(partialTree.size() < fullTree.size());
+        for (int index = 0; index < partialTree.size(); index++) {
+            TaxonNode partialNode = partialTree.getNodeAt(index);
+            TaxonNode fullNode = fullTree.getNodeForID(partialNode.getTaxonId());
+            assertTrue(expectedIds.contains(partialNode.getTaxonId()));
+            assertEquals(fullNode.getName(), partialNode.getName());
+            assertEquals(fullNode.getRank(), partialNode.getRank());
+            assertEquals(fullNode.getParentId(), partialNode.getParentId());
+        }
+    }
+}
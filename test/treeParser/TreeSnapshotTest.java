@@ -0,0 +1,116 @@
+package treeParser;
+
+import model.TaxonNode;
+import model.TaxonRank;
+import model.TaxonTree;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests writing and loading tree snapshots, uses the stub dmp files so it doesn't need the full NCBI dump
+ */
+public class TreeSnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String nodesDmp, namesDmp, snapshot;
+
+    @Before
+    public void setUp() throws Exception {
+        nodesDmp = folder.getRoot() + File.separator + "nodes.dmp";
+        namesDmp = folder.getRoot() + File.separator + "names.dmp";
+        snapshot = folder.getRoot() + File.separator + "taxonTree.snapshot";
+        Files.copy(Paths.get("./res/testFiles/treeParser/nodes_stub.dmp"), Paths.get(nodesDmp));
+        Files.copy(Paths.get("./res/testFiles/treeParser/names_stub.dmp"), Paths.get(namesDmp));
+    }
+
+    /**
+     * A loaded snapshot must contain exactly the same nodes, names, ranks and child lists as the parsed tree
+     */
+    @Test
+    public void testWriteAndLoad() throws Exception {
+        TreeParser treeParser = new TreeParser();
+        treeParser.parseTree(nodesDmp, namesDmp);
+        TaxonTree parsedTree = treeParser.getTaxonTree();
+        TreeSnapshot.write(parsedTree, snapshot, nodesDmp, namesDmp);
+
+        TaxonTree loadedTree = TreeSnapshot.load(snapshot, nodesDmp, namesDmp);
+        assertNotNull(loadedTree);
+        assertEquals(parsedTree.getRoot().getTaxonId(), loadedTree.getRoot().getTaxonId());
+        assertEquals(parsedTree.size(), loadedTree.size());
+        for (int index = 0; index < parsedTree.size(); index++) {
+            TaxonNode parsedNode = parsedTree.getNodeAt(index);
+            TaxonNode loadedNode = loadedTree.getNodeForID(parsedNode.getTaxonId());
+            assertEquals(parsedNode.getName(), loadedNode.getName());
+            assertEquals(parsedNode.getRank(), loadedNode.getRank());
+            assertEquals(parsedNode.getParentId(), loadedNode.getParentId());
+            for (byte rankCode = TaxonRank.SUPERKINGDOM; rankCode <= TaxonRank.SPECIES; rankCode++) {
+                assertEquals(parsedTree.getAncestorOfNode(parsedNode, rankCode).getTaxonId(),
+                        loadedTree.getAncestorOfNode(loadedNode, rankCode).getTaxonId());
+            }
+            assertEquals(parsedNode.getChildNodeList().size(), loadedNode.getChildNodeList().size());
+            for (int i = 0; i < parsedNode.getChildNodeList().size(); i++) {
+                assertEquals(parsedNode.getChildNodeList().get(i).getTaxonId(),
+                        loadedNode.getChildNodeList().get(i).getTaxonId());
+            }
+        }
+        //7 is Azorhizobium caulinodans, a child of 6
+        assertEquals("Azorhizobium caulinodans", loadedTree.getNodeForID(7).getName());
+        assertEquals("Azorhizobium", loadedTree.getNodeForID(7).getParentNode().getName());
+    }
+
+    /**
+     * Changing one of the source files must invalidate the snapshot
+     */
+    @Test
+    public void testStaleSnapshot() throws Exception {
+        TreeParser treeParser = new TreeParser();
+        treeParser.parseTree(nodesDmp, namesDmp);
+        TreeSnapshot.write(treeParser.getTaxonTree(), snapshot, nodesDmp, namesDmp);
+        assertNotNull(TreeSnapshot.load(snapshot, nodesDmp, namesDmp));
+
+        //Same size and modification time, but different content: only the checksum can tell
+        File namesFile = new File(namesDmp);
+        long lastModified = namesFile.lastModified();
+        byte[] content = Files.readAllBytes(namesFile.toPath());
+        content[content.length - 2] = (byte) (content[content.length - 2] == 'x' ? 'y' : 'x');
+        Files.write(namesFile.toPath(), content);
+        namesFile.setLastModified(lastModified);
+        assertNull(TreeSnapshot.load(snapshot, nodesDmp, namesDmp));
+
+        //Appending changes the size
+        TreeSnapshot.write(treeParser.getTaxonTree(), snapshot, nodesDmp, namesDmp);
+        try (FileWriter writer = new FileWriter(nodesDmp, true)) {
+            writer.write("\n");
+        }
+        assertNull(TreeSnapshot.load(snapshot, nodesDmp, namesDmp));
+    }
+
+    /**
+     * Missing optional sources keep the snapshot valid until they appear, the first sources can be checked alone
+     */
+    @Test
+    public void testOptionalSources() throws Exception {
+        String mergedDmp = folder.getRoot() + File.separator + "merged.dmp";
+        TreeParser treeParser = new TreeParser();
+        treeParser.parseTree(nodesDmp, namesDmp);
+        TreeSnapshot.write(treeParser.getTaxonTree(), snapshot, nodesDmp, namesDmp, mergedDmp);
+        assertNotNull(TreeSnapshot.load(snapshot, nodesDmp, namesDmp, mergedDmp));
+
+        try (FileWriter writer = new FileWriter(mergedDmp)) {
+            writer.write("34\t|\t33\t|\n");
+        }
+        assertNull(TreeSnapshot.load(snapshot, nodesDmp, namesDmp, mergedDmp));
+        assertTrue(TreeSnapshot.matchesSources(snapshot, 2, nodesDmp, namesDmp, mergedDmp));
+        assertFalse(TreeSnapshot.matchesSources(snapshot, 3, nodesDmp, namesDmp, mergedDmp));
+    }
+}